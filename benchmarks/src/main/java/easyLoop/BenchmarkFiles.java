@@ -0,0 +1,92 @@
+/**
+ * Files the benchmarks read: the tracks bundled with the program, and
+ * long synthetic ones written on first use
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class BenchmarkFiles {
+
+	/**
+	 * Bundled track most benchmarks use
+	 */
+	public final static String TRACK = "piano note0.wav";
+
+	/**
+	 * Where the bundled tracks are, from -Deasyloop.tracks, or the
+	 * tracks folder here or one up
+	 *
+	 * @return folder
+	 */
+	public static File tracks () {
+		String property = System.getProperty("easyloop.tracks");
+		if (property != null) return new File(property);
+
+		File here = new File("tracks");
+		return here.isDirectory() ? here : new File("../tracks");
+	}
+
+	/**
+	 * A bundled track
+	 *
+	 * @param name file name
+	 * @return the file
+	 * @throws IOException if it isn't there
+	 */
+	public static File track (String name) throws IOException {
+		File file = new File(tracks(), name);
+		if (!file.isFile()) {
+			throw new IOException("No track " + file.getAbsolutePath()
+					+ ", run from the top folder or set -Deasyloop.tracks");
+		}
+		return file;
+	}
+
+	/**
+	 * A chord of sine waves in the engine format, written to a
+	 * temporary file that is deleted on exit
+	 *
+	 * @param seconds length
+	 * @return the file
+	 * @throws IOException if it can't be written
+	 */
+	public static File synthetic (int seconds) throws IOException {
+		File file = File.createTempFile("easyloop-" + seconds + "s-", 
+				".wav");
+		file.deleteOnExit();
+
+		int frames = (int) (seconds * MixEngine.SAMPLE_RATE);
+		ByteBuffer block = ByteBuffer.allocate(MixEngine.BLOCK_FRAMES
+				* MixEngine.FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		WavWriter out = new WavWriter(file, MixEngine.FORMAT);
+		try {
+			for (int frame = 0; frame < frames; ) {
+				block.clear();
+				for (int i = 0; i < MixEngine.BLOCK_FRAMES && frame < frames;
+						i ++, frame ++) {
+					double t = frame / MixEngine.SAMPLE_RATE;
+					short s = (short) (8000 * (Math.sin(2 * Math.PI * 220 * t)
+							+ Math.sin(2 * Math.PI * 277.18 * t)
+							+ Math.sin(2 * Math.PI * 329.63 * t)) / 3);
+					block.putShort(s);
+					block.putShort(s);
+				}
+				block.flip();
+				out.write(block);
+			}
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+}
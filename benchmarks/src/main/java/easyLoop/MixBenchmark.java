@@ -0,0 +1,77 @@
+/**
+ * Mixing a block of audio with many voices sounding, what the engine
+ * does about 86 times a second
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixBenchmark {
+
+	/**
+	 * Voices sounding in every block
+	 */
+	@Param({"1", "16", "64", "256"})
+	public int voices;
+
+	/**
+	 * Seconds of the sample every voice plays
+	 */
+	private final static int SECONDS = 60;
+
+	private MixEngine engine;
+	private Sample sample;
+	private byte[] block = new byte[MixEngine.BLOCK_FRAMES 
+			* MixEngine.FRAME_SIZE];
+	private long restart;
+
+	@Setup
+	public void setup () throws Exception {
+		engine = new MixEngine();
+		sample = Sample.decode(BenchmarkFiles.synthetic(SECONDS));
+		start();
+	}
+
+	/**
+	 * Starts every voice from the current frame, a little apart so
+	 * they don't all read the same samples
+	 */
+	private void start () {
+		engine.clear();
+		long frame = engine.getFrame();
+		for (int i = 0; i < voices; i ++) engine.queue(sample, frame + i);
+		restart = frame + sample.getFrames() - voices 
+				- MixEngine.BLOCK_FRAMES;
+	}
+
+	@Benchmark
+	public byte[] render () {
+		// Start them again before they finish, so the count holds
+		if (engine.getFrame() >= restart) start();
+		engine.render(block);
+		return block;
+	}
+}
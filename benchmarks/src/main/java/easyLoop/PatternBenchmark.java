@@ -0,0 +1,136 @@
+/**
+ * Stepping through patterns, as the transport does for every track on
+ * every loop, and compiling them when they are set
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternBenchmark {
+
+	/**
+	 * Entries in the pattern
+	 */
+	@Param({"8", "64", "1024"})
+	public int steps;
+
+	/**
+	 * Entries the patterns are made of, chords and rests included
+	 */
+	private final static Object[] ENTRIES = {0, 3, "|", 7, ">", -5, "!", 12};
+
+	/**
+	 * Steps between emptying the engine, so its events never fill up
+	 */
+	private final static int DRAIN = 1024;
+
+	/**
+	 * Cache the transpositions are made in, thrown away afterwards so
+	 * the program's cache is left alone
+	 */
+	private File cacheDirectory;
+
+	private ArrayList<Object> pattern;
+	private MixEngine engine;
+	private AudioTrack track;
+	private long frame;
+	private int played;
+
+	@Setup
+	public void setup () throws Exception {
+		pattern = new ArrayList<Object>();
+		for (int i = 0; i < steps; i ++) {
+			pattern.add(ENTRIES[i % ENTRIES.length]);
+		}
+
+		cacheDirectory = Files.createTempDirectory("easyloop-bench").toFile();
+
+		AudioTrack prepared = new AudioTrack();
+		prepared.cache = new RenderCache(cacheDirectory,
+				RenderCache.DEFAULT_BUDGET);
+		prepared.setTrack(BenchmarkFiles.track(BenchmarkFiles.TRACK));
+		prepared.setPlayOrder(pattern);
+
+		// Its own engine, nothing mixes it
+		engine = new MixEngine();
+		track = new AudioTrack(prepared, engine);
+		prepared.releaseSamples();
+	}
+
+	@TearDown
+	public void tearDown () {
+		track.releaseSamples();
+
+		File[] files = cacheDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) file.delete();
+		}
+		cacheDirectory.delete();
+	}
+
+	/**
+	 * A step with the track muted, only walking the program
+	 */
+	@Benchmark
+	public int step () {
+		track.play = false;
+		return playNext();
+	}
+
+	/**
+	 * A step that schedules its voices with the engine
+	 */
+	@Benchmark
+	public int stepAndSchedule () {
+		track.play = true;
+		return playNext();
+	}
+
+	/**
+	 * Plays the next step, emptying the engine now and then since even
+	 * a muted step queues stops
+	 */
+	private int playNext () {
+		track.playNext(frame ++, null);
+		if (++ played == DRAIN) {
+			played = 0;
+			engine.clear();
+		}
+		return track.currentTrack;
+	}
+
+	/**
+	 * Compiling a pattern when it is set
+	 */
+	@Benchmark
+	public PatternProgram compile () {
+		return PatternProgram.compile(pattern);
+	}
+}
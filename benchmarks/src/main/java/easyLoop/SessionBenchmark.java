@@ -0,0 +1,88 @@
+/**
+ * Saving and opening sessions with many long patterns
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionBenchmark {
+
+	@Param({"10", "500"})
+	public int tracks;
+
+	/**
+	 * Entries in each track's pattern
+	 */
+	@Param({"16", "1000"})
+	public int steps;
+
+	private Session session;
+	private File saved;
+	private File written;
+
+	@Setup
+	public void setup () throws Exception {
+		session = new Session();
+		session.trackNumber = tracks;
+		session.mainTrackIndex = 0;
+		for (int i = 0; i < tracks; i ++) {
+			session.fileList.add(new File(BenchmarkFiles.tracks(), 
+					BenchmarkFiles.TRACK).getAbsolutePath());
+			ArrayList<Object> pattern = new ArrayList<Object>();
+			for (int j = 0; j < steps; j ++) {
+				pattern.add(j % 7 == 3 ? "|" : j % 11 == 5 ? "!" : j % 24);
+			}
+			session.patternList.add(pattern);
+			session.playingList.add(i % 2 == 0);
+			session.maxList.add(1 + i % 4);
+			session.currentList.add(1);
+		}
+
+		saved = File.createTempFile("easyloop-bench", Session.EXTENTION);
+		written = File.createTempFile("easyloop-bench", Session.EXTENTION);
+		session.write(saved.getPath());
+	}
+
+	@TearDown
+	public void tearDown () {
+		saved.delete();
+		written.delete();
+	}
+
+	@Benchmark
+	public File save () throws Exception {
+		session.write(written.getPath());
+		return written;
+	}
+
+	@Benchmark
+	public Session load () throws Exception {
+		return Session.read(saved.getPath());
+	}
+}
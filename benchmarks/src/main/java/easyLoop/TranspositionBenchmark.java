@@ -0,0 +1,64 @@
+/**
+ * Making transpositions: the full pitch shift Prepare does, and the
+ * quick varispeed played while a track isn't ready
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranspositionBenchmark {
+
+	/**
+	 * A bundled track, or seconds of synthetic audio
+	 */
+	@Param({BenchmarkFiles.TRACK, "30"})
+	public String file;
+
+	/**
+	 * Semitones to shift by
+	 */
+	@Param({"-7", "5"})
+	public int semitones;
+
+	private Sample source;
+
+	@Setup
+	public void setup () throws Exception {
+		source = Sample.decode(file.endsWith(".wav") 
+				? BenchmarkFiles.track(file)
+				: BenchmarkFiles.synthetic(Integer.parseInt(file)));
+	}
+
+	@Benchmark
+	public Sample shift () throws Exception {
+		return PitchShifter.shift(source, semitones);
+	}
+
+	@Benchmark
+	public Sample varispeed () {
+		return PitchShifter.varispeed(source, semitones);
+	}
+}
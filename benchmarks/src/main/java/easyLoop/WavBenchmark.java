@@ -0,0 +1,103 @@
+/**
+ * Reading .wav files: the header read that works out a file's length
+ * (EasyLoop.calculateLength), decoding for the sample pool, and going
+ * through every sample as the mixer does
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.File;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WavBenchmark {
+
+	/**
+	 * A bundled track, or seconds of synthetic audio
+	 */
+	@Param({BenchmarkFiles.TRACK, "60", "600"})
+	public String file;
+
+	private File wav;
+
+	@Setup
+	public void setup () throws Exception {
+		wav = file.endsWith(".wav") ? BenchmarkFiles.track(file) 
+				: BenchmarkFiles.synthetic(Integer.parseInt(file));
+	}
+
+	/**
+	 * Length from the header, as calculateLength finds it
+	 */
+	@Benchmark
+	public double length () throws Exception {
+		return new WavReader(wav).getSeconds();
+	}
+
+	/**
+	 * Length through java sound, what calculateLength used before
+	 */
+	@Benchmark
+	public double lengthJavaSound () throws Exception {
+		AudioInputStream in = AudioSystem.getAudioInputStream(wav);
+		try {
+			return in.getFrameLength() / in.getFormat().getFrameRate();
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Mapping into a sample, as cache entries in the engine format are
+	 */
+	@Benchmark
+	public Sample map () throws Exception {
+		return Sample.map(wav);
+	}
+
+	/**
+	 * Decoding into a sample in the heap, as source files are
+	 */
+	@Benchmark
+	public Sample decode () throws Exception {
+		return Sample.decode(wav);
+	}
+
+	/**
+	 * Mapping and reading every sample
+	 */
+	@Benchmark
+	public long mapAndRead () throws Exception {
+		ShortBuffer data = Sample.map(wav).data.duplicate();
+		data.rewind();
+		long sum = 0;
+		while (data.hasRemaining()) sum += data.get();
+		return sum;
+	}
+}
@@ -5,31 +5,45 @@
  * 
  * @author David Hampson (DavidHampson.97@gmail.com)
  * 
- * Pitch shifting and tempo changing made possible by "soundstretch"
- * @see http://www.surina.net/soundtouch/soundstretch.html
+ * Pitch shifting is done in memory by PitchShifter, tempo changing
+ * by TimeStretcher
  */
 
 package easyLoop;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sound.sampled.*;
 import javax.swing.JButton;
-import javax.swing.JOptionPane;
 
-public class AudioTrack {
+public class AudioTrack implements MixEngine.Owner {
     
 	/**
-	 * For use in main function to stop playback
+	 * Engine the track plays through
 	 */
-	protected ArrayList<Clip> audioInputStream = new ArrayList<Clip>();
+	protected MixEngine engine = MixEngine.shared();
 	
 	/**
 	 * For use in the main function to record
 	 */
 	protected TargetDataLine targetDataLine;
+	
+	/**
+	 * Recording in progress, and the loop it is trimmed to
+	 */
+	private volatile Recorder recorder;
+	private double recordLoop;
     
 	/**
 	 * Extension
@@ -39,8 +53,8 @@ public class AudioTrack {
 	/**
 	 * Directory
 	 */
-	public final String DIRECTORY = EasyLoop.DIRECTORY;
-	public final String FILE_DIRECTORY = EasyLoop.TRACK_DIRECTORY;
+	public final String DIRECTORY = Session.DIRECTORY;
+	public final String FILE_DIRECTORY = Session.TRACK_DIRECTORY;
 	
 	/**
 	 * Track to modulate
@@ -49,45 +63,147 @@ public class AudioTrack {
 	String trackName = null;
 	String trackDir = null;
 	
-	/**
-	 * For synchrony
-	 */
-	boolean notDone = false;
-	
 	/**
 	 * For external control
 	 */
 	boolean play = true;
 
 	/**
-	 * Track list
+	 * A compiled pattern and what each of its voice slots plays,
+	 * either a sample or a transposition still being made. Never
+	 * changed once made, so one can be made while another plays and
+	 * swapped in without any locks
+	 */
+	public static final class PlayOrder {
+		
+		/**
+		 * Order that plays nothing
+		 */
+		final static PlayOrder EMPTY = new PlayOrder(PatternProgram.EMPTY,
+				new Sample[0], new RenderQueue.Handle[0]);
+		
+		final PatternProgram program;
+		final Sample[] samples;
+		final RenderQueue.Handle[] handles;
+		
+		PlayOrder (PatternProgram program, Sample[] samples, 
+				RenderQueue.Handle[] handles) {
+			this.program = program;
+			this.samples = samples;
+			this.handles = handles;
+		}
+	}
+	
+	/**
+	 * What the track plays and the step it plays next
 	 */
 	protected int currentTrack = 0;
-	protected ArrayList<String> playOrder = new ArrayList<String>();
+	protected PlayOrder order = PlayOrder.EMPTY;
+	
+	/**
+	 * What the samples were made from, the source file as it was
+	 * when they were made, and the pattern last set. Lets Prepare
+	 * skip a track that has everything it needs
+	 */
+	private String preparedSource;
+	private ArrayList<Object> preparedPattern;
 	
 	/**
 	 * Keep track of the files we have made
 	 */
-	private ArrayList<String> createdTracks = new ArrayList<String>();
+	private final ArrayList<String> createdTracks = new ArrayList<String>();
+	
+	/**
+	 * Decoded files this track holds from the pool
+	 */
+	private HashMap<String, Sample> samples = new HashMap<String, Sample>();
+	
+	/**
+	 * Transpositions still being made in the background, when
+	 * prepared lazily
+	 */
+	private HashMap<String, RenderQueue.Handle> pending = 
+			new HashMap<String, RenderQueue.Handle>();
+	
+	/**
+	 * Where decoded files come from
+	 */
+	protected SamplePool pool = SamplePool.shared();
+	
+	/**
+	 * Where transpositions are kept between runs, null for the
+	 * program's cache
+	 */
+	protected RenderCache cache = null;
+	
+	/**
+	 * Notes that started after their loop boundary, and notes that
+	 * never played, for EngineMetrics
+	 */
+	private final AtomicLong lateNotes = new AtomicLong();
+	private final AtomicLong droppedNotes = new AtomicLong();
 
 	/**
-	 *  Audio Input Stream
+	 * Creates an empty track
 	 */
-	protected AudioInputStream input;
+	public AudioTrack () {
+	}
 	
 	/**
-	 * File type
+	 * Creates a copy of a prepared track to make other copies from,
+	 * so the track itself can change while they are made. Waits for
+	 * anything still being transposed. The copy holds its own samples,
+	 * so releaseSamples must be called when done with it
+	 * 
+	 * @param other track to copy
 	 */
-	protected AudioFileFormat.Type type = AudioFileFormat.Type.WAVE;
+	public AudioTrack (AudioTrack other) {
+		this(other, other.engine);
+	}
 	
 	/**
-	 * Format settings
+	 * Creates a copy of a prepared track that plays through another
+	 * engine, starting from the top of its pattern. The copy holds its
+	 * own samples, so releaseSamples must be called when done with it
+	 * 
+	 * @param other track to copy
+	 * @param engine engine to play through
 	 */
-	AudioFormat wavFormat = new AudioFormat(44100,
-			16, 2, true, true);
+	public AudioTrack (AudioTrack other, MixEngine engine) {
+		this.engine = engine;
+		track = other.track;
+		trackName = other.trackName;
+		trackDir = other.trackDir;
+		play = other.play;
+		cache = other.cache;
+		preparedSource = other.preparedSource;
+		preparedPattern = other.preparedPattern;
+		createdTracks.addAll(other.createdTracks);
+		
+		// Share the other track's transpositions
+		for (Map.Entry<String, Sample> entry : other.samples.entrySet()) {
+			samples.put(entry.getKey(), pool.retain(entry.getValue()));
+		}
+		
+		// Copies don't play previews, so wait for anything unfinished
+		for (Map.Entry<String, RenderQueue.Handle> entry 
+				: other.pending.entrySet()) {
+			try {
+				Sample sample = entry.getValue().await();
+				if (sample != null) {
+					samples.put(entry.getKey(), pool.retain(sample));
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		order = resolve(other.order.program);
+	}
 	
 	/**
-	 * Sets track to modulate and clears playOrder
+	 * Sets track to modulate and clears its pattern
 	 * @param track track to modulate
 	 */
 	public void setTrack (File track) {
@@ -96,10 +212,55 @@ public class AudioTrack {
 		trackName = track.getName().replaceAll(EXTENTION, "");
 		
 		// We will re fill it with our new track
-		playOrder.clear();
+		order = PlayOrder.EMPTY;
+		currentTrack = 0;
+		preparedSource = null;
+		preparedPattern = null;
 		
 		// In case of duplicate name
-		createdTracks.clear();
+		synchronized (createdTracks) {
+			createdTracks.clear();
+		}
+		
+		// The old files are no use to us now
+		releaseSamples();
+	}
+	
+	/**
+	 * Gives every decoded file back to the pool. Whatever the track
+	 * is playing can still play what it had, it just isn't counted
+	 */
+	public void releaseSamples () {
+		for (Sample sample : samples.values()) pool.release(sample);
+		samples.clear();
+		releasePending();
+	}
+	
+	/**
+	 * Stops waiting on background transpositions
+	 */
+	private void releasePending () {
+		for (RenderQueue.Handle handle : pending.values()) handle.release();
+		pending.clear();
+	}
+	
+	/**
+	 * Gets the decoded file for a path, only going to disk the
+	 * first time it is asked for
+	 * 
+	 * @param audioFilePath file to get
+	 * @return the decoded file
+	 * @throws IOException if the file can't be read
+	 * @throws UnsupportedAudioFileException if java can't read the format
+	 */
+	private Sample getSample (String audioFilePath) 
+			throws IOException, UnsupportedAudioFileException {
+		Sample sample = samples.get(audioFilePath);
+		if (sample == null) {
+			sample = acquire(new File(audioFilePath));
+			samples.put(audioFilePath, sample);
+		}
+		return sample;
 	}
 	
 	/**
@@ -108,242 +269,587 @@ public class AudioTrack {
 	 * @terminate button to terminate playback in case of error
 	 */
     public void play (String audioFilePath, JButton terminate) {
+    	Sample sample = load(audioFilePath, terminate);
+    	if (sample == null) return;
+    	
+    	try {
+    		// Make sure we have somewhere to play
+    		engine.start();
+    		engine.queue(sample, engine.getFrame(), this);
+    	}
+    	catch (LineUnavailableException e) {
+    		Messages.show("Line Unavaliable.");
+    		if (terminate != null) terminate.doClick();
+    		e.printStackTrace();
+    	}
+    }
+    
+    /**
+     * Gets a file ready to play
+     * @param audioFilePath file to load
+     * @param terminate button to terminate playback in case of error
+     * @return the decoded file, or null if there is nothing to play
+     */
+    private Sample load (String audioFilePath, JButton terminate) {
+    	// Play whatever is ready if it is still being made
+    	RenderQueue.Handle handle = pending.get(audioFilePath);
+    	if (handle != null) {
+    		if (!handle.isReady()) handle.hurry();
+    		return handle.get();
+    	}
+    	
     	// Load file
     	if (!(audioFilePath.equals("!") 
     			|| audioFilePath.equals(">")
     			|| audioFilePath.equals("|"))) {
-    		File audioFile = new File(audioFilePath);	
-    	
 	        try {
-	        	// Initialize a new audioInputStream
-	            AudioInputStream stream = 
-	            		AudioSystem.getAudioInputStream(audioFile);
-	            
-	            // Gets info on clip
-	            DataLine.Info info = 
-	            		new DataLine.Info(Clip.class, stream.getFormat());
-	            
-	            // Finds an avaliable line
-	            Clip audio = (Clip) AudioSystem.getLine(info);
-	           
-	            // Create a shallow copy for other classes
-	            audioInputStream.add(audio);
-	            
-	            // Start the audio
-	            audio.open(stream);
-	            audio.start();
+	        	// Get the decoded file
+	            return getSample(audioFilePath);
 	            
-	        } catch (UnsupportedAudioFileException | 
-	        		LineUnavailableException e) {
-	        	JOptionPane.showMessageDialog(null, "Unsupported Format.");
-	        	terminate.doClick();
+	        } catch (UnsupportedAudioFileException e) {
+	        	Messages.show("Unsupported Format.");
+	        	if (terminate != null) terminate.doClick();
 	        	e.printStackTrace();
 	        }
 	        catch (FileNotFoundException e) {
-		       	JOptionPane.showMessageDialog(null, "File Not Found. "
+		       	Messages.show("File Not Found. "
 		       			+ "Exiting.");
 		       	System.exit(-1);
 		    }
 	        catch (IOException e) {
-		       	JOptionPane.showMessageDialog(null, "File Not Found. "
+		       	Messages.show("File Not Found. "
 		       			+ "Exiting.");
 		       	System.exit(-1);
 	        } 
     	}
+    	return null;
     }
     
     /**
-     * Figures out the next value of calculatePlay
-     * @return next value of calculatePlay
+     * Stops everything this track is playing. Only the thread
+     * driving the engine's events schedules
+     * 
+     * @param frame engine frame to stop on
      */
-    private int getValue (int distance) {
-    	int returnValue = new Integer(currentTrack);
+    public void stopVoices (long frame) {
+    	engine.scheduleStop(frame, this);
+    }
+    
+    /**
+     * Plays the next step of the program, starting on an engine frame.
+     * Only the thread driving the engine's events schedules
+     * 
+     * @param frame engine frame everything in this step starts on
+     * @terminate button to terminate playback in case of error
+     */
+    public void playNext (long frame, JButton terminate) {
+    	PlayOrder order = this.order;
+    	PatternProgram program = order.program;
+    	int step = currentTrack;
+    	
+    	// Make sure we have a track
+    	if (track == null || step >= program.getSteps()) return;
+    	
+    	// Stop current track playback if appropriate
+    	if (program.stops(step)) stopVoices(frame);
     	
-    	for (int i = distance; i > 0; i --) {
-	    	if (returnValue < playOrder.size()-1) {
-	    		returnValue ++;
-	    	}
-	    	else {
-	    		returnValue =  0;
-	    	}
+    	// Every voice of a chord starts together
+    	if (play) {
+    		boolean late = frame < engine.getFrame();
+    		for (int i = 0, n = program.getVoices(step); i < n; i ++) {
+    			Sample sample = voice(order, program.getSlot(step, i));
+    			if (sample == null) {
+    				droppedNotes.incrementAndGet();
+    				continue;
+    			}
+    			if (late) lateNotes.incrementAndGet();
+    			engine.schedule(sample, frame, this);
+    		}
     	}
-    	return returnValue;
+    	currentTrack = program.next(step);
     }
+    
     /**
-     * Allow external functions to calculate next track
+     * The best there is to play for a voice slot right now. Never waits
      * 
-     * @param terminate button to terminate playback in case of error
+     * @param order order being played
+     * @param slot voice slot
+     * @return the sample, or null if nothing is ready
      */
-    public void calculatePlay (JButton terminate) {
-    	currentTrack = getValue(1);
+    private static Sample voice (PlayOrder order, int slot) {
+    	if (slot >= order.samples.length) return null;
+    	Sample sample = order.samples[slot];
+    	if (sample != null) return sample;
+    	
+    	// Play whatever is ready if it is still being made, and have
+    	// it made sooner
+    	RenderQueue.Handle handle = order.handles[slot];
+    	if (handle == null) return null;
+    	if (!handle.isReady()) handle.want();
+    	return handle.get();
     }
-
+    
     /**
-     * Plays the next track in the playorder
+     * Gets a decoded file from the pool, mapped if the program wrote
+     * it, so a long take isn't copied into memory
      * 
-     * @terminate button to terminate playback in case of error
+     * @param file file to get
+     * @return the sample, to be released when done with
+     * @throws IOException if the file can't be read
+     * @throws UnsupportedAudioFileException if java can't read the format
      */
-    public void playNext (JButton terminate) {
-    	// Make sure we have a track
-    	if (track != null) { 
-    		// Stop current track playback if appropriate
-    		if (audioInputStream != null && 
-    				!playOrder.get(currentTrack).equals(">")){ 
-    			Iterator<Clip> i = audioInputStream.iterator();
-    			while (i.hasNext()) {
-    				i.next().stop();
-    				i.remove();
+    Sample acquire (File file) 
+    		throws IOException, UnsupportedAudioFileException {
+    	return pool.acquire(file, getCache().isWritten(file));
+    }
+    
+    /**
+     * Where this track's transpositions are kept between runs
+     * 
+     * @return its own cache, or the program's
+     */
+    public RenderCache getCache () {
+    	return cache != null ? cache : RenderCache.shared();
+    }
+    
+    /**
+     * Counts a voice the engine threw away for being full
+     */
+    public void dropped () {
+    	droppedNotes.incrementAndGet();
+    }
+    
+    /**
+     * Notes that started after their loop boundary
+     * 
+     * @return late notes since the last reset
+     */
+    public long getLateNotes () {
+    	return lateNotes.get();
+    }
+    
+    /**
+     * Notes that never played, as nothing was ready or the engine
+     * was full
+     * 
+     * @return dropped notes since the last reset
+     */
+    public long getDroppedNotes () {
+    	return droppedNotes.get();
+    }
+    
+    /**
+     * Starts the late and dropped counts again
+     */
+    public void resetNotes () {
+    	lateNotes.set(0);
+    	droppedNotes.set(0);
+    }
+    
+    /**
+     * Next step of the pattern, as it was written
+     * 
+     * @return pattern entry
+     */
+    public String getNext () {
+    	return order.program.getLabel(currentTrack);
+    }
+    
+    /**
+     * Sets the play order, making the transpositions it
+     * needs on this thread. PrepareJob does the same on many threads
+     * @param arrayList pattern of transposition
+     * @throws IOException while creating transposition
+     * @throws InterruptedException while creating transposition
+     */
+    public void setPlayOrder (ArrayList<Object> arrayList) 
+    		throws IOException, InterruptedException {
+    	if (track == null) return; // Make sure we have a track
+    	
+    	HashMap<Integer, Sample> rendered = new HashMap<Integer, Sample>();
+    	try {
+    		for (Object o : arrayList) {
+    			if (o instanceof Integer && !rendered.containsKey(o)
+    					&& !hasTransposition((int) o)) {
+    				rendered.put((Integer) o, transpose((int) o));
     			}
     		}
+    	}
+    	catch (IOException | UnsupportedAudioFileException e) {
+    		for (Sample sample : rendered.values()) pool.release(sample);
+    		if (e instanceof InterruptedIOException) {
+    			throw new InterruptedException("Transposing interrupted.");
+    		}
+    		if (e instanceof IOException) throw (IOException) e;
+    		throw new IOException("Unsupported Format.", e);
+    	}
+    	setPlayOrder(arrayList, rendered);
+    }
+    
+    /**
+     * Sets the play order from transpositions that have
+     * already been made. The track takes over the samples given to it
+     * @param arrayList pattern of transposition
+     * @param rendered new transpositions, acquired from the pool
+     */
+    void setPlayOrder (ArrayList<Object> arrayList, 
+    		Map<Integer, Sample> rendered) {
+    	if (track == null) return; // Make sure we have a track
+    	checkSource();
+    	
+    	// Keep the track itself to transpose from
+    	if (!samples.containsKey(trackDir)) {
+    		try {
+    			getSample(trackDir);
+    		}
+    		catch (IOException | UnsupportedAudioFileException e) {
+    			// It will be read again when it is needed
+    		}
+    	}
+    	
+    	// Everything is made now
+    	releasePending();
+    	for (Map.Entry<Integer, Sample> entry : rendered.entrySet()) {
+    		String name = trackName + entry.getKey();
+    		if (samples.containsKey(name)) pool.release(entry.getValue());
+    		else samples.put(name, entry.getValue());
+    	}
+    	
+    	setPlayOrder(fillPlayOrder(arrayList));
+    }
+    
+    /**
+     * Sets the play order straight away, handing the
+     * transpositions it needs to the render queue. Until they are made
+     * they play a preview, or nothing at all. For before playback
+     * starts, when the first step plays on loop 0
+     * @param arrayList pattern of transposition
+     * @param rate loops between each step of the pattern
+     */
+    public void setPlayOrderLazy (ArrayList<Object> arrayList, int rate) {
+    	setPlayOrder(preparePlayOrder(arrayList, rate, 0));
+    }
+    
+    /**
+     * Gets a pattern ready the way setPlayOrderLazy does, without
+     * playing it yet. Must be called on the thread that changes the 
+     * track, while the transport plays, and the transport swaps the
+     * order in with setPlayOrder
+     * @param arrayList pattern of transposition
+     * @param rate loops between each step of the pattern
+     * @param first loop the first step plays on, counted from the
+     * start of playback, so renders of every track are made in the
+     * order they are needed
+     * @return the order to play, or null if there is no track
+     */
+    public PlayOrder preparePlayOrder (ArrayList<Object> arrayList, 
+    		int rate, long first) {
+    	if (track == null) return null; // Make sure we have a track
+    	checkSource();
+    	
+    	HashMap<String, RenderQueue.Handle> old = pending;
+    	pending = new HashMap<String, RenderQueue.Handle>();
+    	
+    	// Steps joined by "|" play on the same loop
+    	int step = 0;
+    	for (Object o : arrayList) {
+    		if (o.equals("|")) {
+    			step --;
+    			continue;
+    		}
     		
-    		if (play) play (playOrder.get(currentTrack), terminate);
-    		
-    		while (playOrder.get(getValue(1)).equals("|")) {
-    			currentTrack = getValue(2);
-    			if (play) play (playOrder.get(currentTrack), terminate);
+    		String name = trackName + o;
+    		if (o instanceof Integer && !hasTransposition((int) o)
+    				&& !pending.containsKey(name)) {
+    			// Carry on with anything already on its way
+    			RenderQueue.Handle handle = old.remove(name);
+    			if (handle == null) handle = RenderQueue.shared().request(
+    					this, (int) o, first + (long) step * rate);
+    			
+    			// The first step plays at the next loop, hurried here
+    			// rather than when it plays
+    			if (step == 0) handle.hurry();
+    			pending.put(name, handle);
     		}
-   		
+    		step ++;
     	}
-		calculatePlay(terminate);
+    	for (RenderQueue.Handle handle : old.values()) handle.release();
+    	
+    	return fillPlayOrder(arrayList);
     }
     
     /**
-     * Populates the playOrder array
+     * Plays an order from its first step. Only swaps it in, so the
+     * transport can call it between loops
+     * @param order order from preparePlayOrder, or null to keep playing
+     * what is there
+     */
+    public void setPlayOrder (PlayOrder order) {
+    	if (order == null) return;
+    	this.order = order;
+    	currentTrack = 0;
+    }
+    
+    /**
+     * Compiles the pattern and lets go of transpositions it
+     * doesn't use
      * @param arrayList pattern of transposition
-     * @throws IOException while creating transposed file
-     * @throws InterruptedException while creating transposed file
+     * @return the order to play
      */
-    public void setPlayOrder (ArrayList<Object> arrayList) 
-    		throws IOException, InterruptedException {
-    	notDone = true;
-	    if (track != null) { // Make sure we have a track
-		   	playOrder.clear();
-		   	// Add the tracks to play order in order
-		   	for (Object o : arrayList) {
-		   		if (o.equals(">") || o.equals("!") || o.equals("|")) {
-		   			playOrder.add((String) o);
-		   		}	
-		   		else {
-		   			createTransposedFile((int) o);
-		   			playOrder.add(FILE_DIRECTORY+trackName+o+EXTENTION);
-		   		}
-		   	}
-	    }
-	    notDone = false;
+    private PlayOrder fillPlayOrder (ArrayList<Object> arrayList) {
+    	PatternProgram program = PatternProgram.compile(arrayList);
+    	preparedPattern = new ArrayList<Object>(arrayList);
+    	
+    	HashSet<String> used = new HashSet<String>();
+    	for (int slot = 0; slot < program.getSlots(); slot ++) {
+    		used.add(trackName + program.getTransposition(slot));
+    	}
+	   	
+	   	// Let go of transpositions the new pattern doesn't use,
+	   	// but keep the track itself to transpose from
+	   	Iterator<Map.Entry<String, Sample>> i = 
+	   			samples.entrySet().iterator();
+	   	while (i.hasNext()) {
+	   		Map.Entry<String, Sample> entry = i.next();
+	   		if (!used.contains(entry.getKey()) 
+	   				&& !entry.getKey().equals(trackDir)) {
+	   			pool.release(entry.getValue());
+	   			i.remove();
+	   		}
+	   	}
+	   	return resolve(program);
+    }
+    
+    /**
+     * Looks up what each of a program's voice slots plays, once,
+     * so playing a step never looks anything up by name
+     * @param program compiled pattern
+     * @return the order to play
+     */
+    private PlayOrder resolve (PatternProgram program) {
+    	int slots = program.getSlots();
+    	Sample[] resolved = new Sample[slots];
+    	RenderQueue.Handle[] handles = new RenderQueue.Handle[slots];
+    	for (int slot = 0; slot < slots; slot ++) {
+    		String name = trackName + program.getTransposition(slot);
+    		resolved[slot] = samples.get(name);
+    		handles[slot] = pending.get(name);
+    	}
+    	return new PlayOrder(program, resolved, handles);
     }
     
     /**
-     * Uses soundstretch to create a pitchshifted file
+     * Whether this track already holds a transposition
+     * @param transposition increment shifted by
+     * @return true if it needn't be made again
+     */
+    public boolean hasTransposition (int transposition) {
+    	return isSourceCurrent() 
+    			&& samples.containsKey(trackName + transposition);
+    }
+    
+    /**
+     * Transpositions a pattern needs that this track doesn't hold, 
+     * all of them if the file has changed since they were made
+     * @param arrayList pattern of transposition
+     * @return transpositions to make, in the order the pattern uses them
+     */
+    public Set<Integer> missing (List<Object> arrayList) {
+    	LinkedHashSet<Integer> missing = new LinkedHashSet<Integer>();
+    	if (track == null) return missing;
+    	
+    	boolean current = isSourceCurrent();
+    	for (Object o : arrayList) {
+    		if (o instanceof Integer && (!current 
+    				|| !samples.containsKey(trackName + o))) {
+    			missing.add((Integer) o);
+    		}
+    	}
+    	return missing;
+    }
+    
+    /**
+     * Whether the track is ready to play a pattern as it is, with
+     * nothing to make and nothing still being made
+     * @param arrayList pattern of transposition
+     * @return true if preparing it again would change nothing
+     */
+    public boolean isPrepared (List<Object> arrayList) {
+    	return track == null || (arrayList.equals(preparedPattern) 
+    			&& pending.isEmpty() && missing(arrayList).isEmpty());
+    }
+    
+    /**
+     * Whether the file is unchanged since the samples were made
+     */
+    private boolean isSourceCurrent () {
+    	try {
+    		return preparedSource != null 
+    				&& preparedSource.equals(SamplePool.keyOf(track));
+    	}
+    	catch (IOException e) {
+    		return false;
+    	}
+    }
+    
+    /**
+     * Lets go of everything made from the file if it has changed
+     * since, and remembers the file as it is now
+     */
+    private void checkSource () {
+    	if (isSourceCurrent()) return;
+    	
+    	releaseSamples();
+    	try {
+    		preparedSource = SamplePool.keyOf(track);
+    	}
+    	catch (IOException e) {
+    		preparedSource = null;
+    	}
+    }
+    
+    /**
+     * Creates a pitchshifted copy of the track in memory, shared
+     * through the pool with any other track transposing the same file.
+     * Transpositions are kept on disk, so each is only ever made once.
+     * Safe to call from any thread, the track itself isn't touched
      * 
      * @param transposition increment to shift by
-     * @throws IOException command line errors
-     * @throws InterruptedException In case the wait for cmd is interrupted
+     * @return the transposition, to be released when done with
+     * @throws IOException if the track can't be read, or
+     * InterruptedIOException if the thread is interrupted
+     * @throws UnsupportedAudioFileException if java can't read the track
      */
-    public void createTransposedFile (int transposition) 
-    		throws IOException, InterruptedException {
-    	if (!createdTracks.contains(FILE_DIRECTORY 
-    			+ trackName + transposition + EXTENTION)) {
-			String[] commands = {
-					"cmd",
-					"/c",
-					"start",
-					"soundstretch",
-					"\"" + trackDir + "\"",
-					"\"" + FILE_DIRECTORY + trackName
-						+transposition+EXTENTION+"\"",
-					"-pitch="+transposition
-			};
-	
-			ProcessBuilder process = new ProcessBuilder(commands);
-			process.directory(new File("resources"));
-	
-			Process run = process.start();
-			
-			run.waitFor();
-			
-			// We don't need to hold on to these after exit
-			createdTracks.add(FILE_DIRECTORY
-					+ trackName + transposition + EXTENTION);
-			
-    	}
+    public Sample transpose (final int transposition) 
+    		throws IOException, UnsupportedAudioFileException {
+    	// No need to shift the track itself
+    	if (transposition == 0) return acquire(track);
+    	
+    	final RenderCache cache = getCache();
+    	final String key = cache.keyOf(track, PitchShifter.ALGORITHM, 
+    			transposition);
+    	return pool.acquire(key, new SamplePool.Source() {
+    		public Sample create () 
+    				throws IOException, UnsupportedAudioFileException {
+    			Sample cached = cache.get(key);
+    			if (cached != null) return cached;
+    			
+    			Sample source = acquire(track);
+    			try {
+    				Sample shifted = PitchShifter.shift(source, 
+    						transposition);
+    				cache.put(key, shifted);
+    				return shifted;
+    			}
+    			finally {
+    				pool.release(source);
+    			}
+    		}
+    	});
     }
 
     /**
-     * Uses soundstretch to create a time stretched file
+     * Creates a time stretched copy of a file in the tracks folder,
+     * reading and writing it a piece at a time. Safe to call for
+     * several files at once from different threads
      * 
-     * @param change increment to shift by
-     * @throws IOException command line errors
-     * @throws InterruptedException In case the wait for cmd is interrupted
+     * @param change percent to change the tempo by
+     * @param fileName file to stretch
+     * @return the stretched file, or null if it has already been made
+     * @throws IOException if a file can't be read or written
      */
-    public void createShiftedFile (double change, String fileName) 
-    		throws IOException, InterruptedException {
-    	if (!createdTracks.contains(FILE_DIRECTORY 
-    			+ trackName + change + EXTENTION)) {
-			String[] commands = {
-					"cmd",
-					"/c",
-					"start",
-					"soundstretch",
-					"\"" + fileName + "\"",
-					"\"" + FILE_DIRECTORY + new File(fileName).getName().
-					replace(EXTENTION, "")
-					+ "(shifted " + new DecimalFormat("###.##").
-					format(change) + "%)" + EXTENTION + "\"",
-					"-tempo="+change
-			};
-	
-			ProcessBuilder process = new ProcessBuilder(commands);
-			process.directory(new File("resources"));
-	
-			Process run = process.start();
-			
-			run.waitFor();
-			
-			// We don't need to hold on to these after exit
-			createdTracks.add(FILE_DIRECTORY
-					+ trackName + change + EXTENTION);
-			
+    public File createShiftedFile (double change, String fileName) 
+    		throws IOException {
+    	File shifted = new File(FILE_DIRECTORY + new File(fileName).getName()
+    			.replace(EXTENTION, "") + "(shifted " 
+    			+ new DecimalFormat("###.##").format(change) + "%)" 
+    			+ EXTENTION);
+    	
+    	synchronized (createdTracks) {
+    		if (createdTracks.contains(shifted.getPath())) return null;
+    		createdTracks.add(shifted.getPath());
+    	}
+    	
+    	// Write it somewhere else so a half made file is never seen
+    	File part = new File(shifted.getPath() + ".part");
+    	try {
+    		TimeStretcher.stretch(new File(fileName), part, 1 + change / 100);
+    		Files.move(part.toPath(), shifted.toPath(), 
+    				StandardCopyOption.REPLACE_EXISTING);
+    		return shifted;
+    	}
+    	catch (IOException | UnsupportedAudioFileException e) {
+    		part.delete();
+    		
+    		// Let it be tried again
+    		synchronized (createdTracks) {
+    			createdTracks.remove(shifted.getPath());
+    		}
+    		if (e instanceof IOException) throw (IOException) e;
+    		throw new IOException("Unsupported Format.", e);
     	}
     }
     
     /**
-     * Records a .wav file and saves it to a file at name.wav
+     * Records a .wav file and saves it to a file at name.wav, starting
+     * on an engine frame. Returns once the line is running,
+     * stopRecording finishes the file on a whole number of loops
      * @param name the name of the file
+     * @param startFrame engine frame the take starts on
+     * @param loopLength length of a loop in seconds
      */
-    public void recordAudio (String fileName) {
-    	// File to be created
-    	File file = new File(fileName);
-    	
-    	// Provides information specific to data lines
-    	DataLine.Info info = new DataLine.Info(TargetDataLine.class, 
-    			wavFormat);
-    	
-    	// Open line
+    public void recordAudio (String fileName, long startFrame, 
+    		double loopLength) {
     	try {
-    		TargetDataLine line = (TargetDataLine) (AudioSystem.getLine(info));
+    		// Half a second of buffer, the recorder buffers the rest
+    		TargetDataLine line = LineManager.shared().acquireTarget(
+    				MixEngine.FORMAT, MixEngine.FRAME_SIZE 
+    				* (int) MixEngine.SAMPLE_RATE / 2);
     	   	targetDataLine = line;
-    		line.open(wavFormat);    
-        	line.start();
-        	
-        	input = new AudioInputStream(line);
-        	AudioSystem.write(input, type, file);
+    	   	recordLoop = loopLength;
+    	   	
+    	   	// The first frame the line gives is heard about now, so
+    	   	// skip up to the start
+    	   	recorder = new Recorder(line, new File(fileName));
+    	   	recorder.start(Math.max(0, startFrame - engine.getPlayedFrame()));
     	}
     	catch (LineUnavailableException e) {
-    		JOptionPane.showMessageDialog(null, "Line Unavaliable.");
+    		Messages.show("Line Unavaliable.");
     		e.printStackTrace();
     	}
     	catch (IOException e) {
-			JOptionPane.showMessageDialog(null, "Unexpected Error with "
+			Messages.show("Unexpected Error with "
 					+ "recording.");
 			e.printStackTrace();
 		}
     }
     
     /**
-     * Ends recording started by this.recordAudio
+     * Ends recording started by this.recordAudio, once the file
+     * is finished and trimmed to whole loops
      */
     public void stopRecording () {
-    	targetDataLine.stop();
-    	targetDataLine.close();
+    	Recorder recording = recorder;
+    	recorder = null;
+    	
+    	try {
+    		if (recording != null) {
+    			// Only ever replaced, so it can be mapped to play
+    			getCache().wrote(recording.stopOnLoop(recordLoop));
+    			if (recording.getOverrun() > 0) {
+    				Messages.show("Recording lost " 
+    						+ recording.getOverrun() + " frames while the "
+    						+ "disk caught up. They are silent in the take.");
+    			}
+    		}
+    	}
+    	catch (IOException e) {
+			Messages.show("Unexpected Error with "
+					+ "recording.");
+			e.printStackTrace();
+    	}
+    	finally {
+    		LineManager.shared().close(targetDataLine);
+    	}
     }
 }
@@ -0,0 +1,62 @@
+/**
+ * Queue of track commands that any thread can post to without
+ * locking, read only by the transport. Posting swaps the command in as
+ * the new tail and links the old tail to it, so a post never waits on
+ * the transport and the transport never waits on a post
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CommandQueue {
+
+	/**
+	 * Last command posted
+	 */
+	private final AtomicReference<TrackCommand> tail;
+
+	/**
+	 * Last command taken, only moved by the reader
+	 */
+	private TrackCommand head;
+
+	/**
+	 * Creates an empty queue
+	 */
+	public CommandQueue () {
+		head = TrackCommand.stub();
+		tail = new AtomicReference<TrackCommand>(head);
+	}
+
+	/**
+	 * Adds a command. Any thread may post
+	 *
+	 * @param command command to carry out
+	 */
+	public void post (TrackCommand command) {
+		command.next = null;
+		TrackCommand previous = tail.getAndSet(command);
+		previous.next = command;
+	}
+
+	/**
+	 * Takes the oldest command. Only one thread may poll. A command
+	 * posted but not linked in yet is left for the next poll
+	 *
+	 * @return command, or null if there is none
+	 */
+	public TrackCommand poll () {
+		TrackCommand next = head.next;
+		if (next == null) return null;
+
+		// The command taken becomes the new head
+		head.next = null;
+		head = next;
+		return next;
+	}
+}
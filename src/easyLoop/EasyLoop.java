@@ -1,10 +1,11 @@
 /**
  * This is the Easy Loop application, software capable of looping audio files at
  * different pitches. Useful for live performance and fun experimentation
- * Made for CMPT 166. * Pitch shifting and tempo changing made possible by
- * "soundStretch"
+ * Made for CMPT 166. Pitch shifting is done in memory by PitchShifter,
+ * tempo changing by TimeStretcher
  * 
- * @see http://www.surina.net/soundtouch/soundstretch.html
+ * @see PitchShifter
+ * @see TimeStretcher
  * 
  * @author David Hampson (DavidHampson.97@gmail.com)
  */
@@ -13,18 +14,20 @@ package easyLoop;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
+import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.swing.AbstractAction;
 import javax.swing.JButton;
-import javax.swing.JCheckBox;
+import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.JRadioButton;
+import javax.swing.JScrollBar;
 import javax.swing.KeyStroke;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.border.EmptyBorder;
-import javax.swing.border.TitledBorder;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.BorderLayout;
 import java.awt.Color;
@@ -34,20 +37,24 @@ import java.awt.GridLayout;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.awt.event.ItemEvent;
+import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JMenuBar;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
 
 public class EasyLoop extends JFrame implements ActionListener {
 	
@@ -85,6 +92,19 @@ public class EasyLoop extends JFrame implements ActionListener {
 		
 		gui.setVisible(true);
 		gui.pack();
+		
+		// Open the output line while the user looks at the window
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					MixEngine.shared().preopen();
+				}
+				catch (LineUnavailableException 
+						| IllegalArgumentException e) {
+					// Said when they try to play
+				}
+			}
+		}, "Easy Loop line open").start();
 	}
 	
 	/**
@@ -103,7 +123,7 @@ public class EasyLoop extends JFrame implements ActionListener {
 	/**
 	 * So the load function knows how many values to cycle through
 	 */
-	public final static int SAVE_ARRAY_LENGTH = 3;
+	public final static int SAVE_ARRAY_LENGTH = Session.SAVE_ARRAY_LENGTH;
 	
 	/**
 	 * Extension
@@ -118,13 +138,34 @@ public class EasyLoop extends JFrame implements ActionListener {
 	public final static int MAX_TRANSPOSE = 60;
 	public final static int MIN_STRETCH = -95;
 	public final static int MAX_STRETCH = 5000;
+	
+	/**
+	 * Clicks before recording starts
+	 */
+	public final static int COUNT_IN = 4;
+	
+	/**
+	 * Sound of the count in
+	 */
+	public final static String CLICK = "resources/click.wav";
+	
+	/**
+	 * Milliseconds a Prepare runs before its progress is shown
+	 */
+	public final static int PREPARE_POPUP = 250;
+	
+	/**
+	 * Times a second the displays catch up with the tracks while
+	 * they play
+	 */
+	public final static int REFRESH_RATE = 30;
 
 	/**
 	 * Directory
 	 */
-	public final static String DIRECTORY = System.getProperty("user.dir")+"/";
-	public final static String TRACK_DIRECTORY = DIRECTORY + "tracks/";
-	public final static String SAVES_DIRECTORY = DIRECTORY + "saves/";
+	public final static String DIRECTORY = Session.DIRECTORY;
+	public final static String TRACK_DIRECTORY = Session.TRACK_DIRECTORY;
+	public final static String SAVES_DIRECTORY = Session.SAVES_DIRECTORY;
 	
 	/**
 	 * Main Layout
@@ -147,15 +188,20 @@ public class EasyLoop extends JFrame implements ActionListener {
 	public final static int TRACKS_PER_ROW = 5;
 	
 	/**
-	 * Max rows of tracks
+	 * Rows of tracks shown at once, the rest are scrolled to
 	 */
-	public final static int MAX_ROWS = 2;
+	public final static int VISIBLE_ROWS = 2;
 	
 	/**
-	 * Current amount of rows
+	 * Current amount of rows shown
 	 */
 	private int currentRows = 0;
 	
+	/**
+	 * First row of tracks shown
+	 */
+	private int firstRow = 0;
+	
 	/**
 	 * Width of main panel
 	 */
@@ -216,9 +262,9 @@ public class EasyLoop extends JFrame implements ActionListener {
 			TRACK_PADDING, TRACK_PADDING);
 
 	/**
-	 * Number of tracks
+	 * Every track's settings
 	 */
-	 int trackNumber = 0;
+	final TrackModel trackModel = new TrackModel();
 	 
 	 /**
 	  * int to track which track did what
@@ -231,46 +277,53 @@ public class EasyLoop extends JFrame implements ActionListener {
 	 int mainTrackIndex = -1;
 	
 	/**
-	 * borders for tracks
+	 * Panels the tracks scrolled to are shown in
 	 */
-	 ArrayList<TitledBorder> trackBorderList = 
-			new ArrayList<TitledBorder>();
+	private TrackView[] views = 
+			new TrackView[TRACKS_PER_ROW * VISIBLE_ROWS];
 	
 	/**
-	 * Box to house (import/record) buttons
+	 * Scrolls through the rows of tracks
 	 */
-	ArrayList<JPanel> inputBoxList = 
-			new ArrayList<JPanel>();
-
+	private JScrollBar trackScroll;
 	
 	/**
-	 * JPanels for tracks
+	 * Set while a panel is being pointed at a track, so its playing
+	 * box changing isn't taken for a click
 	 */
-	private ArrayList<JPanel> trackPanelList = 
-			new ArrayList<JPanel>();
+	private boolean binding = false;
 	
 	/**
-	 * Panel for housing buttons
+	 * Whether tracks can be changed
 	 */
-	private JPanel buttonPanel;
+	private boolean editable = true;
 	
 	/**
-	 * Panel for housing tracks
+	 * What each track was doing at the last loop, for the displays
 	 */
-	private JPanel mainPanel;
-
+	private List<TrackState> shown = Collections.<TrackState>emptyList();
+	
 	/**
-	 * Integers representing the current repetition
+	 * Shows the latest loop while playing. However many loops went by
+	 * since it last looked, only the latest is drawn
 	 */
-	 ArrayList<Integer> currentList = 
-			new ArrayList<Integer>();
+	private Timer refresh = new Timer(1000 / REFRESH_RATE, 
+			new ActionListener() {
+		public void actionPerformed (ActionEvent e) {
+			showStates(playManager.getStates());
+		}
+	});
 	
 	/**
-	 * Integers representing the max amount of repetitions
+	 * Panel for housing buttons
 	 */
-	 ArrayList<Integer> maxList = 
-			new ArrayList<Integer>();
+	private JPanel buttonPanel;
 	
+	/**
+	 * Panel for housing tracks
+	 */
+	private JPanel mainPanel;
+
 	/**
 	 * Length of loop for PlayManager to use
 	 */
@@ -302,77 +355,25 @@ public class EasyLoop extends JFrame implements ActionListener {
 	 */
 	private JButton setLoopLength;
 
-	/**
-	 * Buttons for setting track pattern
-	 */
-	private ArrayList<JButton> setPatternButtonList =
-			new ArrayList<JButton>();
-	
-	/**
-	 * Buttons for importing
-	 */
-	private ArrayList<JButton> importButtonList =
-			new ArrayList<JButton>();
-	
-	/**
-	 * Buttons for recording to a track
-	 */
-	private ArrayList<JButton> recordButtonList =
-			new ArrayList<JButton>();
-	
 	/**
 	 * Recording dialog choice
 	 */
 	private int choice = 0;
 	
 	/**
-	 * Monitor recording state
+	 * Track being recorded to, -1 when not recording
 	 */
-	private boolean recording = false;
+	private int recordingIndex = -1;
 	
 	/**
-	 * Buttons for setting track reps
-	 */
-	private ArrayList<JButton> occButtonList =
-			new ArrayList<JButton>();
-	
-	/**
-	 * Labels to display the track pattern
-	 */
-	private ArrayList<JLabel> patternLabelList = 
-			new ArrayList<JLabel>();
-
-	/**
-	 * Labels to show what transposition
-	 * is to be played next
-	 */
-	ArrayList<JLabel> nextToPlayList = 
-			new ArrayList<JLabel>();
-
-	/**
-	 * Labels to show how many repetitions
-	 * a track will do per loop
-	 */
-	private ArrayList<JLabel> occList = 
-			new ArrayList<JLabel>();
-
-	/**
-	 * Labels to countdown to the next repetition 
-	 */
-	ArrayList<JLabel> countdownList = 
-			new ArrayList<JLabel>();
-
-	/**
-	 * Checkbox to decide what tracks play
+	 * Set while a take is being finished in the background
 	 */
-	protected ArrayList<JCheckBox> playingList =
-			new ArrayList<JCheckBox>();
+	private boolean finishing = false;
 	
 	/**
-	 * Radio buttons for choosing master lists
+	 * The count in's click, held from the pool while the program runs
 	 */
-	private ArrayList<JRadioButton> isMasterList = 
-			new ArrayList<JRadioButton>();
+	private Sample click;
 	
 	/**
 	 * JMenu
@@ -389,7 +390,9 @@ public class EasyLoop extends JFrame implements ActionListener {
 	private JMenu file;
 	private JMenuItem quit;
 	private JMenuItem save;
+	private JMenuItem saveBundle;
 	private JMenuItem open;
+	private JMenuItem bounce;
 
 	/**
 	 * Ctrl + N Keystroke
@@ -429,232 +432,97 @@ public class EasyLoop extends JFrame implements ActionListener {
 			Toolkit.getDefaultToolkit().getMenuShortcutKeyMask());
 	
 	/**
-	 * Ctrl + Q Keystroke
+	 * Ctrl + E Keystroke, with the same modifier as Ctrl + B
 	 */
-	private KeyStroke ctrlQ = KeyStroke.getKeyStroke(KeyEvent.VK_Q, 
-			Toolkit.getDefaultToolkit().getMenuShortcutKeyMask());
+	private KeyStroke ctrlE = KeyStroke.getKeyStroke(KeyEvent.VK_E, 
+			ctrlB.getModifiers());
 	
 	/**
-	 * Audio Tracks
+	 * Ctrl + Q Keystroke
 	 */
-	protected ArrayList<AudioTrack> trackList = new ArrayList<AudioTrack>();
+	private KeyStroke ctrlQ = KeyStroke.getKeyStroke(KeyEvent.VK_Q, 
+			Toolkit.getDefaultToolkit().getMenuShortcutKeyMask());
 	
 	/**
-	 * Sequences for transposition
+	 * For recording
 	 */
-	ArrayList<ArrayList<Object>> patternList = 
-			new ArrayList<ArrayList<Object>>();
+	String recordingFile;
 	
 	/**
-	 * For recording
+	 * Gets the click, loading it the first time it is counted in with
+	 * 
+	 * @return the click, or null if it can't be loaded
 	 */
-	String recordingFile;
+	private Sample getClick () {
+		if (click == null) {
+			try {
+				click = SamplePool.shared().acquire(new File(CLICK));
+			}
+			catch (UnsupportedAudioFileException e) {
+				JOptionPane.showMessageDialog(null, 
+						"Unsupported click format.");
+				e.printStackTrace();
+			}
+			catch (IOException e) {
+				JOptionPane.showMessageDialog(null, 
+						"Click not found.");
+				e.printStackTrace();
+			}
+		}
+		return click;
+	}
 	
 	/**
 	 * Adds a new track to the JFrame
 	 */
 	private void addTrack () {
-		// Add a JLabel to all componenets that need one
-		patternLabelList.add(new JLabel("0"));
-		nextToPlayList.add(new JLabel("Next Transposition: 0"));
-		occList.add(new JLabel("Rate of Occurrence: 1"));
-		countdownList.add(new JLabel("Reps till next play: 0"));
-		
-		// Add a JButton to all components that need one
-		setPatternButtonList.add(new JButton("Set Pattern"));
-		importButtonList.add(new JButton("Import"));
-		recordButtonList.add(new JButton("Record"));
-		occButtonList.add(new JButton("Set Rate of Ocurrence"));
-		
-		maxList.add(1);
-		currentList.add(1);
-		
-		ArrayList<Object> newPattern = new ArrayList<Object>();
-		newPattern.add(0); // We need a base value
-		
-		patternList.add(newPattern);
-		
-		// Add a new checkbox and radio button
-		playingList.add(new JCheckBox("Playing", false));
-		isMasterList.add(new JRadioButton("Main Track"));
-	
-		// Add a new track
-		trackList.add(new AudioTrack());
-		
-		// JPanels
-		trackPanelList.add(new JPanel());
-		inputBoxList.add(new JPanel());
-		
-		// Increment the row if we are at the end of a line
-		if (trackNumber%TRACKS_PER_ROW == 0) currentRows ++;
-		 
-		if (trackNumber == TRACKS_PER_ROW * MAX_ROWS) {
-			addTrack.setEnabled(false);
-		}
-		
-		// Create Border
-		trackBorderList.add(new TitledBorder(""));
-		
-		// Create Panel
-		trackPanelList.get(trackNumber).setBackground(Color.WHITE);
-		trackPanelList.get(trackNumber).setLayout(TRACK_LAYOUT);
-		
-		trackPanelList.get(trackNumber).
-			setBorder(trackBorderList.get(trackNumber));
-		trackPanelList.get(trackNumber).setPreferredSize(TRACK_SIZE);
-		
-		// Radio Button
-		isMasterList.get(trackNumber).setActionCommand("Main"+trackNumber);
-		isMasterList.get(trackNumber).addActionListener(this);
-		isMasterList.get(trackNumber).setEnabled(false);
-		
-		trackPanelList.get(trackNumber).add(isMasterList.get(trackNumber));
-		
-		// Labels
-		trackPanelList.get(trackNumber).add(patternLabelList.get(trackNumber));
-		trackPanelList.get(trackNumber).add(nextToPlayList.get(trackNumber));
-		trackPanelList.get(trackNumber).add(occList.get(trackNumber));
-		
-		// Record and import
-		inputBoxList.get(trackNumber).setLayout(INPUT_LAYOUT);
-		
-		importButtonList.get(trackNumber).setActionCommand("Import" 
-				+ trackNumber);
-		importButtonList.get(trackNumber).setBackground(Color.WHITE);
-		importButtonList.get(trackNumber).addActionListener(this);
-		inputBoxList.get(trackNumber).add(importButtonList.get(trackNumber));
-	
-		recordButtonList.get(trackNumber).setActionCommand("Record" 
-				+ trackNumber);
-		recordButtonList.get(trackNumber).setBackground(Color.WHITE);
-		recordButtonList.get(trackNumber).addActionListener(this);
-		inputBoxList.get(trackNumber).add(recordButtonList.get(trackNumber));
-		
-		trackPanelList.get(trackNumber).add(inputBoxList.get(trackNumber));
-		
-		// Set pattern and reps
-		setPatternButtonList.get(trackNumber).setActionCommand("Set Pattern" 
-				+ trackNumber);
-		setPatternButtonList.get(trackNumber).setBackground(Color.WHITE);
-		setPatternButtonList.get(trackNumber).addActionListener(this);
-		setPatternButtonList.get(trackNumber).setEnabled(false);
-		trackPanelList.get(trackNumber)
-				.add(setPatternButtonList.get(trackNumber));
-		occButtonList.get(trackNumber).setActionCommand("Set Rate of Occurrence"
-				+ trackNumber);
-		occButtonList.get(trackNumber).setBackground(Color.WHITE);
-		occButtonList.get(trackNumber).addActionListener(this);
-		occButtonList.get(trackNumber).setEnabled(false);
-		trackPanelList.get(trackNumber).add(occButtonList.get(trackNumber));
-		
-		// Playing box
-		playingList.get(trackNumber).setEnabled(false);
-		
-		trackPanelList.get(trackNumber).add(playingList.get(trackNumber));
-		
-		// Countdown
-		trackPanelList.get(trackNumber).add(countdownList.get(trackNumber));
-		
-		mainPanel.add(trackPanelList.get(trackNumber));
-
-		// Set hotkeys
-		int hotkeyNumber = new Integer(trackNumber);
-
-		trackNumber ++;
+		int index = trackModel.add(new AudioTrack());
 		
-		if (trackNumber > 1) {
+		if (trackModel.size() > 1) {
 			removeTrack.setEnabled(true);
 		}
 		
-		// Set title
-		trackBorderList.get(trackNumber-1).setTitle("Track "+trackNumber);
-		
-		// The tenth track should be accessable with 0
-		if (trackNumber == 9) hotkeyNumber = 0;
-		
-		// Imports
-		PressButton.setHotkey(importButtonList.get(hotkeyNumber),
-				IMPORT_HOTKEY+trackNumber,
-				importButtonList.get(hotkeyNumber).getActionCommand());
-		
-		// Reps
-		PressButton.setHotkey(occButtonList.get(hotkeyNumber),
-				REPS_HOTKEY+trackNumber,
-				occButtonList.get(hotkeyNumber).getActionCommand());
-		
-		// Patterns
-		PressButton.setHotkey(setPatternButtonList.get(hotkeyNumber),
-						PATTERN_HOTKEY+trackNumber,
-						setPatternButtonList.get(hotkeyNumber).
-						getActionCommand());
-		
-		// Recording
-		PressButton.setHotkey(recordButtonList.get(hotkeyNumber),
-						RECORDING_HOTKEY+trackNumber,
-						recordButtonList.get(hotkeyNumber).
-						getActionCommand());
-		
-		// Mute/unmute
-		PressButton.setHotkey(playingList.get(hotkeyNumber),
-				PLAYING_HOTKEYS[hotkeyNumber],
-				playingList.get(hotkeyNumber).
-				getActionCommand());
-		
-		// Increase track number
-
 		updateWindowSize();
-
+		reveal(index);
 	}
 	
 	private void removeTrack (int whichOne) {
+		trackModel.remove(whichOne).releaseSamples();
 		
-		patternLabelList.get(whichOne).setVisible(false);
-		nextToPlayList.get(whichOne).setVisible(false);
-		occList.get(whichOne).setVisible(false);
-		countdownList.get(whichOne).setVisible(false);
-		setPatternButtonList.get(whichOne).setVisible(false);
-		importButtonList.get(whichOne).setVisible(false);
-		recordButtonList.get(whichOne).setVisible(false);
-		occButtonList.get(whichOne).setVisible(false);
-		playingList.get(whichOne).setVisible(false);
-		isMasterList.get(whichOne).setVisible(false);
-		trackPanelList.get(whichOne).setVisible(false);
-		inputBoxList.get(whichOne).setVisible(false);
-		
-		patternLabelList.remove(whichOne);
-		nextToPlayList.remove(whichOne);
-		occList.remove(whichOne);
-		countdownList.remove(whichOne);
-		setPatternButtonList.remove(whichOne);
-		importButtonList.remove(whichOne);
-		recordButtonList.remove(whichOne);
-		occButtonList.remove(whichOne);
-		maxList.remove(whichOne);
-		currentList.remove(whichOne);
-		patternList.remove(whichOne);
-		playingList.remove(whichOne);
-		isMasterList.remove(whichOne);
-		trackList.remove(whichOne);
-		trackPanelList.remove(whichOne);
-		inputBoxList.remove(whichOne);
-		trackBorderList.remove(whichOne);
-		
-		trackNumber --;
-		if (trackNumber == 1) {
-			removeTrack.setEnabled(false);
+		// Tracks after it move down one
+		if (mainTrackIndex == whichOne) {
+			mainTrackIndex = -1;
+		}
+		else if (mainTrackIndex > whichOne) {
+			mainTrackIndex --;
 		}
 		
-		if (trackNumber % TRACKS_PER_ROW == 0) {
-			currentRows --;
+		if (trackModel.size() == 1) {
+			removeTrack.setEnabled(false);
 		}
 		updateWindowSize();
-		
-		revalidate();
-		repaint();
-		
+	}
+	
+	/**
+	 * Takes every track out
+	 */
+	private void clearTracks () {
+		for (int i = 0; i < trackModel.size(); i ++) {
+			trackModel.getTrack(i).releaseSamples();
+		}
+		trackModel.clear();
+		mainTrackIndex = -1;
+		removeTrack.setEnabled(false);
 	}
 	
 	private void updateWindowSize () {
+		// Rows past what fits are scrolled to
+		int rows = (trackModel.size() + TRACKS_PER_ROW - 1) / TRACKS_PER_ROW;
+		currentRows = Math.min(rows, VISIBLE_ROWS);
+		firstRow = Math.max(0, Math.min(firstRow, rows - currentRows));
+		trackScroll.setValues(firstRow, currentRows, 0, rows);
+		trackScroll.setVisible(rows > VISIBLE_ROWS);
+		
 		width = TRACKS_PER_ROW *
 				(
 					TRACK_WIDTH + 
@@ -673,6 +541,8 @@ public class EasyLoop extends JFrame implements ActionListener {
 				 ) + 
 				 WRAPPER_PADDING;
 		
+		refreshTracks();
+		
 		// Update
 		mainPanel.setPreferredSize(new Dimension(width, height));
 		this.revalidate();
@@ -680,6 +550,227 @@ public class EasyLoop extends JFrame implements ActionListener {
 		this.pack();
 	}
 	
+	/**
+	 * Scrolls so the rows from one on are shown
+	 * 
+	 * @param row first row to show
+	 */
+	private void scrollTo (int row) {
+		if (row == firstRow) return;
+		firstRow = row;
+		refreshTracks();
+	}
+	
+	/**
+	 * Scrolls a track onto the screen if it isn't already
+	 * 
+	 * @param index track to show
+	 */
+	private void reveal (int index) {
+		int row = index / TRACKS_PER_ROW;
+		if (row < firstRow) {
+			trackScroll.setValue(row);
+		}
+		else if (row >= firstRow + currentRows) {
+			trackScroll.setValue(row - currentRows + 1);
+		}
+	}
+	
+	/**
+	 * Panel a track is shown in
+	 * 
+	 * @param index track
+	 * @return panel, or null if it is scrolled off the screen
+	 */
+	private TrackView viewOf (int index) {
+		int slot = index - firstRow * TRACKS_PER_ROW;
+		if (slot < 0 || slot >= views.length 
+				|| index >= trackModel.size()) {
+			return null;
+		}
+		return views[slot];
+	}
+	
+	/**
+	 * Points each panel at the track scrolled to, hiding those past
+	 * the last track
+	 */
+	private void refreshTracks () {
+		for (int slot = 0; slot < views.length; slot ++) {
+			int index = firstRow * TRACKS_PER_ROW + slot;
+			if (index < trackModel.size()) {
+				views[slot].bind(index);
+				showTrack(views[slot]);
+				views[slot].setVisible(true);
+			}
+			else {
+				views[slot].setVisible(false);
+			}
+		}
+	}
+	
+	/**
+	 * Updates a track's panel, if it is on the screen
+	 * 
+	 * @param index track
+	 */
+	private void showTrack (int index) {
+		TrackView view = viewOf(index);
+		if (view != null) showTrack(view);
+	}
+	
+	/**
+	 * Fills a panel in from its track and what can be done to it now
+	 * 
+	 * @param view panel to fill in
+	 */
+	private void showTrack (TrackView view) {
+		int i = view.getIndex();
+		boolean loaded = trackModel.isLoaded(i);
+		boolean recording = recordingIndex >= 0;
+		
+		// Patterns and rates can change as it plays, at the next loop
+		boolean changeable = loaded && !recording 
+				&& (editable || playManager.isPlaying());
+		
+		view.border.setTitle(trackModel.getTitle(i));
+		
+		view.isMaster.setSelected(i == mainTrackIndex);
+		view.isMaster.setEnabled(loaded && editable && !recording);
+		
+		view.patternLabel.setText("Pattern: " 
+				+ patternText(trackModel.getPattern(i)));
+		view.occ.setText("Rate of Occurrence: " + trackModel.getRate(i));
+		
+		view.importButton.setEnabled(editable && !recording);
+		if (i == recordingIndex) {
+			view.recordButton.setText(finishing ? "Finishing" : "Stop");
+			view.recordButton.setBackground(Color.RED);
+			view.recordButton.setEnabled(!finishing);
+		}
+		else {
+			view.recordButton.setText("Record");
+			view.recordButton.setBackground(Color.WHITE);
+			view.recordButton.setEnabled(editable && !recording);
+		}
+		
+		view.setPatternButton.setEnabled(changeable);
+		view.occButton.setEnabled(changeable && i != mainTrackIndex);
+		
+		binding = true;
+		view.playing.setSelected(trackModel.isPlaying(i));
+		binding = false;
+		view.playing.setEnabled(loaded && !recording);
+		
+		showCountdown(view);
+		view.repaint();
+	}
+	
+	/**
+	 * Fills in what a panel's track plays next, from the last loop
+	 * while playing
+	 * 
+	 * @param view panel to fill in
+	 */
+	private void showCountdown (TrackView view) {
+		int i = view.getIndex();
+		if (i < shown.size()) {
+			view.showCountdown(shown.get(i).getCountdown(), 
+					shown.get(i).next);
+		}
+		else {
+			view.showCountdown(0, 
+					String.valueOf(trackModel.getPattern(i).get(0)));
+		}
+	}
+	
+	/**
+	 * Shows what each track was doing at a loop. Only the panels on
+	 * the screen are touched, however many tracks there are
+	 * 
+	 * @param states a state for each track
+	 */
+	private void showStates (List<TrackState> states) {
+		// Nothing has happened since it was last shown
+		if (states == shown) return;
+		
+		shown = states;
+		for (TrackView view : views) {
+			if (view.isVisible()) showCountdown(view);
+		}
+	}
+	
+	/**
+	 * A pattern as it is shown
+	 * 
+	 * @param pattern pattern to show
+	 * @return its steps separated by spaces
+	 */
+	private static String patternText (List<Object> pattern) {
+		String patternString = " ";
+		for (Object o : pattern) {
+			patternString += o + " ";		
+		}
+		
+		// Compact concurrent sequences
+		return patternString.replace(" | ", "|");
+	}
+	
+	/**
+	 * Sets whether a track plays, at the next loop if playing
+	 * 
+	 * @param index track
+	 * @param playing true to play it
+	 */
+	private void setPlaying (int index, boolean playing) {
+		trackModel.setPlaying(index, playing);
+		playManager.post(TrackCommand.playing(index, playing));
+		showTrack(index);
+	}
+	
+	/**
+	 * Hotkey for a control of one of the first ten tracks, scrolling
+	 * to the track first
+	 */
+	private class TrackKey extends AbstractAction {
+		
+		/**
+		 * Serial ID to ensure version continuity
+		 */
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * Track and control to press
+		 */
+		private final int index;
+		private final int control;
+		
+		TrackKey (int index, int control) {
+			this.index = index;
+			this.control = control;
+		}
+		
+		public void actionPerformed (ActionEvent e) {
+			if (index >= trackModel.size()) return;
+			reveal(index);
+			viewOf(index).press(control);
+		}
+	}
+	
+	/**
+	 * Maps a key to a control of a track
+	 * 
+	 * @param key key to trigger it
+	 * @param index track
+	 * @param control control to press, as in TrackView
+	 */
+	private void setTrackHotkey (String key, int index, int control) {
+		String action = key + " track";
+		mainPanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+			.put(KeyStroke.getKeyStroke(key), action);
+		mainPanel.getActionMap().put(action, new TrackKey(index, control));
+	}
+	
 	/**
 	 * Main panel
 	 */
@@ -695,6 +786,50 @@ public class EasyLoop extends JFrame implements ActionListener {
 		mainPanel.setBackground(Color.PINK);
 		mainPanel.setLayout(MAIN_LAYOUT);
 		
+		// Only enough panels to fill the screen, pointed at
+		// whichever tracks are scrolled to
+		for (int slot = 0; slot < views.length; slot ++) {
+			final int viewSlot = slot;
+			
+			// Playing box, muting while playing waits for the next loop
+			views[slot] = new TrackView(this, new ItemListener() {
+				public void itemStateChanged (ItemEvent e) {
+					if (binding) return;
+					setPlaying(views[viewSlot].getIndex(),
+							e.getStateChange() == ItemEvent.SELECTED);
+				}
+			});
+			mainPanel.add(views[slot]);
+		}
+		
+		// Scroll through rows past the ones shown
+		trackScroll = new JScrollBar(JScrollBar.VERTICAL);
+		trackScroll.addAdjustmentListener(new AdjustmentListener() {
+			public void adjustmentValueChanged (AdjustmentEvent e) {
+				scrollTo(e.getValue());
+			}
+		});
+		mainPanel.addMouseWheelListener(new MouseWheelListener() {
+			public void mouseWheelMoved (MouseWheelEvent e) {
+				trackScroll.setValue(trackScroll.getValue() 
+						+ e.getWheelRotation());
+			}
+		});
+		
+		JPanel tracksPanel = new JPanel(new BorderLayout());
+		tracksPanel.add(mainPanel, BorderLayout.CENTER);
+		tracksPanel.add(trackScroll, BorderLayout.EAST);
+		
+		// Hotkeys for the first ten tracks, 0 for the tenth
+		for (int i = 0; i < PLAYING_HOTKEYS.length; i ++) {
+			String key = PLAYING_HOTKEYS[i];
+			setTrackHotkey(IMPORT_HOTKEY + key, i, TrackView.IMPORT);
+			setTrackHotkey(REPS_HOTKEY + key, i, TrackView.RATE);
+			setTrackHotkey(PATTERN_HOTKEY + key, i, TrackView.PATTERN);
+			setTrackHotkey(RECORDING_HOTKEY + key, i, TrackView.RECORD);
+			setTrackHotkey(key, i, TrackView.PLAYING);
+		}
+		
 		// Add a track
 		addTrack();
 		
@@ -740,10 +875,17 @@ public class EasyLoop extends JFrame implements ActionListener {
 		save.setAccelerator(ctrlS);
 		save.addActionListener(this);
 		
+		saveBundle = new JMenuItem("Save Bundle");
+		saveBundle.addActionListener(this);
+		
 		open = new JMenuItem("Open");
 		open.setAccelerator(ctrlO);
 		open.addActionListener(this);
 		
+		bounce = new JMenuItem("Bounce");
+		bounce.setAccelerator(ctrlE);
+		bounce.addActionListener(this);
+		
 		edit = new JMenu("Edit");
 		
 		addTrack = new JMenuItem("Add Track");
@@ -766,7 +908,9 @@ public class EasyLoop extends JFrame implements ActionListener {
 
 		file.add(quit);
 		file.add(save);
+		file.add(saveBundle);
 		file.add(open);
+		file.add(bounce);
 		
 		menuBar.add(edit);
 		
@@ -782,10 +926,150 @@ public class EasyLoop extends JFrame implements ActionListener {
 		
 		// Add our created elements to the layout
 		add(menuBar, BorderLayout.NORTH);
-		add(mainPanel, BorderLayout.CENTER);
+		add(tracksPanel, BorderLayout.CENTER);
 		add(buttonPanel, BorderLayout.SOUTH);
 	}
 	
+	/**
+	 * Turns the controls for changing tracks on or off, for while
+	 * the tracks are playing or being prepared
+	 * 
+	 * @param editable whether tracks can be changed
+	 */
+	private void setEditable (boolean editable) {
+		this.editable = editable;
+		
+		//Enable Menu
+		file.setEnabled(editable);
+		edit.setEnabled(editable);
+		
+		setLoopLength.setEnabled(editable);
+		
+		// Only tracks with a file can be set up
+		refreshTracks();
+	}
+	
+	/**
+	 * Lets the tracks be played, prepared or not, as long as the
+	 * main track is ready
+	 */
+	private void updatePlayButton () {
+		// If we have a main track make sure it is ready
+		if (mainTrackIndex > 0) {
+			if (trackModel.isLoaded(mainTrackIndex)) {
+				playButton.setEnabled(true);
+			}
+		}
+		else {
+			playButton.setEnabled(true);
+		}
+	}
+	
+	/**
+	 * Gives a track the take just finished, and stops the backing
+	 * tracks if recording started them
+	 * 
+	 * @param index track recorded to
+	 */
+	private void finishRecording (int index) {
+		// End recording state
+		recordingIndex = -1;
+		finishing = false;
+		
+		// Stop the main track playback if we started it, now the
+		// take is closed
+		if (choice == 0) {
+			playButton.setEnabled(true);
+			playButton.doClick();
+		}
+		
+		// Set file
+		File fullPath = new File(DIRECTORY + recordingFile 
+				+ EXTENTION);
+		trackModel.getTrack(index).setTrack(fullPath);
+		
+		// Modify button states			
+		file.setEnabled(true);
+
+		// We need to prepare
+		prepareButton.setEnabled(true);
+		updatePlayButton();
+		
+		// If this is the master track, set the loop duration to
+		// its length
+		if (index == mainTrackIndex) {
+			loopLength = calculateLength
+					(trackModel.getTrack(mainTrackIndex).trackDir);
+		}
+		
+		setLoopLength.setText("Set Loop Length (Current: " 
+				+ loopFormat.format(loopLength) + ")");
+		
+		// Update the name
+		trackModel.setTitle(index, recordingFile + EXTENTION);
+		
+		// Turn back into Record button, and play the take
+		setPlaying(index, true);
+		refreshTracks();
+	}
+	
+	/**
+	 * Gives the tracks what a Prepare made and gets ready to play,
+	 * or lets the tracks be prepared again if it didn't work
+	 * 
+	 * @param job finished job
+	 */
+	private void finishPrepare (PrepareJob job) {
+		try {
+			job.finish();
+			updatePlayButton();
+		}
+		catch (InterruptedException ex) {
+			// Cancelled, nothing has changed
+			prepareButton.setEnabled(true);
+		}
+		catch (IOException ex) {
+			JOptionPane.showMessageDialog(null, 
+					"Error with transposing files.");
+			prepareButton.setEnabled(true);
+			ex.printStackTrace();
+		}
+		setEditable(true);
+	}
+	
+	/**
+	 * Time stretches a file in the background, so long files don't
+	 * hold up the window and several can be stretched at once
+	 * 
+	 * @param change percent to change the tempo by
+	 * @param source file to stretch
+	 */
+	private void stretch (final double change, final File source) {
+		final AudioTrack track = trackModel.getTrack(0);
+		new Thread(new Runnable() {
+			public void run() {
+				String result;
+				try {
+					File shifted = track.createShiftedFile( 
+							change, source.getPath());
+					result = shifted == null ? "That file has already "
+							+ "been made." : "Saved to " + shifted.getName();
+				}
+				catch (IOException ex) {
+					result = "Problem reading file.";
+					ex.printStackTrace();
+				}
+				
+				final String message = result;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						JOptionPane.showMessageDialog(null, message);
+					}
+				});
+			}
+		}, "Easy Loop stretch").start();
+	}
+	
 	/**
 	 * Calculate the length of the file found at /fileName in seconds
 	 * @see http://stackoverflow.com/questions/3009908/how-do-i-get-a-sound-files-total-time-in-java
@@ -794,6 +1078,14 @@ public class EasyLoop extends JFrame implements ActionListener {
 	 * @return double of length in seconds
 	 */
 	public double calculateLength (String fileName) {
+		// Plain .wav files only need their header read
+		try {
+			return new WavReader(new File(fileName)).getSeconds();
+		}
+		catch (IOException | UnsupportedAudioFileException ex) {
+			// Let java have a go
+		}
+		
 		try {
 			AudioInputStream audioInputStream = 
 					AudioSystem.getAudioInputStream(new File(fileName));
@@ -818,39 +1110,17 @@ public class EasyLoop extends JFrame implements ActionListener {
 	}
 	
 	/**
-	 * Converts the state of the program to a text file at
+	 * Converts the state of the program to a save file at
 	 * a speficied location
 	 * 
 	 * @param saveLocation location to save to
 	 */
 	private void save(String saveLocation) {
 		
-		saveLocation += ".txt";
-		
-		// Save data as text
-		String saveFile = "";
-		saveFile += trackNumber + "@" + loopLength + "@" + mainTrackIndex + "@";
-	
-		for (int i = 0; i < trackNumber; i++) {
-			
-			saveFile += trackList.get(i).track + "@";
-			for (Object num : patternList.get(i)) {
-				saveFile += num + ",";
-			}
-			saveFile += "@" + playingList.get(i).isSelected() + "@";
-			saveFile += maxList.get(i) + "@";
-			saveFile += currentList.get(i) + "@";
-		}
+		saveLocation += Session.EXTENTION;
 		
 		try {
-			
-			// Create the file
-			new File(saveLocation);
-			
-			// Write the line
-			PrintWriter writer = new PrintWriter(saveLocation, "UTF-8");
-			writer.println(saveFile);
-			writer.close();
+			getSession().write(saveLocation);
 		}
 		
 		catch (IOException e) {
@@ -860,6 +1130,61 @@ public class EasyLoop extends JFrame implements ActionListener {
 		}
 	}
 	
+	/**
+	 * Saves the session in a bundle with its files and transpositions,
+	 * in the background as anything not prepared is transposed first
+	 * 
+	 * @param saveLocation location to save to
+	 */
+	private void saveBundle(String saveLocation) {
+		final Session session = getSession();
+		final File folder = new File(saveLocation + SessionBundle.EXTENTION);
+		
+		new Thread(new Runnable() {
+			public void run() {
+				String result;
+				try {
+					SessionBundle.write(session, folder);
+					result = "Saved to " + folder.getName();
+				}
+				catch (IOException ex) {
+					result = "Error with saving file.";
+					ex.printStackTrace();
+				}
+				
+				final String message = result;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						JOptionPane.showMessageDialog(null, message);
+					}
+				});
+			}
+		}, "Easy Loop bundle").start();
+	}
+	
+	/**
+	 * The state of the program, as it would be saved
+	 * 
+	 * @return a copy of the session
+	 */
+	private Session getSession() {
+		Session session = new Session();
+		session.trackNumber = trackModel.size();
+		session.loopLength = loopLength;
+		session.mainTrackIndex = mainTrackIndex;
+		
+		for (int i = 0; i < trackModel.size(); i++) {
+			File track = trackModel.getTrack(i).track;
+			session.fileList.add(track == null ? null : track.getPath());
+			session.patternList.add(
+					new ArrayList<Object>(trackModel.getPattern(i)));
+			session.playingList.add(trackModel.isPlaying(i));
+			session.maxList.add(trackModel.getRate(i));
+			session.currentList.add(trackModel.getCount(i));
+		}
+		return session;
+	}
+	
 	/**
 	 * Sets the program state based on a file
 	 * @param saveFile file to load
@@ -869,110 +1194,50 @@ public class EasyLoop extends JFrame implements ActionListener {
 	private void load(String loadFile) throws IOException, 
 		NullPointerException, NumberFormatException {
 		
-		// Load the file to a track
-		FileReader reader = new FileReader(loadFile);
-		BufferedReader bufferedReader = new BufferedReader(reader);
-		String saveFile = bufferedReader.readLine();
-		reader.close();
+		// Read the file before we touch anything
+		Session session = SessionBundle.open(loadFile);
 		
 		// Clear tracks
-		while (trackNumber > 0) {
-			removeTrack(0);
-		}
-		
-		String[] saveArray = saveFile.split("@");
+		clearTracks();
 		
-		loopLength = Double.valueOf(saveArray[1]);
+		loopLength = session.loopLength;
 		
-		mainTrackIndex = Integer.valueOf(saveArray[2]);
+		mainTrackIndex = session.mainTrackIndex;
 
-		int saveIndex = SAVE_ARRAY_LENGTH;
-		for (int i = 0; i < Integer.parseInt(saveArray[0]); i++) {
-			addTrack(); 
+		for (int i = 0; i < session.trackNumber; i++) {
+			trackModel.add(new AudioTrack());
 			
-			if (i == mainTrackIndex) {
-				isMasterList.get(i).setEnabled(true);
-				isMasterList.get(i).setSelected(true);
-			}
-			
-			if (!saveArray[saveIndex].equals("null")) {
+			if (session.fileList.get(i) != null) {
 				// Set track
-				trackList.get(i).setTrack(
-					new File(saveArray[saveIndex]));
-				
-				// Modify button states
-				playingList.get(i).setEnabled(true);
-				playingList.get(i).setSelected(true);
-				setPatternButtonList.get(i).setEnabled(true);
-				isMasterList.get(i).setEnabled(true);
-				
-				// Set all reps buttons to avaliable if this isn't
-				// the main track
-				occButtonList.get(i)
-					.setEnabled(i != mainTrackIndex);
-				
-	        	trackBorderList.get(i).setTitle(trackList.get(i).trackName + 
-	        			EXTENTION);
-			}
-			
-			saveIndex ++;
-			
-			// Generate pattern from text
-			String[] savePattern =
-					saveArray[saveIndex].split(",");
-			
-			String patternString = "";
-			
-			patternList.get(i).clear();
-			
-			for (String s : savePattern) {
-				if (!s.equals("!") && !s.equals(">") && !s.equals("|")) {
-					patternList.get(i).
-						add(Integer.parseInt(s));
-				}
-				else {
-					patternList.get(i).add(s);
-				}
-				patternString += s + " ";		
-			}
-			
-			// Compact concurrent sequences
-			patternString = patternString.replace(" | ", "|");	
-		
-			saveIndex ++;
-
-			// Set playing state
-			if (saveArray[saveIndex].equals("true")) {
-				playingList.get(i).setSelected(true);
+				AudioTrack track = trackModel.getTrack(i);
+				track.setTrack(new File(session.fileList.get(i)));
+	        	trackModel.setTitle(i, track.trackName + EXTENTION);
 			}
 			
-			saveIndex ++;
-			
-			maxList.set( i,
-					Integer.valueOf(saveArray[saveIndex]));
-			
-			saveIndex ++;
-			
-			currentList.set( i,
-					Integer.valueOf(saveArray[saveIndex]));
-			
-			saveIndex ++;
-
-			// Set displays
-			setLoopLength.setText("Set Loop Length (Current: " 
-					+ loopFormat.format(loopLength) + ")");
-			
-			patternLabelList.get(i).setText("Pattern: " 
-					+ patternString);
-			
-        	nextToPlayList.get(i).setText("Next transposition: " 
-					+ patternList.get(i).get(0));				
-        	
-        	occList.get(i).setText("Rate of Occurrence: " 
-					+ maxList.get(i));
+			// Set pattern, playing state and reps
+			trackModel.setPattern(i, session.patternList.get(i));
+			trackModel.setPlaying(i, session.playingList.get(i));
+			trackModel.setRate(i, session.maxList.get(i));
+			trackModel.setCount(i, session.currentList.get(i));
 		}
+		
+		// Set displays
+		setLoopLength.setText("Set Loop Length (Current: " 
+				+ loopFormat.format(loopLength) + ")");
+		removeTrack.setEnabled(trackModel.size() > 1);
+		firstRow = 0;
+		updateWindowSize();
+		
 		prepareButton.setEnabled(true);
-		playButton.setEnabled(false);
+		updatePlayButton();
+		
+		// A bundle's transpositions are all in the cache now, so
+		// preparing only has to read them
+		File loaded = new File(loadFile).getAbsoluteFile();
+		if (SessionBundle.isBundle(loaded) 
+				|| SessionBundle.isBundle(loaded.getParentFile())) {
+			prepareButton.doClick();
+		}
 	}
 		
 	/**
@@ -984,15 +1249,15 @@ public class EasyLoop extends JFrame implements ActionListener {
 		//Check which button was pressed and change color based on that 
 		String event = e.getActionCommand();
 				
-		// Get index of event
-		try {
-			eventIndex = Integer.parseInt(event.substring(event.length()-1));
+		// Get index of event, from all the digits it ends in. Events
+		// that don't end in one leave it as it was
+		int digits = event.length();
+		while (digits > 0 && Character.isDigit(event.charAt(digits - 1))) {
+			digits --;
+		}
+		if (digits < event.length()) {
+			eventIndex = Integer.parseInt(event.substring(digits));
 		}
-		
-		// We don't need to do anything, this just
-		// tells us that this particular event isnt
-		// one that ends in an int
-		catch (NumberFormatException ex) {}; 
 		
 		// Add a track
 		if (event.equals("Add Track")) {
@@ -1009,7 +1274,7 @@ public class EasyLoop extends JFrame implements ActionListener {
 				if (removeInt != null) {
 					// -1 for index syntax
 					if (Integer.valueOf(removeInt)-1 < 0 
-							|| Integer.valueOf(removeInt) > trackList.size()) {
+							|| Integer.valueOf(removeInt) > trackModel.size()) {
 						JOptionPane.showMessageDialog(null, 
 								"Track does not exist.");
 						pass = false;
@@ -1035,9 +1300,7 @@ public class EasyLoop extends JFrame implements ActionListener {
 		// Reset to base state
 		else if (event.equals("Reset")) {
 			
-			while (trackNumber > 0) {
-				removeTrack(0);
-			}
+			clearTracks();
 
 			addTrack();
 			
@@ -1052,9 +1315,14 @@ public class EasyLoop extends JFrame implements ActionListener {
 			JFileChooser dialog = 
 					new JFileChooser(SAVES_DIRECTORY);
 			
-			// Make sure the file is a wav or a midi
-			FileNameExtensionFilter filter = 
-					new FileNameExtensionFilter("*.txt", "txt");
+			// Make sure the file is a save, old or new, or a bundle
+			FileNameExtensionFilter filter = new FileNameExtensionFilter(
+					"*" + Session.EXTENTION + ", *" + SessionBundle.EXTENTION
+					+ ", *" + Session.TEXT_EXTENTION,
+					Session.EXTENTION.substring(1), 
+					SessionBundle.EXTENTION.substring(1), 
+					Session.TEXT_EXTENTION.substring(1));
+			dialog.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
 			dialog.setFileFilter(filter);
 
 			// Open the dialog
@@ -1074,7 +1342,10 @@ public class EasyLoop extends JFrame implements ActionListener {
 				if (fullPath.exists()) {
 					try {
 						load(fullPath.getPath());
-						this.setTitle(fullPath.getName().replace(".txt", ""));
+						this.setTitle(fullPath.getName()
+								.replace(SessionBundle.EXTENTION, "")
+								.replace(Session.EXTENTION, "")
+								.replace(Session.TEXT_EXTENTION, ""));
 					}
 					catch (IOException | NullPointerException | 
 							NumberFormatException ex) {
@@ -1092,62 +1363,164 @@ public class EasyLoop extends JFrame implements ActionListener {
 			this.setTitle(save);
 		}
 		
-		// Prepare track for playback
-		else if (event.equals("Prepare")) {
+		else if (event.equals("Save Bundle")) {
+			String save = JOptionPane.showInputDialog("File name?");
+			if (save != null && save.length() > 0) {
+				saveBundle(SAVES_DIRECTORY+save);
+				this.setTitle(save);
+			}
+		}
+		
+		// Render the arrangement to files
+		else if (event.equals("Bounce")) {
+			// The tracks can't be copied while they play
+			if (playManager.isPlaying()) {
+				JOptionPane.showMessageDialog(null, 
+						"Please end playback first.");
+				return;
+			}
+			
+			// We can only render what has been prepared
+			if (prepareButton.isEnabled() || !playButton.isEnabled()) {
+				JOptionPane.showMessageDialog(null, 
+						"Please prepare the tracks first.");
+				return;
+			}
+			
+			String loops = JOptionPane.showInputDialog("How many loops?");
+			
+			// Make sure it's an int greater than 0
+			boolean pass = true;
+			
 			try {
-				// Prepare tracks and create all essential files
-				for (AudioTrack t : trackList) {
-					int index = trackList.indexOf(t);
-					t.setPlayOrder(patternList.get(index));	
-				
-					// Check every 10th of a second
-					// for completion
-					while (t.notDone) Thread.sleep(100); 
-				}	
-				
-				// If we have a main track make sure it is ready
-				if (mainTrackIndex > 0) {
-					if (trackList.get(mainTrackIndex).track != null) {
-						playButton.setEnabled(true);
-					}
+				if (loops == null) {
+					pass = false;
 				}
-				else {
-					playButton.setEnabled(true);
+				else if (Integer.parseInt(loops) <= 0) {
+					JOptionPane.showMessageDialog(null, 
+							"Please input an integer"
+							+ " greater than 0.");
+					pass = false;
 				}
-				prepareButton.setEnabled(false);
 			}
-			catch (Exception ex) {
+			catch (NumberFormatException ex){
 				JOptionPane.showMessageDialog(null, 
-						"Error with transposing files.");
-				ex.printStackTrace();
-			}	
+						"Please input an integer.");
+				pass = false;
+			}
+			
+			final String name = pass ? 
+					JOptionPane.showInputDialog("File name?") : null;
+			
+			if (name != null && name.length() > 0) {
+				int stems = JOptionPane.showOptionDialog
+						(null, "Also write a file for each track?",
+						"Also write a file for each track?",
+						JOptionPane.YES_NO_OPTION,
+						JOptionPane.INFORMATION_MESSAGE,
+						null,
+						new Object[]{"Yes","No"},
+						"No");
+				
+				final int loopCount = Integer.parseInt(loops);
+				final File stemDirectory = stems == 0 ? 
+						new File(DIRECTORY) : null;
+				
+				// Copy the tracks now, they may change while we render
+				final OfflineRenderer renderer = new OfflineRenderer(
+						trackModel.trackList(), trackModel.rateList(), 
+						trackModel.countList(), trackModel.playingList(), 
+						loopLength);
+				
+				bounce.setEnabled(false);
+				
+				// Render in the background
+				new Thread(new Runnable() {
+					public void run() {
+						String message = "Bounce finished.";
+						try {
+							renderer.render(loopCount, 
+									new File(DIRECTORY + name + EXTENTION),
+									stemDirectory, name);
+						}
+						catch (IOException | InterruptedException ex) {
+							message = "Error with bouncing file.";
+							ex.printStackTrace();
+						}
+						
+						final String result = message;
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								bounce.setEnabled(true);
+								JOptionPane.showMessageDialog(null, result);
+							}
+						});
+					}
+				}).start();
+			}
+		}
+		
+		// Prepare track for playback
+		else if (event.equals("Prepare")) {
+			// Nobody changes the tracks while they are being prepared
+			setEditable(false);
+			prepareButton.setEnabled(false);
+			playButton.setEnabled(false);
+			
+			// Prepare tracks and create all essential files
+			// on the worker threads
+			final PrepareJob job = new PrepareJob(trackModel.trackList(), 
+					trackModel.patternList()).start();
+			final ProgressMonitor progress = new ProgressMonitor(this,
+					"Preparing tracks", null, 0, Math.max(1, job.getTotal()));
+			progress.setMillisToDecideToPopup(PREPARE_POPUP);
+			
+			// Check in on it every 10th of a second
+			final Timer check = new Timer(100, null);
+			check.addActionListener(new ActionListener() {
+				public void actionPerformed (ActionEvent e) {
+					if (progress.isCanceled()) job.cancel();
+					progress.setProgress(job.getDone());
+					if (!job.isDone()) return;
+					
+					check.stop();
+					progress.close();
+					finishPrepare(job);
+				}
+			});
+			check.start();
 		}
 		
 		// Start playback
 		else if (event.equals("Play")) {				
 			// We don't want people changing stuff while it runs
-			file.setEnabled(false);
-			edit.setEnabled(false);
-			for (JButton b : importButtonList) b.setEnabled(false);
-			for (JButton b : setPatternButtonList) b.setEnabled(false);
-			for (JButton b : occButtonList) b.setEnabled(false);
-			for (JButton b : recordButtonList) b.setEnabled(false);
-			for (JRadioButton b : isMasterList) b.setEnabled(false);
-			setLoopLength.setEnabled(false);
+			setEditable(false);
 			
-			// Reset tracks
-			for (AudioTrack a : trackList) a.currentTrack = 0;
-			currentList.replaceAll((i) -> 1);
-		
-			// Play tracks
-			for (AudioTrack t : trackList) {
-				t.play = playingList.get(trackList.indexOf(t)).isSelected();
-				t.playNext(playButton);
+			// If it hasn't been prepared, transpose while it plays,
+			// the soonest needed first
+			if (prepareButton.isEnabled()) {
+				for (int i = 0; i < trackModel.size(); i ++) {
+					AudioTrack track = trackModel.getTrack(i);
+					if (track.isPrepared(trackModel.getPattern(i))) {
+						continue;
+					}
+					track.setPlayOrderLazy(trackModel.getPattern(i), 
+							trackModel.getRate(i));
+				}
+				prepareButton.setEnabled(false);
 			}
 			
-			// Start loop
+			// Reset tracks
+			trackModel.rewind();
+		
+			// Start loop, the first loop plays every track
 			playManager.playTracks();
 			
+			// Patterns and rates can change as it plays,
+			// at the next loop
+			refreshTracks();
+			refresh.start();
+			
 			// Change label and select playButton
 			playButton.requestFocus();
 			playButton.setText("End");
@@ -1157,82 +1530,47 @@ public class EasyLoop extends JFrame implements ActionListener {
 		else if (event.equals("End")) {
 			
 			// Stop loop
-			playManager.controller.stop();
+			playManager.stop();
 			
-			for (AudioTrack t : trackList) {
-				Iterator<Clip> i = t.audioInputStream.iterator();
-				while (i.hasNext()) {
-					i.next().stop();
-					i.remove();
-				}
-			}
-				
-			//Enable Menu
-			file.setEnabled(true);
-			edit.setEnabled(true);
+			// Silence everything and give the output line back
+			// until we play again
+			MixEngine.shared().stop();
 			
-			// Re-enable buttons
-			for (JButton b : importButtonList) b.setEnabled(true);
-			for (JButton b : recordButtonList) b.setEnabled(true);
-			
-			for (int i = 0; i < trackNumber; i ++) {
-				if (trackList.get(i).track != null) {
-					setPatternButtonList.get(i).setEnabled(true);
-					occButtonList.get(i).setEnabled(true);
-					isMasterList.get(i).setEnabled(true);
-				}
+			// Keep where each track got to
+			List<TrackState> states = playManager.getStates();
+			for (int i = 0; i < states.size() && i < trackModel.size(); i++) {
+				trackModel.setCount(i, states.get(i).count);
 			}
-			
-			setLoopLength.setEnabled(true);
-			
+				
        		// Update displays
-			for (int i = 0; i < trackNumber; i++) {
-				countdownList.get(i).setText("Reps till next play: 0");
-				nextToPlayList.get(i).setText("Next transposition: " 
-						+ patternList.get(i).get(0));
-			}
+			refresh.stop();
+			shown = Collections.<TrackState>emptyList();
+			setEditable(true);
 			
 			playButton.setText("Play");
 		}
 		
 		// Switch the main track
 		else if (event.startsWith("Main")) {
-			for (JRadioButton r : isMasterList) {
-				int index = isMasterList.indexOf(r);
-				
-				// Set the main track index
-								
-				mainTrackIndex = eventIndex;
-				
-				if (trackList.get(eventIndex).track != null) {
-					if (!prepareButton.isEnabled()) playButton.setEnabled(true);
-						loopLength = calculateLength
-							(trackList.get(eventIndex).trackDir);
-				}
-				
-				// If the box isn't the one we picked, unselect it.
-				if (index != eventIndex) { 
-					r.setSelected(false);
-					if (trackList.get(index).track != null) {
-						occButtonList.get(index).setEnabled(true);
-					}
-				}
-				
-				// If it is, select it, disable it, and
-				// reset reps and disable reps button
-				// also, set the loop length
-				else {
-					r.setSelected(true);
-					occButtonList.get(index).setEnabled(false);
-					occList.get(index).setText("Rate of Occurrence: 1");
-					maxList.set(index, 1);
-					mainTrackIndex = index;
-				}
-				
-				// Set button text in case the track was master before
-				setLoopLength.setText("Set Loop Length (Current: " 
-						+ loopFormat.format(loopLength) + ")");
+			// Set the main track index
+			mainTrackIndex = eventIndex;
+			
+			// Set the loop length
+			if (trackModel.isLoaded(eventIndex)) {
+				playButton.setEnabled(true);
+				loopLength = calculateLength
+						(trackModel.getTrack(eventIndex).trackDir);
 			}
+			
+			// The main track plays every loop
+			trackModel.setRate(eventIndex, 1);
+			
+			// Set button text in case the track was master before
+			setLoopLength.setText("Set Loop Length (Current: " 
+					+ loopFormat.format(loopLength) + ")");
+			
+			// Only one is selected, and its reps button disabled
+			refreshTracks();
 		}
 		
 		// Change the BPM of a file
@@ -1292,15 +1630,7 @@ public class EasyLoop extends JFrame implements ActionListener {
 						// Make sure it is in acceptable bounds
 						if (change >= MIN_STRETCH 
 								&& change <= MAX_STRETCH) {
-							try {
-								trackList.get(0).createShiftedFile( 
-										change, fullPath.getPath());
-							}
-							catch (InterruptedException | IOException ex) {
-								JOptionPane.showMessageDialog(null, 
-										"Problem reading file.");
-								ex.printStackTrace();
-							}
+							stretch(change, fullPath);
 						}
 						else {
 							JOptionPane.showMessageDialog(null, 
@@ -1346,18 +1676,11 @@ public class EasyLoop extends JFrame implements ActionListener {
 				setLoopLength.setText("Set Loop Length (Current: " 
 						+ loopFormat.format(loopLength) + ")");
 				
-				// Set radio button state (and occ button)
-				if (mainTrackIndex != -1) {
-					isMasterList.get(mainTrackIndex).setSelected(false);
-					occButtonList.get(mainTrackIndex).setEnabled(true);
-				}
-				
-				// Set button text
-				setLoopLength.setText("Set Loop Length (Current: "
-						+ loopFormat.format(loopLength) + ")");
-				
 				// Let the program know that there is no master track
 				mainTrackIndex = -1;
+				
+				// Set radio button state (and occ button)
+				refreshTracks();
 			}
 		}
 		
@@ -1367,8 +1690,8 @@ public class EasyLoop extends JFrame implements ActionListener {
 			
 			// Load the previous pattern into the textbox
 			String patternString = "";
-			if (patternList.get(eventIndex).size() > 0) {
-				for (Object o : patternList.get(eventIndex)) {
+			if (trackModel.getPattern(eventIndex).size() > 0) {
+				for (Object o : trackModel.getPattern(eventIndex)) {
 					patternString += o + " ";
 				}
 			}
@@ -1412,32 +1735,34 @@ public class EasyLoop extends JFrame implements ActionListener {
 			
 			// Set the pattern to the input 
 			if (pass) {
-				patternString = " "; // For display
-				
-				patternList.get(eventIndex).clear();
+				ArrayList<Object> pattern = new ArrayList<Object>();
 				
 				for (String s : newPatternArray) {
 					if (!s.equals("!") && !s.equals(">") && !s.equals("|")) {
-						patternList.get(eventIndex).
-							add(Integer.parseInt(s));
+						pattern.add(Integer.parseInt(s));
 					}
 					else {
-						patternList.get(eventIndex).add(s);
+						pattern.add(s);
 					}
-					patternString += s + " ";		
 				}
-				
-				// Compact concurrent sequences
-				patternString = patternString.replace(" | ", "|");
+				trackModel.setPattern(eventIndex, pattern);
 				
 				// Set displays
-				patternLabelList.get(eventIndex).setText("Pattern: " 
-						+ patternString);
-	        	nextToPlayList.get(eventIndex).setText("Next transposition: " 
-						+ patternList.get(eventIndex).get(0));				
+				showTrack(eventIndex);
 				
-				playButton.setEnabled(false); // We need to re-prepare
-				prepareButton.setEnabled(true);
+				// Change it at the next loop if playing, made ready
+				// here so the transport only swaps it in. Otherwise 
+				// we need to re-prepare, or play while it prepares
+				if (playManager.isPlaying()) {
+					playManager.post(TrackCommand.pattern(eventIndex, 
+							trackModel.getTrack(eventIndex).preparePlayOrder(
+							pattern, trackModel.getRate(eventIndex), 
+							playManager.nextStep(eventIndex))));
+				}
+				else {
+					prepareButton.setEnabled(true);
+					updatePlayButton();
+				}
 			}
 		}
 
@@ -1469,40 +1794,26 @@ public class EasyLoop extends JFrame implements ActionListener {
 				// (we can't check without permissions)
 				if (fullPath.exists()) {
 
-					trackList.get(eventIndex).setTrack(fullPath);
+					trackModel.getTrack(eventIndex).setTrack(fullPath);
 					
 					if (eventIndex == mainTrackIndex) {
 						loopLength = calculateLength
-								(trackList.get(mainTrackIndex).trackDir);
+								(trackModel.getTrack(mainTrackIndex).trackDir);
 					}
 					
-					// Modify button states
-					playingList.get(eventIndex).setEnabled(true);
-					playingList.get(eventIndex).setSelected(true);
-					setPatternButtonList.get(eventIndex).setEnabled(true);
-					
 					// Set loop length text
 					setLoopLength.setText("Set Loop Length (Current: " 
 							+ loopFormat.format(loopLength) + ")");
-					
-					// Set all reps buttons to avaliable if this isn't
-					// the main track
-					occButtonList.get(eventIndex)
-						.setEnabled(eventIndex != mainTrackIndex);
-					
-					isMasterList.get(eventIndex).setEnabled(true);
 	
 					// We need to prepare
 					prepareButton.setEnabled(true);
-					playButton.setEnabled(false); 
+					updatePlayButton();
 					
 					// Set the title of the track
-					trackBorderList.get(eventIndex).
-						setTitle(loadedFile.getName());
+					trackModel.setTitle(eventIndex, loadedFile.getName());
 					
-					// Apply it
-					revalidate();
-					repaint();
+					// Play it, which also applies the button states
+					setPlaying(eventIndex, true);
 				} 
 				else {
 					JOptionPane.showMessageDialog(null, 
@@ -1513,7 +1824,7 @@ public class EasyLoop extends JFrame implements ActionListener {
 		
 		// Start recording
 		else if (event.startsWith("Record")) {
-			if (!recording) {
+			if (recordingIndex < 0) {
 				// Input Dialog
 				recordingFile = JOptionPane.showInputDialog("What should the"
 						+ " file be named?");
@@ -1521,7 +1832,7 @@ public class EasyLoop extends JFrame implements ActionListener {
 				if (recordingFile != null && recordingFile.length() > 0) {
 					
 					// Set recording state
-					recording = true;
+					recordingIndex = eventIndex;
 
 					// Seconds between countdown beeps
 					double delay = loopLength;
@@ -1532,11 +1843,9 @@ public class EasyLoop extends JFrame implements ActionListener {
 					boolean pass = false;
 				
 					// Is there a track other than main that can play?
-					for (AudioTrack t: trackList) {
-						if (t.track != null) {
-							if (trackList.indexOf(t) != eventIndex) {
-								pass = true;
-							}
+					for (int i = 0; i < trackModel.size(); i ++) {
+						if (trackModel.isLoaded(i) && i != eventIndex) {
+							pass = true;
 						}
 					}
 					
@@ -1551,129 +1860,79 @@ public class EasyLoop extends JFrame implements ActionListener {
 								"No");
 					}
 
-					// Count in 
-					try {					
-						for (int i = 4; i > 0; i--) {
-							// Delay
-							Thread.sleep((long) (delay*1000));
-				
-							// Play a sound
-							trackList.get(0).play(
-									"resources/click.wav", playButton);	
-						}	
-				
-						// One final delay
-						Thread.sleep((long) (delay*1000));
-				
-					}
-					catch (InterruptedException ex) {
-						JOptionPane.showMessageDialog(null, 
-								"Interrupted Exception.");
-					};
-					
-					// Make a new thread and record with the first track
-					new Thread(new Runnable() {
-				           public void run() {
-				             
-				        	 // Record audio
-				           	trackList.get(eventIndex).
-				           		recordAudio(DIRECTORY
-				           				+ recordingFile + EXTENTION);
-				           }      
-					}).start();
-					
-					// Modify record button state
-					recordButtonList.get(eventIndex).setText("Stop");
-					recordButtonList.get(eventIndex).setBackground(Color.RED);
-
 					// Don't play the track we are recording on
-					playingList.get(eventIndex).setSelected(false);
+					boolean wasPlaying = trackModel.isPlaying(eventIndex);
+					setPlaying(eventIndex, false);
 					
-					// Start playback
+					// Start playback first, so the take can start on
+					// one of its loops
 					if (choice == 0) {
 						playButton.doClick();
 					}
+					
+					// Count in on the engine's clock
+					MixEngine engine = MixEngine.shared();
+					try {
+						engine.start();
+					}
+					catch (LineUnavailableException ex) {
+						JOptionPane.showMessageDialog(null, 
+								"Line Unavaliable.");
+						ex.printStackTrace();
+						
+						// Undo the recording state, we can't count in
+						recordingIndex = -1;
+						if (choice == 0 && playManager.isPlaying()) {
+							playButton.doClick();
+						}
+						setPlaying(eventIndex, wasPlaying);
+						refreshTracks();
+						return;
+					}
+					long beat = Math.round(delay * MixEngine.SAMPLE_RATE);
+					long start = engine.getFrame() + Transport.LEAD_FRAMES 
+							+ COUNT_IN * beat;
+					if (choice == 0 && playManager.controller != null) {
+						start = playManager.controller.boundaryAfter(start);
+					}
+					Sample click = getClick();
+					if (click != null) {
+						for (int i = COUNT_IN; i > 0; i--) {
+							engine.queue(click, start - i * beat);
+						}
+					}
+					
+					// Record with the track, starting after the last click
+					trackModel.getTrack(eventIndex).recordAudio(DIRECTORY 
+							+ recordingFile + EXTENTION, start, loopLength);
+					
+					// Modify record button state
 					playButton.setEnabled(false);
-					recordButtonList.get(eventIndex).setEnabled(true);
-					for (JCheckBox c : playingList) c.setEnabled(false);
+					refreshTracks();
 					
 					// So we can stop it with space
-					recordButtonList.get(eventIndex).requestFocus();
+					TrackView view = viewOf(eventIndex);
+					if (view != null) view.recordButton.requestFocus();
 				}
 			}
-			else {
-				
-				// End recording state
-				recording = false;
-
-				// Stop the main track playback if we started it
-				if (choice == 0) {
-					playButton.setEnabled(true);
-					playButton.doClick();
-				}
-				
-				// Stop recording
-				trackList.get(eventIndex).stopRecording();
-				
-				// Set file
-				File fullPath = new File(DIRECTORY + recordingFile 
-						+ EXTENTION);
-				trackList.get(eventIndex).setTrack(fullPath);
-			
-				// Turn back into Record button
-				recordButtonList.get(eventIndex).setText("Record");
-				setPatternButtonList.get(eventIndex).setEnabled(true);
-				recordButtonList.get(eventIndex).setBackground(Color.WHITE);
+			else if (!finishing) {
+				// Finish the take in the background, it may have to
+				// record to the end of its first loop
+				final int index = recordingIndex;
+				final AudioTrack track = trackModel.getTrack(index);
+				finishing = true;
+				refreshTracks();
 				
-
-				// Modify track buttons
-				playingList.get(eventIndex).setEnabled(true);
-				playingList.get(eventIndex).setSelected(true);				
-				
-				// Modify button states			
-				file.setEnabled(true);
-				for (AudioTrack t : trackList) {
-					int index = trackList.indexOf(t);
-					
-					importButtonList.get(index).setEnabled(true);
-					recordButtonList.get(index).setEnabled(true);
-	
-					// Theses turn back on for all with tracks
-					if (t.track != null) {
-						isMasterList.get(index).setEnabled(true);
-						setPatternButtonList.get(index).setEnabled(true);
-						playingList.get(index).setEnabled(true);
-						playingList.get(index).setSelected(true);
-						// Don't enable for main track
-						occButtonList.get(index).setEnabled(eventIndex 
-								!= mainTrackIndex);
-						
-					}				
-				}
-				// this can now be the master list
-				isMasterList.get(eventIndex).setEnabled(true);
-
-				// We need to prepare
-				prepareButton.setEnabled(true);
-				playButton.setEnabled(false);
-				
-				// If this is the master track, set the loop duration to
-				// its length
-				if (eventIndex == mainTrackIndex) {
-					loopLength = calculateLength
-							(trackList.get(mainTrackIndex).trackDir);
-				}
-				
-				setLoopLength.setText("Set Loop Length (Current: " 
-						+ loopFormat.format(loopLength) + ")");
-				
-				// Update the name
-				trackBorderList.get(eventIndex).setTitle(recordingFile 
-						+ EXTENTION);
-							
-				// Apply it
-				revalidate();
-				repaint();
+				new Thread(new Runnable() {
+					public void run() {
+						track.stopRecording();
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								finishRecording(index);
+							}
+						});
+					}
+				}, "Easy Loop finish take").start();
 			}
 		}
 			
@@ -1701,9 +1960,10 @@ public class EasyLoop extends JFrame implements ActionListener {
 			
 			if (pass) { 
 				// Get the last digit of the event and make it the index				
-				maxList.set(eventIndex, Integer.parseInt(newReps));
-				occList.get(eventIndex).setText("Rate of Occurrence: " 
-						+ newReps);
+				trackModel.setRate(eventIndex, Integer.parseInt(newReps));
+				playManager.post(TrackCommand.rate(eventIndex, 
+						trackModel.getRate(eventIndex)));
+				showTrack(eventIndex);
 			}
 		}
 		
@@ -1715,6 +1975,8 @@ public class EasyLoop extends JFrame implements ActionListener {
 					JOptionPane.YES_NO_OPTION);
 			
 			if (relpy == JOptionPane.YES_OPTION) {
+				// Hand the output line back so it isn't counted as leaked
+				MixEngine.shared().stop();
 				System.exit(-1);
 			}
 		}
@@ -0,0 +1,207 @@
+/**
+ * Counts how the looper is keeping up, for watching over JMX. The
+ * counts kept while playing are recorded by the transport and the
+ * tracks as they go, without allocating or locking. Everything else
+ * is asked for from where it is kept when it is read
+ *
+ * Registered as easyLoop:type=Engine the first time it is used
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class EngineMetrics implements EngineMetricsMBean {
+
+	/**
+	 * Name it is registered under
+	 */
+	public final static String NAME = "easyLoop:type=Engine";
+
+	/**
+	 * The one every part of the program records to
+	 */
+	private static EngineMetrics shared;
+
+	/**
+	 * How late each loop was handed to the tracks, in frames
+	 */
+	private final Histogram loopLateness = new Histogram();
+
+	/**
+	 * How long each Prepare took, in nanoseconds
+	 */
+	private final Histogram prepareTimes = new Histogram();
+	private volatile long lastPrepare = 0;
+
+	/**
+	 * Tracks playing, or last played
+	 */
+	private volatile AudioTrack[] tracks = new AudioTrack[0];
+
+	/**
+	 * The shared metrics, registering them over JMX the first time
+	 *
+	 * @return metrics
+	 */
+	public static synchronized EngineMetrics shared () {
+		if (shared == null) {
+			shared = new EngineMetrics();
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(
+						shared, new ObjectName(NAME));
+			}
+			catch (JMException e) {
+				// Still counts, just can't be watched
+				e.printStackTrace();
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Counts a loop being handed to the tracks
+	 *
+	 * @param lateness frames after it was due
+	 */
+	public void loopStarted (long lateness) {
+		loopLateness.record(lateness);
+	}
+
+	/**
+	 * Counts a Prepare finishing
+	 *
+	 * @param nanos how long it took
+	 */
+	public void prepared (long nanos) {
+		prepareTimes.record(nanos);
+		lastPrepare = nanos;
+	}
+
+	/**
+	 * Sets the tracks whose notes are counted
+	 *
+	 * @param tracks tracks starting to play
+	 */
+	public void setTracks (AudioTrack[] tracks) {
+		this.tracks = tracks;
+	}
+
+	private static double framesToMillis (double frames) {
+		return frames * 1000.0 / MixEngine.SAMPLE_RATE;
+	}
+
+	private static double nanosToMillis (double nanos) {
+		return nanos / 1e6;
+	}
+
+	public long getLoops () {
+		return loopLateness.getCount();
+	}
+
+	public double getLoopLatenessMeanMillis () {
+		return framesToMillis(loopLateness.getMean());
+	}
+
+	public double getLoopLateness99Millis () {
+		return framesToMillis(loopLateness.getPercentile(0.99));
+	}
+
+	public double getLoopLatenessMaxMillis () {
+		return framesToMillis(loopLateness.getMax());
+	}
+
+	public long getLateNotes () {
+		long late = 0;
+		for (AudioTrack track : tracks) late += track.getLateNotes();
+		return late;
+	}
+
+	public long[] getLateNotesPerTrack () {
+		AudioTrack[] tracks = this.tracks;
+		long[] late = new long[tracks.length];
+		for (int i = 0; i < tracks.length; i ++) {
+			late[i] = tracks[i].getLateNotes();
+		}
+		return late;
+	}
+
+	public long getDroppedNotes () {
+		long dropped = 0;
+		for (AudioTrack track : tracks) dropped += track.getDroppedNotes();
+		return dropped;
+	}
+
+	public long[] getDroppedNotesPerTrack () {
+		AudioTrack[] tracks = this.tracks;
+		long[] dropped = new long[tracks.length];
+		for (int i = 0; i < tracks.length; i ++) {
+			dropped[i] = tracks[i].getDroppedNotes();
+		}
+		return dropped;
+	}
+
+	public long getEngineDropped () {
+		return MixEngine.shared().getDropped();
+	}
+
+	public int getOpenLines () {
+		return LineManager.shared().getOpen();
+	}
+
+	public int getLinesInUse () {
+		return LineManager.shared().getInUse();
+	}
+
+	public long getSamplePoolBytes () {
+		return SamplePool.shared().getBytes();
+	}
+
+	public long getCacheHits () {
+		return RenderCache.shared().getHits();
+	}
+
+	public long getCacheMisses () {
+		return RenderCache.shared().getMisses();
+	}
+
+	public double getCacheHitRate () {
+		long hits = getCacheHits();
+		long all = hits + getCacheMisses();
+		return all == 0 ? 0 : (double) hits / all;
+	}
+
+	public long getPrepares () {
+		return prepareTimes.getCount();
+	}
+
+	public double getLastPrepareMillis () {
+		return nanosToMillis(lastPrepare);
+	}
+
+	public double getPrepareMeanMillis () {
+		return nanosToMillis(prepareTimes.getMean());
+	}
+
+	public double getPrepareMaxMillis () {
+		return nanosToMillis(prepareTimes.getMax());
+	}
+
+	public int getRenderQueueDepth () {
+		return RenderQueue.shared().getQueued();
+	}
+
+	public void reset () {
+		loopLateness.reset();
+		prepareTimes.reset();
+		lastPrepare = 0;
+		for (AudioTrack track : tracks) track.resetNotes();
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * What EngineMetrics shows over JMX, so the looper can be watched in
+ * JConsole while it plays
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+public interface EngineMetricsMBean {
+
+	/**
+	 * Loops started since the last reset
+	 */
+	long getLoops ();
+
+	/**
+	 * How late loops were handed to the tracks, against when they were
+	 * due, in milliseconds
+	 */
+	double getLoopLatenessMeanMillis ();
+	double getLoopLateness99Millis ();
+	double getLoopLatenessMaxMillis ();
+
+	/**
+	 * Notes that started after their loop boundary, every track and
+	 * each track
+	 */
+	long getLateNotes ();
+	long[] getLateNotesPerTrack ();
+
+	/**
+	 * Notes that never played, as nothing was ready or the engine was
+	 * full, every track and each track
+	 */
+	long getDroppedNotes ();
+	long[] getDroppedNotesPerTrack ();
+
+	/**
+	 * Voices the engine has thrown away for being full, including ones
+	 * no track queued
+	 */
+	long getEngineDropped ();
+
+	/**
+	 * Native lines open, and handed out
+	 */
+	int getOpenLines ();
+	int getLinesInUse ();
+
+	/**
+	 * Memory held by shared samples
+	 */
+	long getSamplePoolBytes ();
+
+	/**
+	 * Transpositions found in the render cache, made, and the share found
+	 */
+	long getCacheHits ();
+	long getCacheMisses ();
+	double getCacheHitRate ();
+
+	/**
+	 * How long Prepare took, in milliseconds
+	 */
+	long getPrepares ();
+	double getLastPrepareMillis ();
+	double getPrepareMeanMillis ();
+	double getPrepareMaxMillis ();
+
+	/**
+	 * Transpositions waiting to be made while playing
+	 */
+	int getRenderQueueDepth ();
+
+	/**
+	 * Starts the loop, note and prepare counts again
+	 */
+	void reset ();
+}
@@ -0,0 +1,188 @@
+/**
+ * Fixed size queue of timed voice events, written by the transport
+ * and read by the mix engine
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class EventRing {
+
+	/**
+	 * Start a sample
+	 */
+	public final static byte START = 0;
+
+	/**
+	 * Stop everything an owner is playing
+	 */
+	public final static byte STOP = 1;
+
+	/**
+	 * How long a full ring makes the writer wait before trying again
+	 */
+	public final static long FULL_WAIT = 100000;
+
+	/**
+	 * Event slots, all allocated up front
+	 */
+	private final int mask;
+	private final byte[] types;
+	private final long[] frames;
+	private final Sample[] samples;
+	private final Object[] owners;
+
+	/**
+	 * Next slot to read, only moved by the reader
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * Next slot to write, only moved by the writer
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Creates a ring
+	 *
+	 * @param capacity slots, rounded up to a power of two
+	 */
+	public EventRing (int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		mask = size - 1;
+		types = new byte[size];
+		frames = new long[size];
+		samples = new Sample[size];
+		owners = new Object[size];
+	}
+
+	/**
+	 * Adds an event if there is room. Only one thread may write
+	 *
+	 * @param type START or STOP
+	 * @param frame engine frame it happens on
+	 * @param sample sample to start, or null
+	 * @param owner track the event belongs to
+	 * @return false if the ring is full
+	 */
+	public boolean offer (byte type, long frame, Sample sample, Object owner) {
+		long t = tail.get();
+		if (t - head.get() > mask) return false;
+
+		int i = (int) t & mask;
+		types[i] = type;
+		frames[i] = frame;
+		samples[i] = sample;
+		owners[i] = owner;
+
+		// Publish after the slot is filled
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Adds an event, waiting for room if the ring is full
+	 *
+	 * @param type START or STOP
+	 * @param frame engine frame it happens on
+	 * @param sample sample to start, or null
+	 * @param owner track the event belongs to
+	 */
+	public void put (byte type, long frame, Sample sample, Object owner) {
+		while (!offer(type, frame, sample, owner)) {
+			LockSupport.parkNanos(FULL_WAIT);
+		}
+	}
+
+	/**
+	 * Whether the next event happens before a frame. Only one
+	 * thread may read
+	 *
+	 * @param frame frame to check against
+	 * @return true if there is an event to take
+	 */
+	public boolean due (long frame) {
+		long h = head.get();
+		return h < tail.get() && frames[(int) h & mask] < frame;
+	}
+
+	/**
+	 * Type of the next event
+	 *
+	 * @return START or STOP
+	 */
+	public byte type () {
+		return types[(int) head.get() & mask];
+	}
+
+	/**
+	 * Frame of the next event
+	 *
+	 * @return engine frame
+	 */
+	public long frame () {
+		return frames[(int) head.get() & mask];
+	}
+
+	/**
+	 * Sample of the next event
+	 *
+	 * @return sample or null
+	 */
+	public Sample sample () {
+		return samples[(int) head.get() & mask];
+	}
+
+	/**
+	 * Owner of the next event
+	 *
+	 * @return owner
+	 */
+	public Object owner () {
+		return owners[(int) head.get() & mask];
+	}
+
+	/**
+	 * Moves past the next event
+	 */
+	public void pop () {
+		long h = head.get();
+		int i = (int) h & mask;
+
+		// Don't keep samples alive from old slots
+		samples[i] = null;
+		owners[i] = null;
+		head.lazySet(h + 1);
+	}
+
+	/**
+	 * Throws away every event. Only safe while neither side is running
+	 */
+	public void clear () {
+		while (head.get() < tail.get()) pop();
+	}
+
+	/**
+	 * Events waiting to be read
+	 *
+	 * @return count
+	 */
+	public int size () {
+		return (int) (tail.get() - head.get());
+	}
+
+	/**
+	 * Slots in the ring
+	 *
+	 * @return capacity
+	 */
+	public int capacity () {
+		return mask + 1;
+	}
+}
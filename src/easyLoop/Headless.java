@@ -0,0 +1,172 @@
+/**
+ * Runs a saved session from the command line, without any windows
+ *
+ * Usage:
+ *   Headless session.els play [loops]
+ *   Headless session.els render loops output.wav [stem folder]
+ *
+ * The session can also be a bundle folder
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import javax.sound.sampled.LineUnavailableException;
+
+public class Headless {
+
+	/**
+	 * How often the main thread checks on playback, in milliseconds
+	 */
+	public final static int POLL = 100;
+
+	/**
+	 * Loads, prepares and plays or renders a session
+	 *
+	 * @param args command line Args
+	 */
+	public static void main (String[] args) {
+		// Never show a dialog
+		System.setProperty("java.awt.headless", "true");
+		Messages.console = true;
+
+		boolean render = args.length > 3 && args[1].equals("render");
+		if (args.length < 2 || !(render || args[1].equals("play"))) {
+			usage();
+			return;
+		}
+
+		// Loops to play or render, playing goes on until stopped
+		long loops = Long.MAX_VALUE;
+		try {
+			if (args.length > 2) loops = Long.parseLong(args[2]);
+		}
+		catch (NumberFormatException e) {
+			loops = -1;
+		}
+		if (loops < 0 || render && loops > Integer.MAX_VALUE) {
+			System.err.println("Bad loop count: " + args[2]);
+			usage();
+			System.exit(-1);
+		}
+
+		Session session;
+		ArrayList<AudioTrack> tracks;
+		try {
+			session = SessionBundle.open(args[0]);
+			tracks = prepare(session);
+		}
+		catch (IOException | NumberFormatException
+				| NullPointerException e) {
+			System.err.println("Error with loading file.");
+			e.printStackTrace();
+			System.exit(-1);
+			return;
+		}
+		catch (InterruptedException e) {
+			System.err.println("Interrupted.");
+			System.exit(-1);
+			return;
+		}
+
+		try {
+			if (render) {
+				new OfflineRenderer(tracks, session.maxList,
+						session.currentList, session.playingList,
+						session.loopLength).render((int) loops,
+						new File(args[3]),
+						args.length > 4 ? new File(args[4]) : null,
+						new File(args[3]).getName().replace(".wav", ""));
+			}
+			else {
+				play(session, tracks, loops);
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Error with rendering.");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+		catch (InterruptedException e) {
+			System.err.println("Interrupted.");
+			System.exit(-1);
+		}
+		catch (LineUnavailableException e) {
+			System.err.println("Line Unavaliable.");
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Prints how to use the command line
+	 */
+	private static void usage () {
+		System.err.println("Usage: Headless session.els play [loops]");
+		System.err.println("       Headless session.els render loops "
+				+ "output.wav [stem folder]");
+	}
+
+	/**
+	 * Creates the tracks in a session and prepares their patterns
+	 * on every processor
+	 *
+	 * @param session session to prepare
+	 * @return prepared tracks
+	 * @throws IOException while creating transposed files
+	 * @throws InterruptedException while creating transposed files
+	 */
+	static ArrayList<AudioTrack> prepare (Session session)
+			throws IOException, InterruptedException {
+		new File(Session.TRACK_DIRECTORY).mkdirs();
+
+		ArrayList<AudioTrack> tracks = new ArrayList<AudioTrack>();
+		for (int i = 0; i < session.trackNumber; i ++) {
+			AudioTrack t = new AudioTrack();
+			t.play = session.playingList.get(i);
+			if (session.fileList.get(i) != null) {
+				t.setTrack(new File(session.fileList.get(i)));
+			}
+			tracks.add(t);
+		}
+		new PrepareJob(tracks, session.patternList).start().finish();
+		return tracks;
+	}
+
+	/**
+	 * Plays the tracks live
+	 *
+	 * @param session session to play
+	 * @param tracks prepared tracks
+	 * @param loops loops to play before stopping
+	 * @throws LineUnavailableException if there is no line to play on
+	 * @throws InterruptedException if the wait is interrupted
+	 */
+	static void play (Session session, ArrayList<AudioTrack> tracks,
+			long loops) throws LineUnavailableException,
+			InterruptedException {
+		MixEngine engine = MixEngine.shared();
+		engine.start();
+
+		Transport transport = new Transport(engine, session.loopLength,
+				new LoopCounter(tracks, session.maxList,
+						session.currentList));
+		transport.start();
+
+		// Let the last loop play out before stopping
+		long end = loops == Long.MAX_VALUE ? Long.MAX_VALUE
+				: transport.boundary(loops);
+		while (engine.getFrame() < end) {
+			Thread.sleep(POLL);
+		}
+
+		transport.stop();
+		engine.stop();
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Counts values into buckets that double in size, so recording one is
+ * a few atomic adds and never allocates. Any thread may record, and
+ * read while others record. Percentiles are rounded up to the top of
+ * their bucket, so they are at most twice the true value
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class Histogram {
+
+	/**
+	 * Bucket 0 holds 0, bucket i holds 2^(i-1) up to 2^i - 1
+	 */
+	public final static int BUCKETS = 64;
+
+	/**
+	 * Values counted in each bucket
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Values recorded, their total and the largest
+	 */
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Counts a value. Negative values count as 0
+	 *
+	 * @param value value to count
+	 */
+	public void record (long value) {
+		if (value < 0) value = 0;
+		buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long largest;
+		while (value > (largest = max.get())
+				&& !max.compareAndSet(largest, value));
+	}
+
+	/**
+	 * Values recorded
+	 *
+	 * @return count
+	 */
+	public long getCount () {
+		return count.get();
+	}
+
+	/**
+	 * Largest value recorded
+	 *
+	 * @return max, 0 if there are none
+	 */
+	public long getMax () {
+		return max.get();
+	}
+
+	/**
+	 * Average value recorded
+	 *
+	 * @return mean, 0 if there are none
+	 */
+	public double getMean () {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Value that a share of the values are at or under
+	 *
+	 * @param fraction share, 0.99 for the 99th percentile
+	 * @return top of the bucket it falls in, no more than the max
+	 */
+	public long getPercentile (double fraction) {
+		long n = count.get();
+		if (n == 0) return 0;
+
+		long wanted = (long) Math.ceil(fraction * n);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i ++) {
+			seen += buckets.get(i);
+			if (seen >= wanted) {
+				long top = i == 0 ? 0 : (1L << i) - 1;
+				return Math.min(top, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets everything recorded
+	 */
+	public void reset () {
+		for (int i = 0; i < BUCKETS; i ++) buckets.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
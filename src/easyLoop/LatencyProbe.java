@@ -0,0 +1,419 @@
+/**
+ * Measures how long it takes from the transport firing a loop to the
+ * loop being heard, for engines with different buffer sizes. Each
+ * loop the transport schedules a click, the way the tracks schedule
+ * their notes, and the engine mixes into a virtual line that plays
+ * its buffer back in real time, as a sound card would. Clicks are
+ * found in the mixed audio, so the time each was heard is known to
+ * the frame.
+ *
+ * Usage:
+ *   LatencyProbe [-markers n] [-loop seconds] [-voices n] [BxL ...]
+ *
+ * where each BxL is an engine of B frames a block and L blocks of
+ * line buffer, and -voices keeps that many silent voices mixing
+ * alongside the clicks. For every engine it prints
+ *   fire   time from the transport firing to the click being heard
+ *   mix    time from the click's block being mixed to it being heard
+ *   jitter spread of the fire time, and how far the gaps between
+ *          clicks were from the gaps they were scheduled with
+ *   late   clicks heard after the frame they were scheduled on
+ *   under  times the line ran dry waiting for the engine
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+public class LatencyProbe implements Transport.Listener, Runnable {
+
+	/**
+	 * Engines measured when none are given, frames a block by blocks
+	 * of line buffer
+	 */
+	public final static int[][] CONFIGS = {
+		{256, 2}, {256, 4}, {512, 2}, {512, 4}, {512, 8}, {1024, 4}
+	};
+
+	/**
+	 * Clicks heard for each engine, unless told otherwise
+	 */
+	public final static int MARKERS = 40;
+
+	/**
+	 * Seconds between clicks, unless told otherwise
+	 */
+	public final static double LOOP_LENGTH = 0.25;
+
+	/**
+	 * Clicks fired as the transport starts, before it is a full
+	 * lookahead ahead. They are heard sooner than the rest, so they
+	 * are left out of the results
+	 */
+	public final static int SKIPPED = Transport.LOOKAHEAD - 1;
+
+	/**
+	 * Length of a click in frames
+	 */
+	public final static int MARK_FRAMES = 32;
+
+	/**
+	 * Level a click is found at. Nothing else is loud enough
+	 */
+	public final static int THRESHOLD = Short.MAX_VALUE / 2;
+
+	/**
+	 * How often the main thread checks on the clicks, in milliseconds
+	 */
+	public final static int POLL = 50;
+
+	/**
+	 * Click scheduled each loop
+	 */
+	private final static Sample MARKER = marker();
+
+	/**
+	 * Engine being measured, mixed only by this
+	 */
+	private final MixEngine engine;
+
+	/**
+	 * Clicks to hear and silent voices to keep mixing
+	 */
+	private final int markers;
+	private final int voices;
+
+	/**
+	 * What the silent voices play, a loop of nothing
+	 */
+	private final Sample silence;
+
+	/**
+	 * Owner of the silent voices, so they can be stopped each loop
+	 */
+	private final Object load = new Object();
+
+	/**
+	 * When each click was fired and the frame it was scheduled on
+	 */
+	private final long[] fired;
+	private final long[] scheduled;
+
+	/**
+	 * Frame each click was heard on, when it was heard and when the
+	 * block it is in was mixed
+	 */
+	private final long[] heard;
+	private final long[] heardAt;
+	private final long[] mixedAt;
+	private volatile int heardCount = 0;
+
+	/**
+	 * Times the virtual line ran dry
+	 */
+	private int underruns = 0;
+
+	/**
+	 * Virtual line thread state
+	 */
+	private Thread thread;
+	private volatile boolean running = false;
+
+	/**
+	 * Sets up a measurement
+	 *
+	 * @param engine engine to measure
+	 * @param loopLength seconds between clicks
+	 * @param markers clicks to hear
+	 * @param voices silent voices to mix alongside them
+	 */
+	public LatencyProbe (MixEngine engine, double loopLength, int markers,
+			int voices) {
+		this.engine = engine;
+		this.markers = markers;
+		this.voices = voices;
+		silence = new Sample(ShortBuffer.allocate((int) Math.round(
+				loopLength * MixEngine.SAMPLE_RATE) * MixEngine.CHANNELS));
+		fired = new long[markers];
+		scheduled = new long[markers];
+		heard = new long[markers];
+		heardAt = new long[markers];
+		mixedAt = new long[markers];
+	}
+
+	/**
+	 * Measures each engine given, or the usual ones, and prints what
+	 * it found
+	 *
+	 * @param args command line Args
+	 */
+	public static void main (String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		int markers = MARKERS;
+		double loopLength = LOOP_LENGTH;
+		int voices = 0;
+		int[][] configs = new int[args.length][];
+		int count = 0;
+
+		try {
+			for (int i = 0; i < args.length; i ++) {
+				if (args[i].equals("-markers")) {
+					markers = Integer.parseInt(args[++ i]);
+				}
+				else if (args[i].equals("-loop")) {
+					loopLength = Double.parseDouble(args[++ i]);
+				}
+				else if (args[i].equals("-voices")) {
+					voices = Integer.parseInt(args[++ i]);
+				}
+				else {
+					String[] sizes = args[i].split("x");
+					int blockFrames = Integer.parseInt(sizes[0]);
+					int lineBlocks = Integer.parseInt(sizes[1]);
+
+					// An engine needs a block to mix and a line to play it
+					if (blockFrames < 1 || lineBlocks < 1) {
+						usage();
+						return;
+					}
+					configs[count ++] = new int[] {blockFrames, lineBlocks};
+				}
+			}
+		}
+		catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			usage();
+			return;
+		}
+		// Each loop's silent voices start as the last loop's stop
+		if (markers < SKIPPED + 2 || loopLength <= 0 || voices < 0
+				|| voices > (MixEngine.MAX_VOICES - 1) / 2) {
+			usage();
+			return;
+		}
+		configs = count == 0 ? CONFIGS : Arrays.copyOf(configs, count);
+
+		System.out.println(String.format("%d clicks %.3f s apart, "
+				+ "%d silent voices. Times in ms", markers, loopLength,
+				voices));
+		System.out.println(String.format("%-10s %7s %7s %7s %7s %7s %7s "
+				+ "%7s %7s %5s %5s", "engine", "buffer", "fire", "fire99",
+				"mix", "mix99", "jitter", "gap99", "gapmax", "late",
+				"under"));
+
+		for (int[] config : configs) {
+			LatencyProbe probe = new LatencyProbe(
+					new MixEngine(config[0], config[1]), loopLength,
+					markers, voices);
+			try {
+				probe.measure(loopLength);
+			}
+			catch (InterruptedException e) {
+				System.err.println("Interrupted.");
+				System.exit(-1);
+			}
+			System.out.println(probe.report());
+		}
+	}
+
+	/**
+	 * Prints how to use the command line
+	 */
+	private static void usage () {
+		System.err.println("Usage: LatencyProbe [-markers n] "
+				+ "[-loop seconds] [-voices n] [BxL ...]");
+		System.err.println("       B frames a block, L blocks of line "
+				+ "buffer, for example 512x4");
+	}
+
+	/**
+	 * A full scale click, long enough to be found but short enough
+	 * never to overlap the next
+	 */
+	private static Sample marker () {
+		ShortBuffer data = ShortBuffer.allocate(MARK_FRAMES
+				* MixEngine.CHANNELS);
+		while (data.hasRemaining()) data.put(Short.MAX_VALUE);
+		data.flip();
+		return new Sample(data);
+	}
+
+	/**
+	 * Plays clicks through the engine until they have all been heard,
+	 * or the last should have been heard a second ago
+	 *
+	 * @param loopLength seconds between clicks
+	 * @throws InterruptedException if the wait is interrupted
+	 */
+	public void measure (double loopLength) throws InterruptedException {
+		running = true;
+		thread = new Thread(this, "Easy Loop virtual line");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+
+		Transport transport = new Transport(engine, loopLength, this);
+		transport.start();
+
+		long end = transport.boundary(markers) + (long) MixEngine.SAMPLE_RATE;
+		while (heardCount < markers && engine.getFrame() < end) {
+			Thread.sleep(POLL);
+		}
+
+		transport.stop();
+		running = false;
+		thread.join();
+		engine.clear();
+	}
+
+	/**
+	 * Fires a click, and restarts the silent voices, on each loop
+	 */
+	public void loop (long loop, long frame) {
+		if (loop >= markers) return;
+
+		fired[(int) loop] = System.nanoTime();
+		scheduled[(int) loop] = frame;
+		engine.schedule(MARKER, frame, this);
+
+		if (voices == 0) return;
+		engine.scheduleStop(frame, load);
+		for (int i = 0; i < voices; i ++) {
+			engine.schedule(silence, frame, load);
+		}
+	}
+
+	/**
+	 * Virtual line thread. Mixes a block, then waits for room in the
+	 * buffer as a line's write would, playing each block as soon as the
+	 * one before it ends. A block that comes after the one before it
+	 * has ended finds the line dry, and starts late
+	 */
+	public void run () {
+		int blockFrames = engine.getBlockFrames();
+		int lineBlocks = engine.getLineBlocks();
+		long blockNanos = Math.round(blockFrames * 1e9
+				/ MixEngine.SAMPLE_RATE);
+
+		byte[] block = new byte[blockFrames * MixEngine.FRAME_SIZE];
+
+		// When each block in the line stops playing
+		long[] ends = new long[lineBlocks];
+		long end = System.nanoTime();
+		boolean clicking = false;
+
+		for (long written = 0; running; written ++) {
+			long blockStart = engine.getFrame();
+			engine.render(block);
+			long mixed = System.nanoTime();
+
+			// Room comes when the oldest block has played
+			int slot = (int) (written % lineBlocks);
+			if (written >= lineBlocks) {
+				long wait;
+				while ((wait = ends[slot] - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+				}
+			}
+
+			long now = System.nanoTime();
+			if (written > 0 && now > end) underruns ++;
+			long start = Math.max(end, now);
+			end = start + blockNanos;
+			ends[slot] = end;
+
+			// Find where clicks start, by the left channel
+			for (int f = 0, b = 0; f < blockFrames; f ++,
+					b += MixEngine.FRAME_SIZE) {
+				int s = (short) ((block[b + 1] << 8) | (block[b] & 0xff));
+				boolean loud = s >= THRESHOLD;
+				if (loud && !clicking && heardCount < markers) {
+					int n = heardCount;
+					heard[n] = blockStart + f;
+					heardAt[n] = start + Math.round(f * 1e9
+							/ MixEngine.SAMPLE_RATE);
+					mixedAt[n] = mixed;
+					heardCount = n + 1;
+				}
+				clicking = loud;
+			}
+		}
+	}
+
+	/**
+	 * One line of results, the times in milliseconds
+	 *
+	 * @return the engine's results
+	 */
+	public String report () {
+		int heardCount = this.heardCount;
+		int n = heardCount - SKIPPED;
+		String name = engine.getBlockFrames() + "x" + engine.getLineBlocks();
+		double buffer = engine.getBlockFrames() * engine.getLineBlocks()
+				* 1000 / MixEngine.SAMPLE_RATE;
+		if (n < 2) {
+			return String.format("%-10s %7.2f heard %d of %d clicks", name,
+					buffer, heardCount, markers);
+		}
+
+		long[] fire = new long[n];
+		long[] mix = new long[n];
+		long[] gap = new long[n - 1];
+		int late = 0;
+		for (int i = 0; i < n; i ++) {
+			int c = SKIPPED + i;
+			fire[i] = heardAt[c] - fired[c];
+			mix[i] = heardAt[c] - mixedAt[c];
+			if (heard[c] != scheduled[c]) late ++;
+			if (i > 0) {
+				long expected = Math.round((scheduled[c] - scheduled[c - 1])
+						* 1e9 / MixEngine.SAMPLE_RATE);
+				gap[i - 1] = Math.abs(heardAt[c] - heardAt[c - 1] - expected);
+			}
+		}
+
+		String line = String.format("%-10s %7.2f %7.2f %7.2f %7.2f %7.2f "
+				+ "%7.3f %7.3f %7.3f %5d %5d", name, buffer, millis(mean(fire)),
+				millis(percentile(fire, 0.99)), millis(mean(mix)),
+				millis(percentile(mix, 0.99)), millis(deviation(fire)),
+				millis(percentile(gap, 0.99)), millis(percentile(gap, 1)),
+				late, underruns);
+		if (heardCount < markers) {
+			line += " heard " + heardCount + " of " + markers;
+		}
+		return line;
+	}
+
+	private static double millis (double nanos) {
+		return nanos / 1e6;
+	}
+
+	private static double mean (long[] values) {
+		double sum = 0;
+		for (long v : values) sum += v;
+		return sum / values.length;
+	}
+
+	private static double deviation (long[] values) {
+		double mean = mean(values);
+		double sum = 0;
+		for (long v : values) sum += (v - mean) * (v - mean);
+		return Math.sqrt(sum / values.length);
+	}
+
+	/**
+	 * Smallest value at least a fraction of the values are below
+	 */
+	private static double percentile (long[] values, double fraction) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int i = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+	}
+}
@@ -0,0 +1,291 @@
+/**
+ * Opens, reuses and closes every native audio line the program uses
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+
+public class LineManager {
+
+	/**
+	 * Most idle lines kept open for each kind of line
+	 */
+	public final static int MAX_IDLE = 2;
+
+	/**
+	 * Manager shared by the whole program
+	 */
+	private static LineManager shared;
+
+	/**
+	 * Idle open lines by kind
+	 */
+	private final HashMap<String, ArrayDeque<DataLine>> idle =
+			new HashMap<String, ArrayDeque<DataLine>>();
+
+	/**
+	 * Lines handed out, and the kind they were opened as
+	 */
+	private final IdentityHashMap<DataLine, String> inUse =
+			new IdentityHashMap<DataLine, String>();
+
+	/**
+	 * Statistics
+	 */
+	private int open = 0;
+	private long opened = 0;
+	private long reused = 0;
+	private long leaked = 0;
+
+	/**
+	 * The manager used by the program, closes every line on exit
+	 *
+	 * @return shared manager
+	 */
+	public static synchronized LineManager shared () {
+		if (shared == null) {
+			shared = new LineManager();
+
+			final LineManager manager = shared;
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					manager.closeAll();
+					if (manager.getLeaked() > 0) {
+						System.err.println(manager.report());
+					}
+				}
+			}, "Easy Loop line cleanup"));
+		}
+		return shared;
+	}
+
+	/**
+	 * Kind of line, lines of the same kind can be swapped
+	 */
+	private static String kindOf (Class<?> type, AudioFormat format,
+			int bufferSize) {
+		return type.getName() + " " + format + " " + bufferSize;
+	}
+
+	/**
+	 * Gets an open source line, reusing an idle one if possible
+	 *
+	 * @param format format of the line
+	 * @param bufferSize buffer in bytes
+	 * @return an open but stopped line
+	 * @throws LineUnavailableException if no line can be opened
+	 */
+	public SourceDataLine acquireSource (AudioFormat format, int bufferSize)
+			throws LineUnavailableException {
+		return (SourceDataLine) acquire(SourceDataLine.class, format,
+				bufferSize);
+	}
+
+	/**
+	 * Gets an open capture line, reusing an idle one if possible
+	 *
+	 * @param format format of the line
+	 * @param bufferSize buffer in bytes
+	 * @return an open but stopped line
+	 * @throws LineUnavailableException if no line can be opened
+	 */
+	public TargetDataLine acquireTarget (AudioFormat format, int bufferSize)
+			throws LineUnavailableException {
+		return (TargetDataLine) acquire(TargetDataLine.class, format,
+				bufferSize);
+	}
+
+	/**
+	 * Gets an open line of any kind
+	 *
+	 * @param type SourceDataLine or TargetDataLine
+	 * @param format format of the line
+	 * @param bufferSize buffer in bytes
+	 * @return an open but stopped line
+	 * @throws LineUnavailableException if no line can be opened
+	 */
+	public DataLine acquire (Class<? extends DataLine> type,
+			AudioFormat format, int bufferSize)
+			throws LineUnavailableException {
+		String kind = kindOf(type, format, bufferSize);
+
+		synchronized (this) {
+			ArrayDeque<DataLine> lines = idle.get(kind);
+			while (lines != null && !lines.isEmpty()) {
+				DataLine line = lines.poll();
+
+				// Somebody closed it behind our back
+				if (!line.isOpen()) {
+					open --;
+					leaked ++;
+					continue;
+				}
+
+				inUse.put(line, kind);
+				reused ++;
+				return line;
+			}
+		}
+
+		// Open outside the lock, it can be slow
+		DataLine line = (DataLine) AudioSystem.getLine(
+				new DataLine.Info(type, format, bufferSize));
+		if (line instanceof SourceDataLine) {
+			((SourceDataLine) line).open(format, bufferSize);
+		}
+		else if (line instanceof TargetDataLine) {
+			((TargetDataLine) line).open(format, bufferSize);
+		}
+		else {
+			line.open();
+		}
+
+		synchronized (this) {
+			inUse.put(line, kind);
+			open ++;
+			opened ++;
+		}
+		return line;
+	}
+
+	/**
+	 * Opens lines ahead of time so the first acquire doesn't wait
+	 *
+	 * @param type kind of line
+	 * @param format format of the line
+	 * @param bufferSize buffer in bytes
+	 * @param count how many to have idle
+	 * @throws LineUnavailableException if no line can be opened
+	 */
+	public void preopen (Class<? extends DataLine> type, AudioFormat format,
+			int bufferSize, int count) throws LineUnavailableException {
+		ArrayList<DataLine> lines = new ArrayList<DataLine>();
+		for (int i = 0; i < Math.min(count, MAX_IDLE); i ++) {
+			lines.add(acquire(type, format, bufferSize));
+		}
+		for (DataLine line : lines) release(line);
+	}
+
+	/**
+	 * Gives a line back. It is stopped and kept open for the next
+	 * acquire, or closed if enough of its kind are idle
+	 *
+	 * @param line line from acquire
+	 */
+	public void release (DataLine line) {
+		String kind;
+		synchronized (this) {
+			kind = inUse.remove(line);
+		}
+		if (kind == null) return;
+
+		line.stop();
+		line.flush();
+
+		synchronized (this) {
+			ArrayDeque<DataLine> lines = idle.get(kind);
+			if (lines == null) {
+				lines = new ArrayDeque<DataLine>();
+				idle.put(kind, lines);
+			}
+			if (line.isOpen() && lines.size() < MAX_IDLE) {
+				lines.add(line);
+				return;
+			}
+		}
+		closeLine(line);
+	}
+
+	/**
+	 * Closes a line for good
+	 *
+	 * @param line line from acquire
+	 */
+	public void close (DataLine line) {
+		synchronized (this) {
+			if (inUse.remove(line) == null) return;
+		}
+		closeLine(line);
+	}
+
+	/**
+	 * Closes a line and forgets it
+	 */
+	private void closeLine (DataLine line) {
+		line.stop();
+		line.close();
+		synchronized (this) {
+			open --;
+		}
+	}
+
+	/**
+	 * Closes every line. Lines still handed out count as leaked
+	 */
+	public void closeAll () {
+		ArrayList<DataLine> lines = new ArrayList<DataLine>();
+		synchronized (this) {
+			leaked += inUse.size();
+			lines.addAll(inUse.keySet());
+			inUse.clear();
+			for (ArrayDeque<DataLine> kind : idle.values()) {
+				lines.addAll(kind);
+			}
+			idle.clear();
+		}
+		for (DataLine line : lines) closeLine(line);
+	}
+
+	/**
+	 * Native lines currently open, idle or not
+	 *
+	 * @return open lines
+	 */
+	public synchronized int getOpen () {
+		return open;
+	}
+
+	/**
+	 * Lines currently handed out
+	 *
+	 * @return lines in use
+	 */
+	public synchronized int getInUse () {
+		return inUse.size();
+	}
+
+	/**
+	 * Lines that were never given back, or closed by someone else
+	 *
+	 * @return leaked lines
+	 */
+	public synchronized long getLeaked () {
+		return leaked;
+	}
+
+	/**
+	 * Summary of line usage
+	 *
+	 * @return readable report
+	 */
+	public synchronized String report () {
+		return "Lines open: " + open + ", in use: " + inUse.size()
+				+ ", opened: " + opened + ", reused: " + reused
+				+ ", leaked: " + leaked;
+	}
+}
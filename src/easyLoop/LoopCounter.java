@@ -0,0 +1,128 @@
+/**
+ * Counts loops for a set of tracks and plays each one when its rate
+ * of occurrence comes up. Live playback, headless playback and renders
+ * all count with this, so they play the same loops
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.util.List;
+
+import javax.swing.JButton;
+
+public class LoopCounter implements Transport.Listener {
+
+	/**
+	 * Tracks to play
+	 */
+	private final AudioTrack[] tracks;
+
+	/**
+	 * Rate of occurrence of each track
+	 */
+	private final int[] max;
+
+	/**
+	 * Current repetition of each track
+	 */
+	private final int[] current;
+
+	/**
+	 * Button to end playback if a track can't play, or null
+	 */
+	private final JButton terminate;
+
+	/**
+	 * Sets up counting from lists, as a session keeps them
+	 *
+	 * @param tracks prepared tracks
+	 * @param maxList rate of occurrence of each track
+	 * @param currentList repetition each track has got to
+	 */
+	public LoopCounter (List<AudioTrack> tracks, List<Integer> maxList,
+			List<Integer> currentList) {
+		this(tracks.toArray(new AudioTrack[tracks.size()]), 
+				toArray(maxList), toArray(currentList), null);
+	}
+
+	/**
+	 * Sets up counting. The arrays are counted in, not copied
+	 *
+	 * @param tracks prepared tracks
+	 * @param max rate of occurrence of each track
+	 * @param current repetition each track has got to
+	 * @param terminate button to end playback on an error, or null
+	 */
+	public LoopCounter (AudioTrack[] tracks, int[] max, int[] current,
+			JButton terminate) {
+		this.tracks = tracks;
+		this.max = max;
+		this.current = current;
+		this.terminate = terminate;
+	}
+
+	/**
+	 * Copies a list of numbers into an array
+	 */
+	private static int[] toArray (List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i ++) array[i] = list.get(i);
+		return array;
+	}
+
+	/**
+	 * Plays the tracks whose turn it is. The first loop plays them all
+	 * and leaves the counts as they were
+	 *
+	 * @param loop number of the loop
+	 * @param frame engine frame the loop starts on
+	 */
+	public void loop (long loop, long frame) {
+		for (int i = 0; i < tracks.length; i ++) {
+			if (loop == 0) {
+				tracks[i].playNext(frame, terminate);
+			}
+			
+			// A rate lowered below the count plays at once
+			else if (current[i] >= max[i]) {
+				current[i] = 1;
+				tracks[i].playNext(frame, terminate);
+			}
+			else current[i] ++;
+		}
+	}
+
+	/**
+	 * Changes how often a track plays, from its next loop
+	 *
+	 * @param track index of the track
+	 * @param rate loops between plays
+	 */
+	public void setRate (int track, int rate) {
+		max[track] = rate;
+	}
+
+	/**
+	 * How often a track plays
+	 *
+	 * @param track index of the track
+	 * @return loops between plays
+	 */
+	public int getRate (int track) {
+		return max[track];
+	}
+
+	/**
+	 * Repetition a track has got to
+	 *
+	 * @param track index of the track
+	 * @return count since it last played
+	 */
+	public int getCount (int track) {
+		return current[track];
+	}
+}
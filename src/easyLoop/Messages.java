@@ -0,0 +1,40 @@
+/**
+ * Tells the user about problems, in a dialog or on the console
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+public class Messages {
+
+	/**
+	 * Set when running without windows
+	 */
+	static boolean console = false;
+
+	/**
+	 * Shows a message. Swing is only loaded when not on the console,
+	 * and messages from other threads are shown on the swing thread
+	 *
+	 * @param message message to show
+	 */
+	public static void show (final String message) {
+		if (console) System.err.println(message);
+		else if (SwingUtilities.isEventDispatchThread()) {
+			JOptionPane.showMessageDialog(null, message);
+		}
+		else {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					JOptionPane.showMessageDialog(null, message);
+				}
+			});
+		}
+	}
+}
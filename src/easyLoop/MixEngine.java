@@ -0,0 +1,467 @@
+/**
+ * Mixes every playing voice into a single output line
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+public class MixEngine implements Runnable {
+
+	/**
+	 * Something voices are queued for that wants to know when one of
+	 * them is thrown away. Told on the mixing thread, so it must not
+	 * block or allocate
+	 */
+	public interface Owner {
+		void dropped ();
+	}
+
+	/**
+	 * Sample rate of the engine
+	 */
+	public final static float SAMPLE_RATE = 44100;
+
+	/**
+	 * Channels of the engine
+	 */
+	public final static int CHANNELS = 2;
+
+	/**
+	 * Bytes per frame of output
+	 */
+	public final static int FRAME_SIZE = CHANNELS * 2;
+
+	/**
+	 * Format everything is mixed in
+	 */
+	public final static AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE,
+			16, CHANNELS, true, false);
+
+	/**
+	 * Frames mixed at a time, unless the engine is made with another
+	 */
+	public final static int BLOCK_FRAMES = 512;
+
+	/**
+	 * Blocks the output line buffers, unless the engine is made with
+	 * another
+	 */
+	public final static int LINE_BLOCKS = 4;
+
+	/**
+	 * Most voices that can sound at once
+	 */
+	public final static int MAX_VOICES = 256;
+
+	/**
+	 * Events the transport can have waiting
+	 */
+	public final static int MAX_EVENTS = 8192;
+
+	/**
+	 * Engine shared by every track
+	 */
+	private static MixEngine shared;
+
+	/**
+	 * Voices currently sounding
+	 */
+	private final Voice[] voices = new Voice[MAX_VOICES];
+	private int voiceCount = 0;
+
+	/**
+	 * Voices for scheduled events, allocated up front
+	 */
+	private final Voice[] spare = new Voice[MAX_VOICES];
+	private int spareCount = 0;
+
+	/**
+	 * Voices waiting to be picked up by the mixer
+	 */
+	private final ConcurrentLinkedQueue<Voice> pending =
+			new ConcurrentLinkedQueue<Voice>();
+
+	/**
+	 * Timed events from the transport
+	 */
+	final EventRing events = new EventRing(MAX_EVENTS);
+
+	/**
+	 * Frames mixed at a time and blocks the line buffers
+	 */
+	private final int blockFrames;
+	private final int lineBlocks;
+
+	/**
+	 * Mix accumulator and output block
+	 */
+	private final int[] mix;
+	private final byte[] block;
+
+	/**
+	 * Frames mixed so far
+	 */
+	private volatile long frame = 0;
+
+	/**
+	 * Voices thrown away because the engine was full
+	 */
+	private volatile long dropped = 0;
+
+	/**
+	 * Output
+	 */
+	private volatile SourceDataLine line;
+	private Thread thread;
+	private volatile boolean running = false;
+
+	/**
+	 * Engine frame and line position when the line was started, to
+	 * tell which frame is being heard
+	 */
+	private volatile long startFrame = 0;
+	private volatile long startPosition = 0;
+
+	/**
+	 * Creates an engine with every voice it needs
+	 */
+	public MixEngine () {
+		this(BLOCK_FRAMES, LINE_BLOCKS);
+	}
+
+	/**
+	 * Creates an engine with its own buffer sizes. Smaller blocks and
+	 * fewer of them are heard sooner, but leave less time to mix each
+	 * one before the line runs dry
+	 *
+	 * @param blockFrames frames mixed at a time
+	 * @param lineBlocks blocks the output line buffers
+	 * @throws IllegalArgumentException if either is less than 1
+	 */
+	public MixEngine (int blockFrames, int lineBlocks) {
+		if (blockFrames < 1 || lineBlocks < 1) {
+			throw new IllegalArgumentException("Bad engine size: " 
+					+ blockFrames + "x" + lineBlocks);
+		}
+		this.blockFrames = blockFrames;
+		this.lineBlocks = lineBlocks;
+		mix = new int[blockFrames * CHANNELS];
+		block = new byte[blockFrames * FRAME_SIZE];
+		while (spareCount < MAX_VOICES) spare[spareCount++] = new Voice();
+	}
+
+	/**
+	 * The engine used for live playback
+	 *
+	 * @return shared engine
+	 */
+	public static synchronized MixEngine shared () {
+		if (shared == null) shared = new MixEngine();
+		return shared;
+	}
+
+	/**
+	 * Opens the output line ahead of time and leaves it idle, so the
+	 * first start doesn't wait on the sound system
+	 *
+	 * @throws LineUnavailableException if there is no line to play on
+	 */
+	public synchronized void preopen () throws LineUnavailableException {
+		if (running) return;
+		LineManager.shared().preopen(SourceDataLine.class, FORMAT,
+				block.length * lineBlocks, 1);
+	}
+
+	/**
+	 * Opens the output line and starts mixing
+	 *
+	 * @throws LineUnavailableException if there is no line to play on
+	 */
+	public synchronized void start () throws LineUnavailableException {
+		if (running) return;
+
+		line = LineManager.shared().acquireSource(FORMAT,
+				block.length * lineBlocks);
+		startFrame = frame;
+		startPosition = line.getLongFramePosition();
+		line.start();
+
+		running = true;
+		thread = new Thread(this, "Easy Loop mixer");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stops mixing, silences every voice and gives the output line back.
+	 * Whatever drives the events has to be stopped first
+	 */
+	public synchronized void stop () {
+		if (!running) return;
+		running = false;
+
+		try {
+			thread.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		LineManager.shared().release(line);
+		line = null;
+
+		clear();
+	}
+
+	/**
+	 * Drops every voice and event. Only safe while nothing is mixing
+	 */
+	void clear () {
+		pending.clear();
+		events.clear();
+		while (voiceCount > 0) finish(voiceCount - 1);
+	}
+
+	/**
+	 * Whether the output is running
+	 *
+	 * @return true if mixing
+	 */
+	public boolean isRunning () {
+		return running;
+	}
+
+	/**
+	 * Mixer thread, blocks on the line to keep time
+	 */
+	public void run () {
+		while (running) {
+			render(block);
+			line.write(block, 0, block.length);
+		}
+	}
+
+	/**
+	 * Queues a sample to start on a frame. Frames that have already
+	 * been mixed start the voice at the beginning of the next block
+	 *
+	 * @param sample sample to play
+	 * @param startFrame frame to start on
+	 * @return the voice, so it can be stopped
+	 */
+	public Voice queue (Sample sample, long startFrame) {
+		return queue(sample, startFrame, null);
+	}
+
+	/**
+	 * Queues a sample to start on a frame from any thread
+	 *
+	 * @param sample sample to play
+	 * @param startFrame frame to start on
+	 * @param owner track the voice belongs to
+	 * @return the voice, so it can be stopped
+	 */
+	public Voice queue (Sample sample, long startFrame, Object owner) {
+		Voice voice = new Voice(sample, startFrame, owner);
+		pending.add(voice);
+		return voice;
+	}
+
+	/**
+	 * Schedules a sample through the event ring. Only the thread
+	 * driving playback may schedule
+	 *
+	 * @param sample sample to play
+	 * @param frame frame to start on
+	 * @param owner track the voice belongs to
+	 */
+	public void schedule (Sample sample, long frame, Object owner) {
+		events.put(EventRing.START, frame, sample, owner);
+	}
+
+	/**
+	 * Schedules everything an owner is playing to stop. Only the
+	 * thread driving playback may schedule
+	 *
+	 * @param frame frame to stop on
+	 * @param owner track to stop
+	 */
+	public void scheduleStop (long frame, Object owner) {
+		events.put(EventRing.STOP, frame, null, owner);
+	}
+
+	/**
+	 * First frame of the next block to be mixed. Voices queued on
+	 * this frame start together
+	 *
+	 * @return frame
+	 */
+	public long getFrame () {
+		return frame;
+	}
+
+	/**
+	 * Frame coming out of the speakers now. Behind getFrame by
+	 * whatever is waiting in the line
+	 *
+	 * @return frame
+	 */
+	public long getPlayedFrame () {
+		SourceDataLine output = line;
+		if (output == null) return frame;
+		return startFrame + output.getLongFramePosition() - startPosition;
+	}
+
+	/**
+	 * Frames mixed at a time
+	 *
+	 * @return frames in a block
+	 */
+	public int getBlockFrames () {
+		return blockFrames;
+	}
+
+	/**
+	 * Blocks the output line buffers
+	 *
+	 * @return blocks
+	 */
+	public int getLineBlocks () {
+		return lineBlocks;
+	}
+
+	/**
+	 * Voices thrown away because too many were playing
+	 *
+	 * @return count
+	 */
+	public long getDropped () {
+		return dropped;
+	}
+
+	/**
+	 * Mixes the next block of audio
+	 *
+	 * @param out buffer of getBlockFrames() frames to fill
+	 */
+	public void render (byte[] out) {
+		long blockStart = frame;
+		long blockEnd = blockStart + blockFrames;
+
+		// Pick up new voices
+		Voice v;
+		while ((v = pending.poll()) != null) add(v, blockStart);
+
+		// Take every event due in this block
+		while (events.due(blockEnd)) {
+			if (events.type() == EventRing.START) {
+				if (spareCount > 0) {
+					v = spare[--spareCount];
+					spare[spareCount] = null;
+					v.set(events.sample(), events.frame(), events.owner());
+					add(v, blockStart);
+				}
+				else {
+					dropped ++;
+					if (events.owner() instanceof Owner) {
+						((Owner) events.owner()).dropped();
+					}
+				}
+			}
+			else {
+				Object owner = events.owner();
+				long stop = events.frame();
+				for (int i = 0; i < voiceCount; i ++) {
+					if (voices[i].owner == owner) voices[i].stopAt(stop);
+				}
+			}
+			events.pop();
+		}
+
+		Arrays.fill(mix, 0);
+
+		for (int i = 0; i < voiceCount; i ++) {
+			v = voices[i];
+
+			long start = Math.max(v.startFrame, blockStart);
+			if (start >= blockEnd) continue;
+
+			long offset = start - v.startFrame;
+			long end = Math.min(Math.min(blockEnd, v.stopFrame),
+					start + v.sample.frames - offset);
+
+			int to = (int) (end - blockStart);
+			int src = (int) offset * CHANNELS;
+			for (int j = (int) (start - blockStart) * CHANNELS;
+					j < to * CHANNELS; j ++) {
+				mix[j] += v.sample.data.get(src ++);
+			}
+
+			// Remove voices that are done
+			if (end < blockEnd || end == v.stopFrame
+					|| end - v.startFrame >= v.sample.frames) {
+				finish(i--);
+			}
+		}
+
+		// Clip and write out little endian
+		for (int j = 0, b = 0; j < mix.length; j ++) {
+			int s = mix[j];
+			if (s > Short.MAX_VALUE) s = Short.MAX_VALUE;
+			else if (s < Short.MIN_VALUE) s = Short.MIN_VALUE;
+			out[b++] = (byte) s;
+			out[b++] = (byte) (s >> 8);
+		}
+
+		frame = blockEnd;
+	}
+
+	/**
+	 * Starts sounding a voice
+	 *
+	 * @param v voice to add
+	 * @param blockStart first frame of the block being mixed
+	 */
+	private void add (Voice v, long blockStart) {
+		if (voiceCount == MAX_VOICES) {
+			v.finished = true;
+			if (v.pooled) spare[spareCount++] = v;
+			dropped ++;
+			if (v.owner instanceof Owner) ((Owner) v.owner).dropped();
+			return;
+		}
+
+		// Late voices start now rather than never
+		if (v.startFrame < blockStart) v.startFrame = blockStart;
+		voices[voiceCount++] = v;
+	}
+
+	/**
+	 * Removes a sounding voice, keeping its slot for reuse
+	 *
+	 * @param i index in voices
+	 */
+	private void finish (int i) {
+		Voice v = voices[i];
+		voices[i] = voices[--voiceCount];
+		voices[voiceCount] = null;
+
+		v.finished = true;
+		if (v.pooled) {
+			v.sample = null;
+			v.owner = null;
+			spare[spareCount++] = v;
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * Renders the arrangement straight to .wav files without a sound card,
+ * as fast as the machine allows
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class OfflineRenderer {
+
+	/**
+	 * Copies of the tracks taken when the render was set up, which
+	 * each file's render makes its own copies from
+	 */
+	private final List<AudioTrack> tracks = new ArrayList<AudioTrack>();
+
+	/**
+	 * Rate of occurrence for each track
+	 */
+	private final List<Integer> maxList;
+
+	/**
+	 * Repetition each track has got to
+	 */
+	private final List<Integer> currentList;
+
+	/**
+	 * Whether each track plays
+	 */
+	private final List<Boolean> playingList;
+
+	/**
+	 * Length of a loop in seconds
+	 */
+	private final double loopLength;
+
+	/**
+	 * Sets up a render, copying the tracks as they are now. Must be
+	 * called on the thread that changes the tracks, and waits for
+	 * anything they are still transposing
+	 *
+	 * @param tracks prepared tracks
+	 * @param maxList rate of occurrence for each track
+	 * @param currentList repetition each track has got to
+	 * @param playingList whether each track plays
+	 * @param loopLength length of a loop in seconds
+	 */
+	public OfflineRenderer (List<AudioTrack> tracks, List<Integer> maxList,
+			List<Integer> currentList, List<Boolean> playingList, 
+			double loopLength) {
+		// The renders only ever read the copies, so the tracks
+		// can change while they run
+		for (AudioTrack track : tracks) this.tracks.add(new AudioTrack(track));
+		this.maxList = maxList;
+		this.currentList = currentList;
+		this.playingList = playingList;
+		this.loopLength = loopLength;
+	}
+
+	/**
+	 * Frame a loop starts on, counted the same way as the Transport
+	 *
+	 * @param loop loop number
+	 * @return frame
+	 */
+	private long boundary (long loop) {
+		return Math.round(loop * loopLength * MixEngine.SAMPLE_RATE);
+	}
+
+	/**
+	 * Renders the mix, and optionally one file per track. Every file
+	 * is rendered on its own thread. The copies of the tracks are let
+	 * go of afterwards, so a renderer only renders once
+	 *
+	 * @param loops loops to render
+	 * @param master file for the full mix
+	 * @param stems folder for one file per track, or null for none
+	 * @param stemName start of each track's file name
+	 * @throws IOException if a file can't be written
+	 * @throws InterruptedException if the render is interrupted
+	 */
+	public void render (final int loops, final File master, File stems,
+			String stemName) throws IOException, InterruptedException {
+		ArrayList<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+
+		// Every playing track goes in the mix
+		final ArrayList<Integer> all = new ArrayList<Integer>();
+		for (int i = 0; i < tracks.size(); i ++) {
+			if (tracks.get(i).track != null && playingList.get(i)) all.add(i);
+		}
+		jobs.add(new Callable<Void>() {
+			public Void call() throws IOException {
+				renderTracks(all, loops, master);
+				return null;
+			}
+		});
+
+		// And gets a file of its own
+		if (stems != null) {
+			for (final int i : all) {
+				final File stem = new File(stems, stemName + " - Track "
+						+ (i + 1) + ".wav");
+				jobs.add(new Callable<Void>() {
+					public Void call() throws IOException {
+						ArrayList<Integer> one = new ArrayList<Integer>();
+						one.add(i);
+						renderTracks(one, loops, stem);
+						return null;
+					}
+				});
+			}
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(
+				jobs.size(), Runtime.getRuntime().availableProcessors()));
+		try {
+			for (Future<Void> job : pool.invokeAll(jobs)) {
+				try {
+					job.get();
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IOException(e.getCause());
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+			try {
+				// Nothing may be copying them when they are let go
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			}
+			finally {
+				for (AudioTrack track : tracks) track.releaseSamples();
+			}
+		}
+	}
+
+	/**
+	 * Renders some tracks to a file on the calling thread
+	 *
+	 * @param which indexes of the tracks to render
+	 * @param loops loops to render
+	 * @param file file to write
+	 * @throws IOException if the file can't be written
+	 */
+	void renderTracks (List<Integer> which, int loops, File file)
+			throws IOException {
+		MixEngine engine = new MixEngine();
+
+		// Our own copies, playing through our own engine
+		ArrayList<AudioTrack> copies = new ArrayList<AudioTrack>();
+		ArrayList<Integer> max = new ArrayList<Integer>();
+		ArrayList<Integer> current = new ArrayList<Integer>();
+		for (int i : which) {
+			AudioTrack copy = new AudioTrack(tracks.get(i), engine);
+			copy.play = true;
+			copies.add(copy);
+			max.add(maxList.get(i));
+			current.add(currentList.get(i));
+		}
+		LoopCounter counter = new LoopCounter(copies, max, current);
+
+		byte[] block = new byte[MixEngine.BLOCK_FRAMES * MixEngine.FRAME_SIZE];
+
+		// Write it somewhere else and move it into place, as a file of
+		// the same name may be mapped by something playing it
+		File part = new File(file.getPath() + ".part");
+		try {
+			WavWriter writer = new WavWriter(part, MixEngine.FORMAT);
+			try {
+				for (int loop = 0; loop < loops; loop ++) {
+					long frame = boundary(loop);
+
+					// Same counting as the PlayManager
+					counter.loop(loop, frame);
+
+					// Mix up to the next loop, only part of the last block
+					// of the file is kept
+					long end = boundary(loop + 1);
+					while (engine.getFrame() < end) {
+						if (loop == loops - 1 || engine.getFrame()
+								+ MixEngine.BLOCK_FRAMES <= end) {
+							long start = engine.getFrame();
+							engine.render(block);
+							int frames = (int) Math.min(
+									MixEngine.BLOCK_FRAMES, end - start);
+							writer.write(block, 0,
+									frames * MixEngine.FRAME_SIZE);
+						}
+						else break;
+					}
+				}
+			}
+			finally {
+				writer.close();
+			}
+			Files.move(part.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			RenderCache.shared().wrote(file);
+		}
+		catch (IOException e) {
+			part.delete();
+			throw e;
+		}
+		finally {
+			for (AudioTrack copy : copies) copy.releaseSamples();
+		}
+	}
+}
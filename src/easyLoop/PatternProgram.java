@@ -0,0 +1,223 @@
+/**
+ * A pattern compiled into arrays of ints, so playing a step is only
+ * reading the next few numbers. Each step is a header followed by the
+ * voices it starts. The header says whether the step stops what the
+ * track was playing and how many voices follow. Voices are slots
+ * in a table of transpositions, which the track fills with its
+ * samples once, rather than looking each one up by name as it plays.
+ *
+ * Patterns are made of transpositions and
+ *   !  a break, stop and play nothing
+ *   >  a skip, let the last step ring on
+ *   |  play the next transposition at the same time
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public final class PatternProgram {
+
+	/**
+	 * Header bit for a step that stops the track's voices first
+	 */
+	public final static int STOP = 1;
+
+	/**
+	 * Program that plays nothing
+	 */
+	public final static PatternProgram EMPTY = new PatternProgram(
+			new int[0], new int[0], 0, new int[0], new String[0]);
+
+	/**
+	 * Every step's header and voices, one after another
+	 */
+	private final int[] events;
+
+	/**
+	 * Where each step starts in events
+	 */
+	private final int[] steps;
+
+	/**
+	 * Step to go back to after the last one
+	 */
+	private final int loopStep;
+
+	/**
+	 * Transposition of each voice slot
+	 */
+	private final int[] voices;
+
+	/**
+	 * Pattern entry each step starts on, for display
+	 */
+	private final String[] labels;
+
+	private PatternProgram (int[] events, int[] steps, int loopStep,
+			int[] voices, String[] labels) {
+		this.events = events;
+		this.steps = steps;
+		this.loopStep = loopStep;
+		this.voices = voices;
+		this.labels = labels;
+	}
+
+	/**
+	 * Compiles a pattern. The steps are worked out by walking the
+	 * pattern from the start the way it plays, chords wrapping round
+	 * the end, until a step comes round again
+	 *
+	 * @param pattern transpositions as Integers and !, > or | as Strings
+	 * @return program
+	 */
+	public static PatternProgram compile (List<Object> pattern) {
+		int size = pattern.size();
+		if (size == 0) return EMPTY;
+
+		// One voice slot for each transposition used
+		HashMap<Integer, Integer> slots = new HashMap<Integer, Integer>();
+		ArrayList<Integer> voices = new ArrayList<Integer>();
+
+		// Step each entry starts, -1 until it has been reached
+		int[] stepAt = new int[size];
+		Arrays.fill(stepAt, -1);
+
+		ArrayList<Integer> events = new ArrayList<Integer>();
+		ArrayList<Integer> steps = new ArrayList<Integer>();
+		ArrayList<String> labels = new ArrayList<String>();
+
+		int start = 0;
+		while (stepAt[start] < 0) {
+			stepAt[start] = steps.size();
+			steps.add(events.size());
+			labels.add(String.valueOf(pattern.get(start)));
+
+			int header = events.size();
+			events.add(0);
+			int count = 0;
+
+			// A skip lets the last step ring on
+			boolean stop = !">".equals(pattern.get(start));
+
+			// Each | adds the entry after it, at most once round
+			int at = start;
+			int joined = 0;
+			while (true) {
+				Object o = pattern.get(at);
+				if (o instanceof Integer) {
+					Integer slot = slots.get(o);
+					if (slot == null) {
+						slot = voices.size();
+						slots.put((Integer) o, slot);
+						voices.add((Integer) o);
+					}
+					events.add(slot);
+					count ++;
+				}
+				if (joined ++ >= size
+						|| !"|".equals(pattern.get((at + 1) % size))) break;
+				at = (at + 2) % size;
+			}
+
+			events.set(header, count << 1 | (stop ? STOP : 0));
+			start = (at + 1) % size;
+		}
+
+		return new PatternProgram(toArray(events), toArray(steps),
+				stepAt[start], toArray(voices),
+				labels.toArray(new String[labels.size()]));
+	}
+
+	private static int[] toArray (List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i ++) array[i] = list.get(i);
+		return array;
+	}
+
+	/**
+	 * Number of steps
+	 *
+	 * @return steps
+	 */
+	public int getSteps () {
+		return steps.length;
+	}
+
+	/**
+	 * Step after a step
+	 *
+	 * @param step step played
+	 * @return step to play next
+	 */
+	public int next (int step) {
+		return step + 1 < steps.length ? step + 1 : loopStep;
+	}
+
+	/**
+	 * Whether a step stops the track's voices before starting its own
+	 *
+	 * @param step step
+	 * @return true if it stops
+	 */
+	public boolean stops (int step) {
+		return (events[steps[step]] & STOP) != 0;
+	}
+
+	/**
+	 * Number of voices a step starts
+	 *
+	 * @param step step
+	 * @return voices
+	 */
+	public int getVoices (int step) {
+		return events[steps[step]] >>> 1;
+	}
+
+	/**
+	 * Slot of one of the voices a step starts
+	 *
+	 * @param step step
+	 * @param voice which of its voices
+	 * @return slot
+	 */
+	public int getSlot (int step, int voice) {
+		return events[steps[step] + 1 + voice];
+	}
+
+	/**
+	 * Number of voice slots
+	 *
+	 * @return slots
+	 */
+	public int getSlots () {
+		return voices.length;
+	}
+
+	/**
+	 * Transposition a slot plays
+	 *
+	 * @param slot slot
+	 * @return semitones
+	 */
+	public int getTransposition (int slot) {
+		return voices[slot];
+	}
+
+	/**
+	 * Pattern entry a step starts on
+	 *
+	 * @param step step
+	 * @return entry as it was written
+	 */
+	public String getLabel (int step) {
+		return step < labels.length ? labels[step] : "";
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * Changes the pitch of a sample without changing its length. The
+ * sample is stretched to be longer or shorter, then resampled back
+ * to its original length
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.InterruptedIOException;
+import java.nio.ShortBuffer;
+
+public class PitchShifter {
+
+	/**
+	 * Names the algorithm, so renders from different versions of it
+	 * are never mixed up
+	 */
+	public final static String ALGORITHM = "wsola-1";
+
+	/**
+	 * Frames handed between the stages at a time
+	 */
+	public final static int CHUNK = 4096;
+
+	/**
+	 * Channels of the audio
+	 */
+	private final static int CHANNELS = MixEngine.CHANNELS;
+
+	/**
+	 * Creates a transposed copy of a sample
+	 *
+	 * @param source sample to transpose
+	 * @param semitones semitones to shift by
+	 * @return new sample of the same length
+	 * @throws InterruptedIOException if the thread is interrupted
+	 */
+	public static Sample shift (Sample source, int semitones)
+			throws InterruptedIOException {
+		double ratio = Math.pow(2, semitones / 12.0);
+		int frames = source.frames;
+
+		// Make it ratio times as long, then play it ratio times as fast
+		TimeStretcher stretcher = new TimeStretcher(1 / ratio);
+		Resampler resampler = new Resampler(ratio, frames);
+
+		short[] chunk = new short[CHUNK * CHANNELS];
+		ShortBuffer data = source.data.duplicate();
+		data.rewind();
+
+		while (data.hasRemaining()) {
+			// Give up between chunks if nobody wants it any more
+			if (Thread.interrupted()) throw new InterruptedIOException();
+
+			int count = Math.min(chunk.length, data.remaining());
+			data.get(chunk, 0, count);
+			stretcher.put(chunk, 0, count / CHANNELS);
+			drain(stretcher, resampler, chunk);
+		}
+		stretcher.flush();
+		drain(stretcher, resampler, chunk);
+
+		return new Sample(ShortBuffer.wrap(resampler.finish()));
+	}
+
+	/**
+	 * Creates a quick transposed copy by playing the sample faster or
+	 * slower, like a tape. It is shorter or longer than the original
+	 *
+	 * @param source sample to transpose
+	 * @param semitones semitones to shift by
+	 * @return new sample
+	 */
+	public static Sample varispeed (Sample source, int semitones) {
+		double ratio = Math.pow(2, semitones / 12.0);
+		Resampler resampler = new Resampler(ratio,
+				(int) Math.round(source.frames / ratio));
+
+		short[] chunk = new short[CHUNK * CHANNELS];
+		ShortBuffer data = source.data.duplicate();
+		data.rewind();
+
+		while (data.hasRemaining() && !resampler.isFull()) {
+			int count = Math.min(chunk.length, data.remaining());
+			data.get(chunk, 0, count);
+			resampler.put(chunk, count / CHANNELS);
+		}
+		return new Sample(ShortBuffer.wrap(resampler.finish()));
+	}
+
+	/**
+	 * Moves everything the stretcher has made into the resampler
+	 */
+	private static void drain (TimeStretcher stretcher, Resampler resampler,
+			short[] chunk) {
+		int got;
+		while ((got = stretcher.receive(chunk, 0, CHUNK)) > 0) {
+			resampler.put(chunk, got);
+		}
+	}
+
+	/**
+	 * Reads audio at a different speed, a piece at a time
+	 */
+	static class Resampler {
+
+		/**
+		 * Input frames moved past for each output frame
+		 */
+		private final double step;
+
+		/**
+		 * Output
+		 */
+		private final short[] out;
+		private int written = 0;
+
+		/**
+		 * Position in the input, counted from the last frame kept
+		 */
+		private double position = 1;
+
+		/**
+		 * Last input frame of the previous piece
+		 */
+		private final short[] last = new short[CHANNELS];
+
+		/**
+		 * Creates a resampler
+		 *
+		 * @param step input frames per output frame
+		 * @param frames output frames wanted
+		 */
+		Resampler (double step, int frames) {
+			this.step = step;
+			out = new short[frames * CHANNELS];
+		}
+
+		/**
+		 * Whether all the output has been made
+		 *
+		 * @return true when full
+		 */
+		boolean isFull () {
+			return written == out.length / CHANNELS;
+		}
+
+		/**
+		 * Reads more input
+		 *
+		 * @param in interleaved input
+		 * @param frames frames of input
+		 */
+		void put (short[] in, int frames) {
+			// Frame 0 is the kept frame, the new input starts at 1
+			while (!isFull() && position < frames) {
+				int whole = (int) position;
+				float fraction = (float) (position - whole);
+
+				for (int c = 0; c < CHANNELS; c ++) {
+					float a = whole == 0 ? last[c]
+							: in[(whole - 1) * CHANNELS + c];
+					float b = in[whole * CHANNELS + c];
+					out[written * CHANNELS + c] =
+							(short) Math.round(a + (b - a) * fraction);
+				}
+				written ++;
+				position += step;
+			}
+
+			for (int c = 0; c < CHANNELS; c ++) {
+				last[c] = in[(frames - 1) * CHANNELS + c];
+			}
+			position -= frames;
+		}
+
+		/**
+		 * Gets the output, silent at the end if input ran short
+		 *
+		 * @return interleaved samples
+		 */
+		short[] finish () {
+			return out;
+		}
+	}
+}
@@ -5,25 +5,57 @@
  * 
  * @author David Hampson (DavidHampson.97@gmail.com)
  * 
- * Pitch shifting and tempo changing made possible by "soundstretch"
- * @see http://www.surina.net/soundtouch/soundstretch.html
+ * Pitch shifting is done in memory by PitchShifter, tempo changing
+ * by TimeStretcher
  */
 package easyLoop;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import javax.swing.Timer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sound.sampled.LineUnavailableException;
+import javax.swing.JOptionPane;
 
 public class PlayManager {
 	
-	ActionListener playTracks;
-	Timer controller;
+	Transport.Listener playTracks;
+	Transport controller;
 	
 	/**
 	 *  For reference
 	 */
 	EasyLoop easyLoop;
 	
+	/**
+	 * Changes asked for while playing, carried out at the next loop
+	 */
+	private CommandQueue commands = new CommandQueue();
+	
+	/**
+	 * What each track was doing at the last loop
+	 */
+	private volatile List<TrackState> states = 
+			Collections.<TrackState>emptyList();
+	
+	/**
+	 * Tracks and their settings while playing. Copied from the window
+	 * when playback starts, then only touched by the transport
+	 */
+	private AudioTrack[] tracks;
+	private boolean[] playing;
+	
+	/**
+	 * Counts loops to play each track at its rate, starting from
+	 * the counts in the window
+	 */
+	private LoopCounter counter;
+	
+	/**
+	 * Where how late each loop was is counted
+	 */
+	private final EngineMetrics metrics = EngineMetrics.shared();
+	
 	/**
 	 * Intializer
 	 * 
@@ -33,62 +65,149 @@ public class PlayManager {
 		this.easyLoop = easyLoop;
 	}
 	
+	/**
+	 * Asks for a change to a track. While playing it is made at the
+	 * next loop, otherwise it is dropped, as playback starts from
+	 * the window's settings. Never blocks
+	 * 
+	 * @param command change to make
+	 */
+	public void post (TrackCommand command) {
+		if (isPlaying()) commands.post(command);
+	}
+	
+	/**
+	 * Whether the tracks are playing
+	 * 
+	 * @return true while the transport runs
+	 */
+	public boolean isPlaying () {
+		Transport transport = controller;
+		return transport != null && transport.isRunning();
+	}
+	
+	/**
+	 * What each track was doing at the last loop. Safe to read from
+	 * any thread
+	 * 
+	 * @return unchangeable list of states, one per track
+	 */
+	public List<TrackState> getStates () {
+		return states;
+	}
+	
+	/**
+	 * Loop a pattern posted now would play its first step on, from
+	 * how far the track has counted towards its next step
+	 * 
+	 * @param index track
+	 * @return loop number, 0 if playback hasn't got going
+	 */
+	public long nextStep (int index) {
+		List<TrackState> states = this.states;
+		if (index >= states.size()) return 0;
+		TrackState state = states.get(index);
+		return state.loop + 1 + state.getCountdown();
+	}
+	
 	/**
 	 * Drives the playing of tracks
 	 */
-	public void playTracks() {	
-	    playTracks = new ActionListener() {
-	    		public void actionPerformed(ActionEvent evt) {
-	    			// Check to see if the conditions to play the tracks 
-	        		// are met, and if they are play them. Also count 
-	    			//towards next play for tracks with a non 1 loop count
-	    			for (int i = 0; i < easyLoop.trackNumber; i ++){
-
-	    				// if the box is checked we play
-	    				easyLoop.trackList.get(i).play = 
-	    						easyLoop.playingList.get(i).isSelected();
-				
-						// Is it time to play?
-						if (easyLoop.maxList.get(i).
-								equals(easyLoop.currentList.get(i))) {
-							// Reset the counter
-							
-							easyLoop.currentList.set(i, 1);
-							
-							// Start playback
-							easyLoop.trackList.get(i).
-								playNext(easyLoop.playButton);
-						}
-	
-						// if not, Increment the counter
-						else {
-							easyLoop.currentList.
-								set(i, easyLoop.currentList.get(i)+1);
-						}	    				        		
-
-						// Update displays
-	        			String s = String.valueOf
-	        					(easyLoop.maxList.get(i) - 
-	        							easyLoop.currentList.get(i));
-	        			easyLoop.countdownList.get(i).
-	        				setText("Reps till next play: " + s);
-		        		
-	 
-	        			// Get the next to play for each track
-	        			s = String.valueOf
-	        					(easyLoop.patternList.get(i).
-	        							get(easyLoop.trackList
-	        									.get(i).currentTrack));
-	        			easyLoop.nextToPlayList.get(i).
-	        				setText("Next transposition: " + s);
-	        	}
+	public void playTracks() {
+		// Take what we need from the window, the transport
+		// thread never touches it
+		tracks = easyLoop.trackModel.copyTracks();
+		playing = easyLoop.trackModel.copyPlaying();
+		counter = new LoopCounter(tracks, easyLoop.trackModel.copyRates(),
+				easyLoop.trackModel.copyCounts(), easyLoop.playButton);
+		commands = new CommandQueue();
+		metrics.setTracks(tracks);
+		
+	    playTracks = new Transport.Listener() {
+	    		public void loop(long loop, long frame) {
+	    			metrics.loopStarted(controller.getLateness());
+	    			
+	    			// Changes land on the loop boundary
+	    			apply();
+	    			
+	    			// if the box is checked we play
+	    			for (int i = 0; i < tracks.length; i ++) {
+	    				tracks[i].play = playing[i];
+	    			}
+	    			
+	    			// Play the tracks whose turn it is, and count
+	    			// towards the next play for the others
+	    			counter.loop(loop, frame);
+	    			publish(loop);
 	    	}
 	    };
 	    
-	    // Create the controller and set it to the file length
-	    // (*1000 for seconds to milliseconds)
-	    controller = new Timer((int) (easyLoop.loopLength * 
-	    		1000), playTracks);
+	    // Make sure the engine is running, it is our clock
+	    try {
+	    	tracks[0].engine.start();
+	    }
+	    catch (LineUnavailableException e) {
+	    	JOptionPane.showMessageDialog(null, "Line Unavaliable.");
+	    	e.printStackTrace();
+	    	controller = null;
+	    	easyLoop.playButton.doClick();
+	    	return;
+	    }
+	    
+	    // Create the controller and set it to the file length,
+	    // it counts loops in frames so it never drifts
+	    controller = new Transport(tracks[0].engine,
+	    		easyLoop.loopLength, playTracks);
 	    controller.start();
 	}
+	
+	/**
+	 * Stops the tracks. Changes posted too late for the last loop are
+	 * made now, so the tracks are left as the window shows them
+	 */
+	public void stop () {
+		if (controller == null) return;
+		controller.stop();
+		apply();
+	}
+	
+	/**
+	 * Carries out every change posted since the last loop
+	 */
+	private void apply () {
+		TrackCommand command;
+		while ((command = commands.poll()) != null) {
+			int i = command.track;
+			if (i < 0 || i >= tracks.length) continue;
+			
+			switch (command.type) {
+			case TrackCommand.PLAYING:
+				playing[i] = command.value != 0;
+				break;
+			case TrackCommand.RATE:
+				counter.setRate(i, command.value);
+				break;
+			case TrackCommand.PATTERN:
+				// Start the new pattern from the top, it was made
+				// ready on the swing thread
+				tracks[i].setPlayOrder(command.order);
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Takes a snapshot of every track for other threads to read. The
+	 * displays pick it up in their own time, so nothing here waits on
+	 * the swing thread
+	 */
+	private void publish (long loop) {
+		TrackState[] snapshot = new TrackState[tracks.length];
+		for (int i = 0; i < tracks.length; i ++) {
+			snapshot[i] = new TrackState(loop, playing[i], 
+					counter.getRate(i), counter.getCount(i), 
+					tracks[i].getNext());
+		}
+		states = Collections.unmodifiableList(Arrays.asList(snapshot));
+	}
 }
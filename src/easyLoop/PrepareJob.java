@@ -0,0 +1,329 @@
+/**
+ * Prepares every track's pattern at once. Each file is decoded, then
+ * each transposition a pattern uses is made, as separate tasks on a
+ * pool of worker threads. The job can be watched, waited on and
+ * cancelled from any thread
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+public class PrepareJob {
+
+	/**
+	 * Workers shared by every job, one per processor
+	 */
+	private final static ExecutorService WORKERS =
+			Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(),
+			new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread (Runnable r) {
+					Thread thread = new Thread(r, "Easy Loop prepare "
+							+ count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Where samples come from
+	 */
+	private final SamplePool pool = SamplePool.shared();
+
+	/**
+	 * Tracks being prepared
+	 */
+	private final List<AudioTrack> tracks;
+
+	/**
+	 * Pattern for each track, copied when the job was made
+	 */
+	private final ArrayList<ArrayList<Object>> patterns =
+			new ArrayList<ArrayList<Object>>();
+
+	/**
+	 * Decoded file for each track, held until the job is applied
+	 */
+	private final ArrayList<Future<Sample>> sources =
+			new ArrayList<Future<Sample>>();
+
+	/**
+	 * Transpositions being made for each track
+	 */
+	private final ArrayList<HashMap<Integer, Future<Sample>>> renders =
+			new ArrayList<HashMap<Integer, Future<Sample>>>();
+
+	/**
+	 * Every task, for waiting and cancelling
+	 */
+	private final ArrayList<Future<Sample>> tasks =
+			new ArrayList<Future<Sample>>();
+
+	/**
+	 * Everything the tasks have made, given back if the job is thrown
+	 * away
+	 */
+	private final ArrayList<Sample> made = new ArrayList<Sample>();
+	private boolean discarded = false;
+
+	/**
+	 * Tasks finished, however they finished
+	 */
+	private final AtomicInteger done = new AtomicInteger();
+
+	/**
+	 * When the job started, and when its last task to finish did
+	 */
+	private long started;
+	private volatile long finished;
+
+	/**
+	 * Set once cancel is called
+	 */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Sets up a job. Nothing is done until start
+	 *
+	 * @param tracks tracks to prepare
+	 * @param patterns pattern of transposition for each track
+	 */
+	public PrepareJob (List<AudioTrack> tracks,
+			List<ArrayList<Object>> patterns) {
+		this.tracks = tracks;
+		for (ArrayList<Object> pattern : patterns) {
+			this.patterns.add(new ArrayList<Object>(pattern));
+		}
+	}
+
+	/**
+	 * Hands every task to the workers. Every file is queued before
+	 * any transposition, so the workers decode them first. Tracks
+	 * already prepared for their pattern are left alone, and only the
+	 * transpositions a track is missing are made
+	 *
+	 * @return this job
+	 */
+	public PrepareJob start () {
+		started = System.nanoTime();
+		finished = started;
+		for (int i = 0; i < tracks.size(); i ++) {
+			final AudioTrack track = tracks.get(i);
+			if (track.track == null || track.isPrepared(patterns.get(i))) {
+				sources.add(null);
+				continue;
+			}
+			sources.add(submit(new Callable<Sample>() {
+				public Sample call ()
+						throws IOException, UnsupportedAudioFileException {
+					return track.acquire(track.track);
+				}
+			}));
+		}
+
+		// One task for each transposition a track doesn't have yet
+		for (int i = 0; i < tracks.size(); i ++) {
+			final AudioTrack track = tracks.get(i);
+			HashMap<Integer, Future<Sample>> render =
+					new HashMap<Integer, Future<Sample>>();
+			renders.add(render);
+			if (sources.get(i) == null) continue;
+
+			for (final int transposition : track.missing(patterns.get(i))) {
+				render.put(transposition, submit(new Callable<Sample>() {
+					public Sample call ()
+							throws IOException, UnsupportedAudioFileException {
+						return track.transpose(transposition);
+					}
+				}));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Gives a task to the workers, counting it when it finishes
+	 */
+	private Future<Sample> submit (final Callable<Sample> task) {
+		Future<Sample> future = WORKERS.submit(new Callable<Sample>() {
+			public Sample call () throws Exception {
+				try {
+					if (cancelled) throw new InterruptedIOException();
+					Sample sample = task.call();
+
+					// Keep it unless the job was thrown away meanwhile
+					synchronized (made) {
+						if (!discarded) {
+							made.add(sample);
+							return sample;
+						}
+					}
+					pool.release(sample);
+					throw new InterruptedIOException();
+				}
+				finally {
+					finished = System.nanoTime();
+					done.incrementAndGet();
+				}
+			}
+		});
+		tasks.add(future);
+		return future;
+	}
+
+	/**
+	 * Tasks finished so far
+	 *
+	 * @return finished tasks
+	 */
+	public int getDone () {
+		return done.get();
+	}
+
+	/**
+	 * Tasks in the job
+	 *
+	 * @return all tasks
+	 */
+	public int getTotal () {
+		return tasks.size();
+	}
+
+	/**
+	 * Whether every task has finished
+	 *
+	 * @return true once nothing is left running
+	 */
+	public boolean isDone () {
+		for (Future<Sample> task : tasks) {
+			if (!task.isDone()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Whether cancel has been called
+	 *
+	 * @return true if cancelled
+	 */
+	public boolean isCancelled () {
+		return cancelled;
+	}
+
+	/**
+	 * Stops every task that hasn't finished. Running transpositions
+	 * stop at their next chunk
+	 */
+	public void cancel () {
+		cancelled = true;
+		for (Future<Sample> task : tasks) task.cancel(true);
+	}
+
+	/**
+	 * Waits for the job, then gives each track its new play order.
+	 * If anything failed or the job was cancelled, the tracks are left
+	 * as they were and everything made is given back to the pool.
+	 * Call this from the thread that owns the tracks
+	 *
+	 * @throws IOException if a file couldn't be read or transposed
+	 * @throws InterruptedException if the job was cancelled or the
+	 * wait was interrupted
+	 */
+	public void finish () throws IOException, InterruptedException {
+		try {
+			for (Future<Sample> task : tasks) {
+				try {
+					task.get();
+				}
+				catch (CancellationException e) {
+					throw new InterruptedException("Prepare cancelled.");
+				}
+				catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof InterruptedIOException) {
+						throw new InterruptedException("Prepare cancelled.");
+					}
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					}
+					throw new IOException("Unsupported Format.", cause);
+				}
+			}
+			if (cancelled) throw new InterruptedException("Prepare cancelled.");
+		}
+		catch (IOException | InterruptedException e) {
+			cancel();
+			releaseAll();
+			throw e;
+		}
+
+		for (int i = 0; i < tracks.size(); i ++) {
+			if (sources.get(i) == null) continue;
+
+			HashMap<Integer, Sample> rendered = new HashMap<Integer, Sample>();
+			for (HashMap.Entry<Integer, Future<Sample>> entry
+					: renders.get(i).entrySet()) {
+				rendered.put(entry.getKey(), result(entry.getValue()));
+			}
+			tracks.get(i).setPlayOrder(patterns.get(i), rendered);
+		}
+
+		// The tracks hold their own files now
+		for (Future<Sample> source : sources) {
+			if (source != null) pool.release(result(source));
+		}
+
+		// Save what was made to the cache's index in one go
+		for (int i = 0; i < tracks.size(); i ++) {
+			if (sources.get(i) != null) tracks.get(i).getCache().save();
+		}
+		EngineMetrics.shared().prepared(finished - started);
+	}
+
+	/**
+	 * Gives back everything that was made. Tasks still running give
+	 * back what they make when they finish
+	 */
+	private void releaseAll () {
+		synchronized (made) {
+			discarded = true;
+			for (Sample sample : made) pool.release(sample);
+			made.clear();
+		}
+	}
+
+	/**
+	 * Gets what a finished task made
+	 *
+	 * @return the sample, or null if the task didn't make one
+	 */
+	private static Sample result (Future<Sample> future) {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException | ExecutionException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,497 @@
+/**
+ * Records a line to a .wav file without the line ever waiting on the
+ * disk. One thread reads the line into a ring buffer, another writes
+ * full chunks of the ring to the file, which is grown ahead of the
+ * writing. The header is filled in when recording stops
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.TargetDataLine;
+
+public class Recorder {
+
+	/**
+	 * Seconds of audio the ring holds while the disk catches up
+	 */
+	public final static int RING_SECONDS = 8;
+
+	/**
+	 * Frames read from the line at a time
+	 */
+	public final static int READ_FRAMES = 1024;
+
+	/**
+	 * Frames written to the file at a time
+	 */
+	public final static int WRITE_FRAMES = 16384;
+
+	/**
+	 * Seconds of space the file is grown by ahead of the writing
+	 */
+	public final static int PREALLOCATE_SECONDS = 10;
+
+	/**
+	 * How long the writer waits for a chunk to fill, in nanoseconds
+	 */
+	public final static long WRITE_WAIT = 5000000;
+
+	/**
+	 * Lost pieces waiting for the writer, a power of two
+	 */
+	public final static int GAPS = 256;
+
+	/**
+	 * Line being recorded
+	 */
+	private final TargetDataLine line;
+
+	/**
+	 * Format of the line and the file
+	 */
+	private final AudioFormat format;
+
+	/**
+	 * File to make, and where it is written until it is finished
+	 */
+	private final File file;
+	private final File part;
+	private final FileChannel channel;
+
+	/**
+	 * Audio between the line and the disk
+	 */
+	private final byte[] ring;
+	private final int mask;
+
+	/**
+	 * Bytes written to the ring, only moved by the reader
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Bytes taken from the ring, only moved by the writer
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * Bytes the line gave that there was no room for
+	 */
+	private final AtomicLong overrun = new AtomicLong();
+
+	/**
+	 * Where in the ring each lost piece was, and its bytes, so the
+	 * writer can put silence in its place. Filled by the reader and
+	 * emptied by the writer, each moving only its own count
+	 */
+	private final long[] gapAt = new long[GAPS];
+	private final long[] gapBytes = new long[GAPS];
+	private final AtomicLong gapsIn = new AtomicLong();
+	private final AtomicLong gapsOut = new AtomicLong();
+
+	/**
+	 * Bytes thrown away from the start, before the take begins
+	 */
+	private long skip = 0;
+
+	/**
+	 * Most bytes of audio kept after the skip, the rest is thrown away
+	 */
+	private volatile long keep = Long.MAX_VALUE;
+
+	/**
+	 * Set to stop reading the line
+	 */
+	private volatile boolean running = false;
+
+	/**
+	 * Set once the reader has stopped, so the writer can finish
+	 */
+	private volatile boolean captured = false;
+
+	/**
+	 * Threads
+	 */
+	private Thread reader;
+	private Thread writer;
+
+	/**
+	 * Anything that went wrong writing
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * Creates the file and gets ready to record
+	 *
+	 * @param line open line to record, in a 16 bit little endian format
+	 * @param file file to make
+	 * @throws IOException if the file can't be created
+	 */
+	public Recorder (TargetDataLine line, File file) throws IOException {
+		this.line = line;
+		this.format = line.getFormat();
+		this.file = file;
+		part = new File(file.getPath() + ".part");
+
+		int frameSize = format.getFrameSize();
+		int bytes = (int) format.getFrameRate() * frameSize * RING_SECONDS;
+		int size = Integer.highestOneBit(bytes - 1) << 1;
+		ring = new byte[size];
+		mask = size - 1;
+
+		channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.READ,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = WavWriter.header(format, 0);
+		while (header.hasRemaining()) channel.write(header);
+	}
+
+	/**
+	 * Starts the line and both threads
+	 */
+	public void start () {
+		start(0);
+	}
+
+	/**
+	 * Starts the line and both threads, throwing away the start of
+	 * what the line gives. Lets the line settle before the take, and
+	 * lines the take up with a frame in the future
+	 *
+	 * @param skipFrames frames to throw away
+	 */
+	public void start (long skipFrames) {
+		skip = skipFrames * format.getFrameSize();
+		running = true;
+		line.start();
+
+		reader = new Thread(new Runnable() {
+			public void run() {
+				capture();
+			}
+		}, "Easy Loop capture");
+		reader.setPriority(Thread.MAX_PRIORITY);
+
+		writer = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "Easy Loop recording writer");
+
+		reader.start();
+		writer.start();
+	}
+
+	/**
+	 * Reads the line straight into the ring
+	 */
+	private void capture () {
+		int frameSize = format.getFrameSize();
+		int read = READ_FRAMES * frameSize;
+		byte[] spill = new byte[read];
+
+		// Bytes lost since the last piece put in the ring
+		long gap = 0;
+
+		try {
+			while (true) {
+				// Once stopped, take what is left in the line's buffer
+				boolean draining = !running;
+				int want = read;
+				if (draining) {
+					int left = line.available();
+					want = Math.min(read, left - left % frameSize);
+					if (want <= 0) break;
+				}
+
+				long t = tail.get();
+				int free = ring.length - (int) (t - head.get());
+
+				// The disk has fallen a whole ring behind, so this
+				// piece is lost but the line keeps going
+				if (free < want || gap > 0 && !hasGapRoom()) {
+					int got = line.read(spill, 0, want);
+					if (got <= 0 && (draining || !line.isOpen())) break;
+					if (got > 0) {
+						gap += got;
+						overrun.addAndGet(got);
+					}
+					continue;
+				}
+
+				// Say where the lost piece goes before what follows it
+				if (gap > 0) {
+					addGap(t, gap);
+					gap = 0;
+				}
+
+				// Never read past the end of the ring in one go
+				int i = (int) t & mask;
+				int got = line.read(ring, i, Math.min(want, ring.length - i));
+				if (got <= 0) {
+					if (draining || !line.isOpen()) break;
+					continue;
+				}
+				tail.lazySet(t + got);
+			}
+		}
+		finally {
+			// The end of the take may have been lost too
+			if (gap > 0) {
+				while (!hasGapRoom() && writer.isAlive()) {
+					LockSupport.parkNanos(WRITE_WAIT);
+				}
+				addGap(tail.get(), gap);
+			}
+			captured = true;
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * Whether the writer has room for another lost piece
+	 */
+	private boolean hasGapRoom () {
+		return gapsIn.get() - gapsOut.get() < GAPS;
+	}
+
+	/**
+	 * Tells the writer about a lost piece
+	 *
+	 * @param at where in the ring it was
+	 * @param bytes bytes lost
+	 */
+	private void addGap (long at, long bytes) {
+		long n = gapsIn.get();
+		gapAt[(int) n & (GAPS - 1)] = at;
+		gapBytes[(int) n & (GAPS - 1)] = bytes;
+		gapsIn.lazySet(n + 1);
+	}
+
+	/**
+	 * Writes the ring to the file a chunk at a time, then finishes
+	 * the file once capture stops
+	 */
+	private void write () {
+		int chunk = WRITE_FRAMES * format.getFrameSize();
+		long step = (long) format.getFrameRate() * format.getFrameSize()
+				* PREALLOCATE_SECONDS;
+		long allocated = 0;
+		long written = 0;
+
+		// Bytes of lost pieces passed, and left of the one being passed
+		long gapped = 0;
+		long gapLeft = 0;
+		ByteBuffer silence = ByteBuffer.allocate(chunk);
+
+		try {
+			while (true) {
+				boolean last = captured;
+				long h = head.get();
+				long available = tail.get() - h;
+
+				// Where the next lost piece goes
+				long out = gapsOut.get();
+				long gap = Long.MAX_VALUE;
+				if (out < gapsIn.get()) {
+					int g = (int) out & (GAPS - 1);
+					gap = gapAt[g];
+					if (gap == h && gapLeft == 0) gapLeft = gapBytes[g];
+				}
+
+				// Where the line's audio has got to, lost pieces and all
+				long position = h + gapped;
+
+				// Silence in place of a lost piece, so what follows
+				// keeps its time
+				if (gap == h) {
+					long length = position < skip
+							? Math.min(skip - position, gapLeft)
+							: written >= keep ? gapLeft : 0;
+					if (length == 0) {
+						length = Math.min(Math.min(gapLeft, chunk),
+								keep - written);
+						if (written + length > allocated) {
+							allocated += step;
+							channel.write(ByteBuffer.allocate(1),
+									WavWriter.HEADER_SIZE + allocated - 1);
+						}
+						silence.clear();
+						silence.limit((int) length);
+						while (silence.hasRemaining()) {
+							channel.write(silence, WavWriter.HEADER_SIZE
+									+ written + silence.position());
+						}
+						written += length;
+					}
+					gapped += length;
+					gapLeft -= length;
+					if (gapLeft == 0) gapsOut.lazySet(out + 1);
+					continue;
+				}
+
+				// Audio up to the next lost piece is all there
+				long ready = Math.min(available, gap - h);
+				if (available < chunk && !last && gap - h > available) {
+					LockSupport.parkNanos(WRITE_WAIT);
+					continue;
+				}
+				if (ready == 0) break;
+
+				// Outside the take, throw it away
+				long outside = position < skip ? skip - position
+						: written >= keep ? ready : 0;
+				if (outside > 0) {
+					head.lazySet(h + Math.min(outside, ready));
+					continue;
+				}
+
+				// Grow the file ahead of the writing
+				if (written + chunk > allocated) {
+					allocated += step;
+					channel.write(ByteBuffer.allocate(1),
+							WavWriter.HEADER_SIZE + allocated - 1);
+				}
+
+				int i = (int) h & mask;
+				int length = (int) Math.min(Math.min(Math.min(ready, chunk),
+						ring.length - i), keep - written);
+				ByteBuffer piece = ByteBuffer.wrap(ring, i, length);
+				while (piece.hasRemaining()) {
+					channel.write(piece, WavWriter.HEADER_SIZE + written
+							+ piece.position() - i);
+				}
+				written += length;
+				head.lazySet(h + length);
+			}
+
+			finish(written);
+		}
+		catch (IOException e) {
+			failure = e;
+			running = false;
+			try {
+				channel.close();
+			}
+			catch (IOException ignored) {
+				// Already failed
+			}
+			part.delete();
+		}
+	}
+
+	/**
+	 * Cuts off the space grown ahead, fills in the header and moves
+	 * the file into place
+	 */
+	private void finish (long written) throws IOException {
+		long data = Math.min(written, keep);
+		data -= data % format.getFrameSize();
+
+		channel.truncate(WavWriter.HEADER_SIZE + data);
+		ByteBuffer header = WavWriter.header(format, data);
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+		channel.close();
+
+		Files.move(part.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Keeps only the start of the take
+	 *
+	 * @param frames most frames to keep
+	 */
+	public void keep (long frames) {
+		keep = frames * format.getFrameSize();
+	}
+
+	/**
+	 * Frames of the take so far, not counting any skipped. Lost
+	 * frames count, as silence takes their place
+	 *
+	 * @return frames
+	 */
+	public long getFrames () {
+		return Math.max(0, tail.get() + overrun.get() - skip)
+				/ format.getFrameSize();
+	}
+
+	/**
+	 * Stops on a whole number of loops. The take is cut back to the
+	 * last loop it finished, or if it hasn't finished one, recording
+	 * carries on until it has
+	 *
+	 * @param loopLength length of a loop in seconds
+	 * @return the finished file
+	 * @throws IOException if the file couldn't be written
+	 */
+	public File stopOnLoop (double loopLength) throws IOException {
+		double loopFrames = loopLength * format.getFrameRate();
+		long loops = Math.max(1, (long) (getFrames() / loopFrames));
+		long frames = Math.round(loops * loopFrames);
+		keep(frames);
+
+		// Wait for the end of the first loop
+		while (getFrames() < frames && line.isOpen() && running) {
+			LockSupport.parkNanos(WRITE_WAIT);
+		}
+		return stop();
+	}
+
+	/**
+	 * Frames lost because the disk fell behind, which are silent in
+	 * the file
+	 *
+	 * @return frames
+	 */
+	public long getOverrun () {
+		return overrun.get() / format.getFrameSize();
+	}
+
+	/**
+	 * Stops recording and waits for the file to be finished. The line
+	 * is stopped but left open for its owner to close
+	 *
+	 * @return the finished file
+	 * @throws IOException if the file couldn't be written
+	 */
+	public File stop () throws IOException {
+		running = false;
+		line.stop();
+
+		// Whatever is in the line's buffer goes in too
+		boolean interrupted = false;
+		for (Thread thread : new Thread[] {reader, writer}) {
+			while (thread != null && thread.isAlive()) {
+				try {
+					thread.join();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+
+		if (failure != null) throw failure;
+		return file;
+	}
+}
@@ -0,0 +1,605 @@
+/**
+ * Keeps transpositions on disk between runs, named by what they were
+ * made from, so a session that has been prepared before doesn't have
+ * to be transposed again. The least recently used files are deleted
+ * once the cache grows past its budget
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+public class RenderCache {
+
+	/**
+	 * Bytes kept on disk unless easyloop.cache.bytes says otherwise
+	 */
+	public final static long DEFAULT_BUDGET = 1024L * 1024 * 1024;
+
+	/**
+	 * Name of the index in the cache directory
+	 */
+	public final static String INDEX = "index.txt";
+
+	/**
+	 * Milliseconds between saves of the shared cache's index, so a
+	 * crash loses little. Prepares and bundles save it when they finish
+	 */
+	public final static long SAVE_PERIOD = 30000;
+
+	/**
+	 * Extension
+	 */
+	public final static String EXTENTION = ".wav";
+
+	/**
+	 * Size of the buffer used while hashing and writing
+	 */
+	private final static int BUFFER = 65536;
+
+	/**
+	 * Cache shared by the whole program
+	 */
+	private static RenderCache shared;
+
+	/**
+	 * Where the files live
+	 */
+	private final File directory;
+
+	/**
+	 * Most bytes kept
+	 */
+	private long budget;
+
+	/**
+	 * Size of each file by key, least recently used first
+	 */
+	private final LinkedHashMap<String, Long> entries =
+			new LinkedHashMap<String, Long>(16, .75f, true);
+
+	/**
+	 * Content hash of each source file by its identity in the pool,
+	 * so unchanged files aren't read again to hash them
+	 */
+	private final HashMap<String, String> hashes =
+			new HashMap<String, String>();
+
+	/**
+	 * Files the program wrote outside the cache and only ever
+	 * replaces, like takes, by path, with their identity in the pool
+	 * when they were written
+	 */
+	private final HashMap<String, String> written =
+			new HashMap<String, String>();
+
+	/**
+	 * Bytes of every file
+	 */
+	private long bytes = 0;
+
+	/**
+	 * Set when the index on disk is out of date
+	 */
+	private boolean dirty = false;
+
+	/**
+	 * Held while the index is written, so saves land in order without
+	 * holding up the cache
+	 */
+	private final Object saving = new Object();
+
+	/**
+	 * Statistics
+	 */
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * The cache used by the program, writes its index on exit
+	 *
+	 * @return shared cache
+	 */
+	public static synchronized RenderCache shared () {
+		if (shared == null) {
+			shared = new RenderCache(new File(Session.CACHE_DIRECTORY),
+					Long.getLong("easyloop.cache.bytes", DEFAULT_BUDGET));
+
+			final RenderCache cache = shared;
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					cache.save();
+				}
+			}, "Easy Loop cache index"));
+
+			Thread saver = new Thread(new Runnable() {
+				public void run() {
+					while (true) {
+						try {
+							Thread.sleep(SAVE_PERIOD);
+						}
+						catch (InterruptedException e) {
+							return;
+						}
+						cache.save();
+					}
+				}
+			}, "Easy Loop cache saver");
+			saver.setDaemon(true);
+			saver.start();
+		}
+		return shared;
+	}
+
+	/**
+	 * Opens a cache, reading its index if it has one
+	 *
+	 * @param directory where the files live
+	 * @param budget most bytes to keep
+	 */
+	public RenderCache (File directory, long budget) {
+		this.directory = directory;
+		this.budget = budget;
+		directory.mkdirs();
+		load();
+	}
+
+	/**
+	 * Changes the most bytes kept, deleting files if needed
+	 *
+	 * @param budget most bytes to keep
+	 */
+	public synchronized void setBudget (long budget) {
+		this.budget = budget;
+		evict(null);
+		save();
+	}
+
+	/**
+	 * Names a transposition of a file by the file's contents
+	 *
+	 * @param source file transposed
+	 * @param algorithm what made the transposition
+	 * @param transposition semitones shifted by
+	 * @return key for get and put
+	 * @throws IOException if the file can't be read
+	 */
+	public String keyOf (File source, String algorithm, int transposition)
+			throws IOException {
+		return hashOf(source) + "_" + algorithm + "_" + transposition;
+	}
+
+	/**
+	 * Hash of a file's contents, only read from disk the first time
+	 * for each version of the file
+	 *
+	 * @param source file to hash
+	 * @return hash as hex
+	 * @throws IOException if the file can't be read
+	 */
+	public String hashOf (File source) throws IOException {
+		String identity = SamplePool.keyOf(source);
+		String hash;
+		synchronized (this) {
+			hash = hashes.get(identity);
+		}
+
+		if (hash == null) {
+			hash = hash(source);
+			synchronized (this) {
+				hashes.put(identity, hash);
+				dirty = true;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Tells the cache what a file's contents hash to, when it is
+	 * already known, so the file isn't read to hash it
+	 *
+	 * @param source file
+	 * @param hash hash of its contents, from hashOf
+	 * @throws IOException if the file can't be found
+	 */
+	public synchronized void remember (File source, String hash)
+			throws IOException {
+		hashes.put(SamplePool.keyOf(source), hash);
+		dirty = true;
+	}
+
+	/**
+	 * Remembers a file the program wrote somewhere else and moved into
+	 * place, so it can be mapped when it is played
+	 *
+	 * @param file file written
+	 * @throws IOException if the path can't be resolved
+	 */
+	public synchronized void wrote (File file) throws IOException {
+		written.put(file.getCanonicalPath(), SamplePool.keyOf(file));
+		dirty = true;
+	}
+
+	/**
+	 * Whether the program wrote a file and nothing has changed it
+	 * since. Only those are safe to map, as nothing writes over them
+	 *
+	 * @param file file to check
+	 * @return true if it can be mapped
+	 * @throws IOException if the path can't be resolved
+	 */
+	public boolean isWritten (File file) throws IOException {
+		String identity = SamplePool.keyOf(file);
+		String path = file.getCanonicalPath();
+		synchronized (this) {
+			return identity.equals(written.get(path));
+		}
+	}
+
+	/**
+	 * Hashes the contents of a file
+	 */
+	private static String hash (File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Reads a cached transposition
+	 *
+	 * @param key key from keyOf
+	 * @return the sample, or null if it isn't cached
+	 */
+	public Sample get (String key) {
+		synchronized (this) {
+			if (entries.get(key) == null) {
+				misses ++;
+				return null;
+			}
+			hits ++;
+			dirty = true;
+		}
+
+		try {
+			return Sample.map(file(key));
+		}
+		catch (IOException | UnsupportedAudioFileException e) {
+			// Deleted or damaged, it will be made again
+			remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * The file a cached transposition is kept in
+	 *
+	 * @param key key from keyOf
+	 * @return the file, or null if it isn't cached
+	 */
+	public synchronized File find (String key) {
+		if (entries.get(key) == null) return null;
+		dirty = true;
+		return file(key);
+	}
+
+	/**
+	 * Copies a transposition made elsewhere into the cache, unless it
+	 * is already there
+	 *
+	 * @param key key the file was made under
+	 * @param source .wav file to copy
+	 * @throws IOException if the file can't be copied
+	 */
+	public void adopt (String key, File source) throws IOException {
+		synchronized (this) {
+			if (entries.containsKey(key)) return;
+		}
+
+		File file = file(key);
+		File temporary = new File(directory, key + ".part");
+		try {
+			Files.copy(source.toPath(), temporary.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temporary.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			temporary.delete();
+			throw e;
+		}
+		add(key, file);
+	}
+
+	/**
+	 * Writes a transposition to the cache. Failing to write it only
+	 * means it will be made again next time
+	 *
+	 * @param key key from keyOf
+	 * @param sample sample to keep
+	 */
+	public void put (String key, Sample sample) {
+		File file = file(key);
+		File temporary = new File(directory, key + ".part");
+
+		try {
+			WavWriter writer = new WavWriter(temporary, MixEngine.FORMAT);
+			try {
+				write(writer, sample.data);
+			}
+			finally {
+				writer.close();
+			}
+			Files.move(temporary.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			temporary.delete();
+			e.printStackTrace();
+			return;
+		}
+
+		add(key, file);
+	}
+
+	/**
+	 * Counts a file that has been moved into place. The index is
+	 * saved later
+	 */
+	private synchronized void add (String key, File file) {
+		Long old = entries.put(key, file.length());
+		if (old != null) bytes -= old;
+		bytes += file.length();
+		dirty = true;
+		evict(key);
+	}
+
+	/**
+	 * Writes samples out as little endian bytes
+	 */
+	private static void write (WavWriter writer, ShortBuffer data)
+			throws IOException {
+		ShortBuffer samples = data.duplicate();
+		samples.rewind();
+
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		while (samples.hasRemaining()) {
+			buffer.clear();
+			while (samples.hasRemaining() && buffer.hasRemaining()) {
+				buffer.putShort(samples.get());
+			}
+			buffer.flip();
+			writer.write(buffer);
+		}
+	}
+
+	/**
+	 * Forgets a file and deletes it
+	 */
+	private synchronized void remove (String key) {
+		Long size = entries.remove(key);
+		if (size != null) bytes -= size;
+		file(key).delete();
+		dirty = true;
+	}
+
+	/**
+	 * Deletes the least recently used files until the cache fits
+	 *
+	 * @param keep key not to delete, or null
+	 */
+	private synchronized void evict (String keep) {
+		Iterator<Map.Entry<String, Long>> i = entries.entrySet().iterator();
+		while (bytes > budget && i.hasNext()) {
+			Map.Entry<String, Long> entry = i.next();
+			if (entry.getKey().equals(keep)) continue;
+
+			bytes -= entry.getValue();
+			file(entry.getKey()).delete();
+			i.remove();
+			dirty = true;
+		}
+	}
+
+	/**
+	 * File a key is kept in
+	 */
+	private File file (String key) {
+		return new File(directory, key + EXTENTION);
+	}
+
+	/**
+	 * Reads the index. Lines are one of
+	 *   R key bytes
+	 *   S identity hash
+	 *   W path identity
+	 * separated by tabs, renders least recently used first. Files the
+	 * index doesn't know about are deleted, and written files that
+	 * have changed since are forgotten
+	 */
+	private synchronized void load () {
+		File index = new File(directory, INDEX);
+		if (index.exists()) {
+			try (BufferedReader reader = new BufferedReader(
+					new FileReader(index))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] parts = line.split("\t");
+					if (parts.length != 3) continue;
+
+					if (parts[0].equals("R") && file(parts[1]).exists()) {
+						long size = Long.parseLong(parts[2]);
+						entries.put(parts[1], size);
+						bytes += size;
+					}
+					else if (parts[0].equals("S")) {
+						hashes.put(parts[1], parts[2]);
+					}
+					else if (parts[0].equals("W")) {
+						File file = new File(parts[1]);
+						if (file.exists() && SamplePool.keyOf(file)
+								.equals(parts[2])) {
+							written.put(parts[1], parts[2]);
+						}
+					}
+				}
+			}
+			catch (IOException | NumberFormatException e) {
+				// Start again with whatever was read
+				e.printStackTrace();
+			}
+		}
+
+		// Tidy up after anything that wasn't finished
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.equals(INDEX)) continue;
+				if (!name.endsWith(EXTENTION) || !entries.containsKey(
+						name.substring(0, name.length() - EXTENTION.length()))) {
+					file.delete();
+				}
+			}
+		}
+		evict(null);
+	}
+
+	/**
+	 * Writes the index if it has changed. Source hashes no render
+	 * uses any more are left out. Only the copy of the index is made
+	 * holding the cache, it is written without
+	 */
+	public void save () {
+		synchronized (saving) {
+			ArrayList<String> lines = new ArrayList<String>();
+			synchronized (this) {
+				if (!dirty) return;
+
+				HashSet<String> used = new HashSet<String>();
+				for (String key : entries.keySet()) {
+					used.add(key.substring(0, key.indexOf('_')));
+				}
+
+				for (Map.Entry<String, Long> entry : entries.entrySet()) {
+					lines.add("R\t" + entry.getKey() + "\t"
+							+ entry.getValue());
+				}
+				for (Map.Entry<String, String> entry : hashes.entrySet()) {
+					if (used.contains(entry.getValue())) {
+						lines.add("S\t" + entry.getKey() + "\t"
+								+ entry.getValue());
+					}
+				}
+				for (Map.Entry<String, String> entry : written.entrySet()) {
+					lines.add("W\t" + entry.getKey() + "\t"
+							+ entry.getValue());
+				}
+				dirty = false;
+			}
+
+			File index = new File(directory, INDEX);
+			File temporary = new File(directory, INDEX + ".part");
+			try {
+				try (PrintWriter writer = new PrintWriter(temporary)) {
+					for (String line : lines) writer.println(line);
+					if (writer.checkError()) {
+						throw new IOException("Couldn't write " + temporary);
+					}
+				}
+				Files.move(temporary.toPath(), index.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (IOException e) {
+				// Try again next time
+				synchronized (this) {
+					dirty = true;
+				}
+				temporary.delete();
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Number of files kept
+	 *
+	 * @return files
+	 */
+	public synchronized int size () {
+		return entries.size();
+	}
+
+	/**
+	 * Bytes of files kept
+	 *
+	 * @return bytes
+	 */
+	public synchronized long getBytes () {
+		return bytes;
+	}
+
+	/**
+	 * Transpositions found in the cache
+	 *
+	 * @return hits
+	 */
+	public synchronized long getHits () {
+		return hits;
+	}
+
+	/**
+	 * Transpositions that had to be made
+	 *
+	 * @return misses
+	 */
+	public synchronized long getMisses () {
+		return misses;
+	}
+}
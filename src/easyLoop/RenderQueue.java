@@ -0,0 +1,332 @@
+/**
+ * Makes transpositions in the background while the tracks play, the
+ * ones needed soonest first. Until a transposition is made it plays a
+ * rough preview, and until the preview is made it doesn't play at all,
+ * so playback never waits on a render
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.IOException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+public class RenderQueue {
+
+	/**
+	 * Queue shared by the whole program
+	 */
+	private final static RenderQueue SHARED = new RenderQueue();
+
+	/**
+	 * Stages of a render
+	 */
+	private final static int PREVIEW = 0;
+	private final static int FULL = 1;
+	private final static int DONE = 2;
+
+	/**
+	 * Workers, taking the most urgent render first
+	 */
+	private final ThreadPoolExecutor workers;
+
+	/**
+	 * Order renders were asked for, to break ties
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * Where samples come from
+	 */
+	private final SamplePool pool = SamplePool.shared();
+
+	/**
+	 * Renders needed before they were made, linked through their
+	 * nextWanted. Pushed to without locking by the transport, and
+	 * moved to the front of the queue by a worker between renders
+	 */
+	private final AtomicReference<Handle> wants =
+			new AtomicReference<Handle>();
+
+	/**
+	 * A transposition that may not have been made yet
+	 */
+	public class Handle implements Runnable, Comparable<Handle> {
+
+		/**
+		 * What to make
+		 */
+		private final AudioTrack track;
+		private final int transposition;
+
+		/**
+		 * Loop it is first needed on, counted from the start of
+		 * playback, and when it was asked for
+		 */
+		private volatile long loop;
+		private final long order = sequence.getAndIncrement();
+
+		/**
+		 * What it has made so far
+		 */
+		private volatile Sample preview;
+		private volatile Sample sample;
+		private volatile int stage = PREVIEW;
+		private boolean released = false;
+
+		/**
+		 * Set when it was needed before it was made. The workers read
+		 * it, so the transport never takes a lock to hurry it
+		 */
+		private final AtomicBoolean wanted = new AtomicBoolean();
+
+		/**
+		 * Next render in wants
+		 */
+		private Handle nextWanted;
+
+		Handle (AudioTrack track, int transposition, long loop) {
+			this.track = track;
+			this.transposition = transposition;
+			this.loop = loop;
+		}
+
+		/**
+		 * Previews before full renders, then the soonest needed first
+		 */
+		public int compareTo (Handle other) {
+			int stages = stage - other.stage;
+			if (stages != 0) return stages;
+			if (loop != other.loop) return loop < other.loop ? -1 : 1;
+			return order < other.order ? -1 : order > other.order ? 1 : 0;
+		}
+
+		/**
+		 * Makes the next stage on a worker
+		 */
+		public void run () {
+			if (stage == PREVIEW) {
+				try {
+					if (!isReleased()) preview = makePreview();
+				}
+				catch (IOException | UnsupportedAudioFileException e) {
+					// The full render will say what went wrong
+				}
+
+				// Back in the queue for the real thing, at the front
+				// if it has been needed already
+				synchronized (this) {
+					if (wanted.get()) loop = Long.MIN_VALUE;
+					stage = released ? DONE : FULL;
+					if (!released) workers.execute(this);
+				}
+				return;
+			}
+
+			Sample made = null;
+			try {
+				made = track.transpose(transposition);
+			}
+			catch (IOException | UnsupportedAudioFileException e) {
+				// The preview carries on in its place
+				e.printStackTrace();
+			}
+
+			synchronized (this) {
+				if (!released) {
+					sample = made;
+					made = null;
+				}
+				stage = DONE;
+				notifyAll();
+			}
+			if (made != null) pool.release(made);
+		}
+
+		/**
+		 * Resamples the track, which shifts the pitch but changes its
+		 * length too
+		 */
+		private Sample makePreview ()
+				throws IOException, UnsupportedAudioFileException {
+			Sample source = track.acquire(track.track);
+			try {
+				return PitchShifter.varispeed(source, transposition);
+			}
+			finally {
+				pool.release(source);
+			}
+		}
+
+		/**
+		 * The best there is to play right now. Never waits
+		 *
+		 * @return the transposition, its preview, or null if neither
+		 * has been made
+		 */
+		public Sample get () {
+			Sample made = sample;
+			return made != null ? made : preview;
+		}
+
+		/**
+		 * Whether the full transposition has been made
+		 *
+		 * @return true once it is made
+		 */
+		public boolean isReady () {
+			return sample != null;
+		}
+
+		/**
+		 * Moves the render to the front of the queue, for when it is
+		 * needed and isn't made yet
+		 */
+		public synchronized void hurry () {
+			if (stage == DONE || loop == Long.MIN_VALUE) return;
+
+			// Its place in the queue can only change while it is out
+			boolean queued = workers.remove(this);
+			loop = Long.MIN_VALUE;
+			if (queued) workers.execute(this);
+		}
+
+		/**
+		 * Marks the render as needed now. Never blocks, so it is safe
+		 * to call while timing loops. The next worker to finish a
+		 * render moves it to the front
+		 */
+		public void want () {
+			if (wanted.get() || !wanted.compareAndSet(false, true)) return;
+
+			Handle head;
+			do {
+				head = wants.get();
+				nextWanted = head;
+			} while (!wants.compareAndSet(head, this));
+		}
+
+		/**
+		 * Hurries the render and waits for it
+		 *
+		 * @return the transposition, or null if it couldn't be made
+		 * @throws InterruptedException if the wait is interrupted
+		 */
+		public Sample await () throws InterruptedException {
+			hurry();
+			synchronized (this) {
+				while (stage != DONE && !released) wait();
+				return released ? null : sample;
+			}
+		}
+
+		/**
+		 * Lets go of the transposition, stopping the render if it
+		 * hasn't started. What was made can still be played by an
+		 * order that hasn't been swapped out yet, the pool just stops
+		 * counting it
+		 */
+		public void release () {
+			workers.remove(this);
+			Sample made;
+			synchronized (this) {
+				if (released) return;
+				released = true;
+				made = sample;
+				notifyAll();
+			}
+			if (made != null) pool.release(made);
+		}
+
+		private synchronized boolean isReleased () {
+			return released;
+		}
+	}
+
+	/**
+	 * Creates a queue with a worker for each processor
+	 */
+	public RenderQueue () {
+		int threads = Runtime.getRuntime().availableProcessors();
+		workers = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread (Runnable r) {
+						Thread thread = new Thread(r, "Easy Loop render "
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				}) {
+			/**
+			 * Moves anything needed to the front before the worker
+			 * takes its next render
+			 */
+			protected void afterExecute (Runnable r, Throwable t) {
+				hurryWanted();
+			}
+		};
+	}
+
+	/**
+	 * Hurries every render the transport has asked for since the
+	 * last time
+	 */
+	private void hurryWanted () {
+		Handle handle = wants.getAndSet(null);
+		while (handle != null) {
+			Handle next = handle.nextWanted;
+			handle.nextWanted = null;
+			handle.hurry();
+			handle = next;
+		}
+	}
+
+	/**
+	 * The queue used by every track
+	 *
+	 * @return shared queue
+	 */
+	public static RenderQueue shared () {
+		return SHARED;
+	}
+
+	/**
+	 * Asks for a transposition
+	 *
+	 * @param track track to transpose
+	 * @param transposition semitones to shift by
+	 * @param loop loop it is first needed on, counted from the start
+	 * of playback
+	 * @return handle to play it through, to be released when done with
+	 */
+	public Handle request (AudioTrack track, int transposition, long loop) {
+		Handle handle = new Handle(track, transposition, loop);
+		workers.execute(handle);
+		return handle;
+	}
+
+	/**
+	 * Renders waiting for a worker
+	 *
+	 * @return queued renders
+	 */
+	public int getQueued () {
+		return workers.getQueue().size();
+	}
+}
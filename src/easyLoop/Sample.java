@@ -0,0 +1,168 @@
+/**
+ * Decoded audio held in memory in the format the mix engine plays
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+public class Sample {
+
+	/**
+	 * Size of the buffer used while decoding
+	 */
+	public final static int READ_BUFFER = 16384;
+
+	/**
+	 * Interleaved stereo sample data
+	 */
+	final ShortBuffer data;
+
+	/**
+	 * Length in frames
+	 */
+	final int frames;
+
+	/**
+	 * Wraps already decoded data
+	 *
+	 * @param data interleaved stereo samples in the engine format
+	 */
+	public Sample (ShortBuffer data) {
+		this.data = data;
+		this.frames = data.limit() / MixEngine.CHANNELS;
+	}
+
+	/**
+	 * Length of the sample in frames
+	 *
+	 * @return frames
+	 */
+	public int getFrames () {
+		return frames;
+	}
+
+	/**
+	 * Maps a file the program wrote, if it is already in the engine
+	 * format, and decodes it otherwise. Only for files that are never
+	 * written over while held, only replaced, like cache entries
+	 *
+	 * @param file file to map
+	 * @return the sample
+	 * @throws IOException if the file can't be read
+	 * @throws UnsupportedAudioFileException if java can't read the format
+	 */
+	public static Sample map (File file)
+			throws IOException, UnsupportedAudioFileException {
+		// A .wav already in the engine format plays straight from
+		// the mapped file
+		try {
+			WavReader wav = new WavReader(file);
+			if (wav.isEngineFormat()) return new Sample(wav.getSamples());
+		}
+		catch (UnsupportedAudioFileException e) {
+			// Not a plain .wav, let java decode it
+		}
+
+		return decode(file);
+	}
+
+	/**
+	 * Reads and converts a file to the engine format. The audio is
+	 * copied into the heap, so the file may change while it is held
+	 *
+	 * @param file file to decode
+	 * @return the decoded sample
+	 * @throws IOException if the file can't be read
+	 * @throws UnsupportedAudioFileException if java can't read the format
+	 */
+	public static Sample decode (File file)
+			throws IOException, UnsupportedAudioFileException {
+		AudioInputStream stream = AudioSystem.getAudioInputStream(file);
+
+		try {
+			stream = convert(stream);
+
+			// Size the samples from the length when it's known, so the
+			// file is read straight in and not copied round the heap
+			long length = stream.getFrameLength();
+			short[] samples = new short[length == AudioSystem.NOT_SPECIFIED
+					? READ_BUFFER
+					: (int) Math.min(length * MixEngine.CHANNELS,
+							Integer.MAX_VALUE - 8)];
+			byte[] buffer = new byte[READ_BUFFER];
+			int count = 0;
+			int kept = 0;
+			int read;
+			while ((read = stream.read(buffer, kept, buffer.length - kept))
+					!= -1) {
+				kept += read;
+				int pairs = kept / 2;
+				if (count + pairs > samples.length) {
+					samples = Arrays.copyOf(samples, (int) Math.min(
+							Math.max((long) samples.length * 2,
+									count + pairs),
+							Integer.MAX_VALUE - 8));
+				}
+
+				// Engine format is little endian
+				for (int i = 0; i < pairs; i ++) {
+					samples[count ++] = (short) ((buffer[i * 2] & 0xff)
+							| buffer[i * 2 + 1] << 8);
+				}
+
+				// Keep half a sample for the next read
+				kept -= pairs * 2;
+				if (kept > 0) buffer[0] = buffer[pairs * 2];
+			}
+
+			if (count != samples.length) {
+				samples = Arrays.copyOf(samples, count);
+			}
+			return new Sample(ShortBuffer.wrap(samples));
+		}
+		finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Converts a stream to the engine format, going through
+	 * 16 bit PCM first in case the source is compressed
+	 *
+	 * @param stream stream to convert
+	 * @return stream in MixEngine.FORMAT
+	 * @throws UnsupportedAudioFileException if no conversion exists
+	 */
+	static AudioInputStream convert (AudioInputStream stream)
+			throws UnsupportedAudioFileException {
+		AudioFormat source = stream.getFormat();
+		if (source.matches(MixEngine.FORMAT)) return stream;
+
+		try {
+			// Get to signed 16 bit at the source rate and channels
+			AudioFormat pcm = new AudioFormat(source.getSampleRate(), 16,
+					source.getChannels(), true, false);
+			if (!source.matches(pcm)) {
+				stream = AudioSystem.getAudioInputStream(pcm, stream);
+			}
+
+			return AudioSystem.getAudioInputStream(MixEngine.FORMAT, stream);
+		}
+		catch (IllegalArgumentException e) {
+			throw new UnsupportedAudioFileException(e.getMessage());
+		}
+	}
+}
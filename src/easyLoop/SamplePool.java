@@ -0,0 +1,223 @@
+/**
+ * Holds every decoded file once so tracks can share them
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+public class SamplePool {
+
+	/**
+	 * Pool shared by the whole program
+	 */
+	private final static SamplePool SHARED = new SamplePool();
+
+	/**
+	 * Makes a sample the first time it is asked for
+	 */
+	public interface Source {
+		/**
+		 * Creates the sample
+		 *
+		 * @return new sample
+		 * @throws IOException if a file can't be read
+		 * @throws UnsupportedAudioFileException if java can't read a format
+		 */
+		Sample create () throws IOException, UnsupportedAudioFileException;
+	}
+
+	/**
+	 * A sample and who is using it
+	 */
+	private static class Entry {
+		final String key;
+		Sample sample;
+		int references = 0;
+
+		Entry (String key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Entries by file identity
+	 */
+	private final HashMap<String, Entry> entries =
+			new HashMap<String, Entry>();
+
+	/**
+	 * Entries by sample, for releasing
+	 */
+	private final IdentityHashMap<Sample, Entry> bySample =
+			new IdentityHashMap<Sample, Entry>();
+
+	/**
+	 * Bytes of audio held
+	 */
+	private long bytes = 0;
+
+	/**
+	 * The pool used by every track
+	 *
+	 * @return shared pool
+	 */
+	public static SamplePool shared () {
+		return SHARED;
+	}
+
+	/**
+	 * Identity of a file. A rewritten file is a different entry
+	 *
+	 * @param file file to identify
+	 * @return key
+	 * @throws IOException if the path can't be resolved
+	 */
+	static String keyOf (File file) throws IOException {
+		return file.getCanonicalPath() + ":" + file.length() + ":"
+				+ file.lastModified();
+	}
+
+	/**
+	 * Gets the decoded file, decoding it if nobody holds it yet.
+	 * Every acquire needs a matching release
+	 *
+	 * @param file file to get
+	 * @return the shared sample
+	 * @throws IOException if the file can't be read
+	 * @throws UnsupportedAudioFileException if java can't read the format
+	 */
+	public Sample acquire (File file)
+			throws IOException, UnsupportedAudioFileException {
+		return acquire(file, false);
+	}
+
+	/**
+	 * Gets the decoded file, decoding or mapping it if nobody holds
+	 * it yet. Every acquire needs a matching release
+	 *
+	 * @param file file to get
+	 * @param map true to map it, only for files that are never
+	 * written over, see Sample.map
+	 * @return the shared sample
+	 * @throws IOException if the file can't be read
+	 * @throws UnsupportedAudioFileException if java can't read the format
+	 */
+	public Sample acquire (final File file, final boolean map)
+			throws IOException, UnsupportedAudioFileException {
+		return acquire(keyOf(file), new Source() {
+			public Sample create ()
+					throws IOException, UnsupportedAudioFileException {
+				return map ? Sample.map(file) : Sample.decode(file);
+			}
+		});
+	}
+
+	/**
+	 * Gets a sample by key, creating it if nobody holds it yet.
+	 * Every acquire needs a matching release
+	 *
+	 * @param key identity of the sample
+	 * @param source makes the sample if it isn't held
+	 * @return the shared sample
+	 * @throws IOException if a file can't be read
+	 * @throws UnsupportedAudioFileException if java can't read a format
+	 */
+	public Sample acquire (String key, Source source)
+			throws IOException, UnsupportedAudioFileException {
+		Entry entry;
+
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry(key);
+				entries.put(key, entry);
+			}
+			entry.references ++;
+		}
+
+		// Create outside the pool lock so other samples aren't held up
+		synchronized (entry) {
+			if (entry.sample == null) {
+				try {
+					entry.sample = source.create();
+				}
+				catch (IOException | UnsupportedAudioFileException e) {
+					drop(entry);
+					throw e;
+				}
+
+				synchronized (this) {
+					bySample.put(entry.sample, entry);
+					bytes += entry.sample.data.capacity() * 2L;
+				}
+			}
+			return entry.sample;
+		}
+	}
+
+	/**
+	 * Takes another reference to a sample that is already held.
+	 * Needs a matching release
+	 *
+	 * @param sample sample from acquire
+	 * @return the same sample
+	 */
+	public synchronized Sample retain (Sample sample) {
+		Entry entry = bySample.get(sample);
+		if (entry != null) entry.references ++;
+		return sample;
+	}
+
+	/**
+	 * Lets go of a sample, freeing it when nobody else holds it
+	 *
+	 * @param sample sample from acquire
+	 */
+	public synchronized void release (Sample sample) {
+		Entry entry = bySample.get(sample);
+		if (entry != null) drop(entry);
+	}
+
+	/**
+	 * Removes one reference from an entry
+	 *
+	 * @param entry entry to drop
+	 */
+	private synchronized void drop (Entry entry) {
+		if (-- entry.references > 0) return;
+
+		entries.remove(entry.key);
+		if (entry.sample != null) {
+			bySample.remove(entry.sample);
+			bytes -= entry.sample.data.capacity() * 2L;
+		}
+	}
+
+	/**
+	 * Number of files held
+	 *
+	 * @return entries
+	 */
+	public synchronized int size () {
+		return entries.size();
+	}
+
+	/**
+	 * Bytes of decoded audio held
+	 *
+	 * @return bytes
+	 */
+	public synchronized long getBytes () {
+		return bytes;
+	}
+}
@@ -0,0 +1,428 @@
+/**
+ * The contents of a save file, without any of the windows.
+ *
+ * Sessions are saved in a binary format that is read and written as a
+ * stream. The file starts with a magic number and a version, then the
+ * session's settings. Each track follows as a record with its length
+ * in front, so a reader can skip fields added by later versions. Saves
+ * from before this format, a single line of "@" separated text, can
+ * still be opened
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+public class Session {
+
+	/**
+	 * Directory
+	 */
+	public final static String DIRECTORY = System.getProperty("user.dir")+"/";
+	public final static String TRACK_DIRECTORY = DIRECTORY + "tracks/";
+	public final static String SAVES_DIRECTORY = DIRECTORY + "saves/";
+	public final static String CACHE_DIRECTORY = DIRECTORY + "cache/";
+
+	/**
+	 * So the load function knows how many values to cycle through
+	 * in the old text saves
+	 */
+	public final static int SAVE_ARRAY_LENGTH = 3;
+
+	/**
+	 * Extensions of saves, and of saves in the old text format
+	 */
+	public final static String EXTENTION = ".els";
+	public final static String TEXT_EXTENTION = ".txt";
+
+	/**
+	 * First four bytes of a save, "ELSS"
+	 */
+	public final static int MAGIC = 0x454C5353;
+
+	/**
+	 * Version of the format written. Versions with new fields on the
+	 * end of a record can still be read by older readers
+	 */
+	public final static int VERSION = 1;
+
+	/**
+	 * How ! > and | are stored in a pattern, out of the range of
+	 * transpositions
+	 */
+	private final static int BREAK = Integer.MIN_VALUE;
+	private final static int SKIP = Integer.MIN_VALUE + 1;
+	private final static int JOIN = Integer.MIN_VALUE + 2;
+
+	/**
+	 * Longest track record read, so a bad length can't ask for more
+	 * memory than any real track needs
+	 */
+	private final static int MAX_RECORD = 1 << 24;
+
+	/**
+	 * Size of the buffer used while reading an old text save
+	 */
+	private final static int READ_BUFFER = 4096;
+
+	/**
+	 * A pattern and a number as the old text saves wrote them
+	 */
+	private final static Pattern TEXT_PATTERN =
+			Pattern.compile("(-?\\d+|[!>|])(,(-?\\d+|[!>|]))*,?");
+	private final static Pattern TEXT_NUMBER = Pattern.compile("-?\\d+");
+
+	/**
+	 * Number of tracks
+	 */
+	int trackNumber = 0;
+
+	/**
+	 * Length of a loop in seconds
+	 */
+	double loopLength = .75;
+
+	/**
+	 * Index of main track
+	 */
+	int mainTrackIndex = -1;
+
+	/**
+	 * File of each track, null if it has none
+	 */
+	ArrayList<String> fileList = new ArrayList<String>();
+
+	/**
+	 * Sequences for transposition
+	 */
+	ArrayList<ArrayList<Object>> patternList =
+			new ArrayList<ArrayList<Object>>();
+
+	/**
+	 * Whether each track is playing
+	 */
+	ArrayList<Boolean> playingList = new ArrayList<Boolean>();
+
+	/**
+	 * Rate of occurrence of each track
+	 */
+	ArrayList<Integer> maxList = new ArrayList<Integer>();
+
+	/**
+	 * Current repetition of each track
+	 */
+	ArrayList<Integer> currentList = new ArrayList<Integer>();
+
+	/**
+	 * Reads a save file, in either format
+	 *
+	 * @param loadFile file to load
+	 * @return the session in it
+	 * @throws IOException If there is a problem with reading the file
+	 * @throws NullPointerException If the file is bad
+	 * @throws NumberFormatException If the file is bad
+	 */
+	public static Session read (String loadFile) throws IOException,
+		NullPointerException, NumberFormatException {
+
+		try (BufferedInputStream input = new BufferedInputStream(
+				new FileInputStream(loadFile))) {
+			// Look at the start to tell which format it is
+			input.mark(4);
+			DataInputStream data = new DataInputStream(input);
+			boolean binary;
+			try {
+				binary = data.readInt() == MAGIC;
+			}
+			catch (EOFException e) {
+				binary = false;
+			}
+
+			if (binary) return readBinary(data);
+
+			input.reset();
+			return readText(input);
+		}
+	}
+
+	/**
+	 * Reads a save in the binary format, after the magic number
+	 */
+	private static Session readBinary (DataInputStream input)
+			throws IOException {
+		int version = input.readUnsignedShort();
+		if (version > VERSION) {
+			throw new IOException("Saved by a newer version: " + version);
+		}
+
+		Session session = new Session();
+		try {
+			readTracks(input, session);
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Track record too short.", e);
+		}
+		return session;
+	}
+
+	/**
+	 * Reads the settings and every track record
+	 */
+	private static void readTracks (DataInputStream input, Session session)
+			throws IOException {
+		session.loopLength = input.readDouble();
+		session.mainTrackIndex = input.readInt();
+		session.trackNumber = input.readInt();
+		if (session.trackNumber < 0) {
+			throw new IOException("Bad track count: " + session.trackNumber);
+		}
+		checkMainTrack(session);
+
+		for (int i = 0; i < session.trackNumber; i++) {
+			// Read the whole record so later fields can be skipped
+			int length = input.readInt();
+			if (length < 0 || length > MAX_RECORD) {
+				throw new IOException("Bad track record length: " + length);
+			}
+			byte[] record = new byte[length];
+			input.readFully(record);
+			ByteBuffer track = ByteBuffer.wrap(record);
+
+			String path = null;
+			if (track.get() != 0) {
+				int size = track.getInt();
+				if (size < 0 || size > track.remaining()) {
+					throw new IOException("Bad file name length: " + size);
+				}
+				byte[] name = new byte[size];
+				track.get(name);
+				path = new String(name, StandardCharsets.UTF_8);
+			}
+			session.fileList.add(path);
+			session.playingList.add(track.get() != 0);
+			session.maxList.add(track.getInt());
+			session.currentList.add(track.getInt());
+
+			// Every pattern has at least one step
+			int steps = track.getInt();
+			if (steps <= 0 || steps > track.remaining() / 4) {
+				throw new IOException("Bad pattern length: " + steps);
+			}
+			ArrayList<Object> pattern = new ArrayList<Object>(steps);
+			for (int j = 0; j < steps; j++) {
+				int step = track.getInt();
+				if (step == BREAK) pattern.add("!");
+				else if (step == SKIP) pattern.add(">");
+				else if (step == JOIN) pattern.add("|");
+				else pattern.add(step);
+			}
+			session.patternList.add(pattern);
+		}
+	}
+
+	/**
+	 * Reads a save in the old text format
+	 */
+	private static Session readText (InputStream input)
+			throws IOException {
+		String saveFile = new BufferedReader(new StringReader(
+				decodeText(input))).readLine();
+
+		Session session = new Session();
+		String[] saveArray = saveFile.split("@");
+
+		session.trackNumber = Integer.parseInt(saveArray[0]);
+		session.loopLength = Double.valueOf(saveArray[1]);
+		session.mainTrackIndex = Integer.valueOf(saveArray[2]);
+
+		int saveIndex = SAVE_ARRAY_LENGTH;
+		for (int i = 0; i < session.trackNumber; i++) {
+			// The @ in a path weren't escaped, so a path runs up to
+			// the fields that end the track
+			int end = saveIndex;
+			while (end + 4 < saveArray.length
+					&& !isTrackEnd(saveArray, end + 1)) {
+				end ++;
+			}
+			if (end + 4 >= saveArray.length) end = saveIndex;
+
+			StringBuilder path = new StringBuilder(saveArray[saveIndex]);
+			while (saveIndex < end) {
+				path.append('@').append(saveArray[++ saveIndex]);
+			}
+			session.fileList.add(path.toString().equals("null")
+					? null : path.toString());
+			saveIndex ++;
+
+			// Generate pattern from text
+			session.patternList.add(parsePattern(
+					saveArray[saveIndex].split(",")));
+			saveIndex ++;
+
+			session.playingList.add(saveArray[saveIndex].equals("true"));
+			saveIndex ++;
+
+			session.maxList.add(Integer.valueOf(saveArray[saveIndex]));
+			saveIndex ++;
+
+			session.currentList.add(Integer.valueOf(saveArray[saveIndex]));
+			saveIndex ++;
+		}
+		checkMainTrack(session);
+		return session;
+	}
+
+	/**
+	 * Whether the fields from an index are the pattern, playing,
+	 * rate and count that end a track in the old text format
+	 */
+	private static boolean isTrackEnd (String[] saveArray, int index) {
+		return TEXT_PATTERN.matcher(saveArray[index]).matches()
+				&& (saveArray[index + 1].equals("true")
+				|| saveArray[index + 1].equals("false"))
+				&& TEXT_NUMBER.matcher(saveArray[index + 2]).matches()
+				&& TEXT_NUMBER.matcher(saveArray[index + 3]).matches();
+	}
+
+	/**
+	 * Reads the whole of an old text save. They were written in the
+	 * platform's charset, so one that isn't UTF-8 is read in that
+	 */
+	private static String decodeText (InputStream input)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[READ_BUFFER];
+		int read;
+		while ((read = input.read(buffer)) != -1) {
+			bytes.write(buffer, 0, read);
+		}
+
+		try {
+			return StandardCharsets.UTF_8.newDecoder().decode(
+					ByteBuffer.wrap(bytes.toByteArray())).toString();
+		}
+		catch (CharacterCodingException e) {
+			return new String(bytes.toByteArray(), Charset.defaultCharset());
+		}
+	}
+
+	/**
+	 * Makes sure the main track is one of the tracks, or none
+	 *
+	 * @throws IOException If it is out of range
+	 */
+	private static void checkMainTrack (Session session)
+			throws IOException {
+		if (session.mainTrackIndex < -1
+				|| session.mainTrackIndex >= session.trackNumber) {
+			throw new IOException("Bad main track: "
+					+ session.mainTrackIndex);
+		}
+	}
+
+	/**
+	 * Writes the session in the binary format. It is written beside
+	 * the file and moved into place, so a failed save never leaves
+	 * half a file
+	 *
+	 * @param saveFile file to write
+	 * @throws IOException If there is a problem with writing the file
+	 */
+	public void write (String saveFile) throws IOException {
+		File file = new File(saveFile);
+		File part = new File(saveFile + ".part");
+
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(part)))) {
+			output.writeInt(MAGIC);
+			output.writeShort(VERSION);
+			output.writeDouble(loopLength);
+			output.writeInt(mainTrackIndex);
+			output.writeInt(trackNumber);
+
+			// Each track is put together first to know its length
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream record = new DataOutputStream(bytes);
+			for (int i = 0; i < trackNumber; i++) {
+				bytes.reset();
+
+				String path = fileList.get(i);
+				record.writeBoolean(path != null);
+				if (path != null) {
+					byte[] name = path.getBytes(StandardCharsets.UTF_8);
+					record.writeInt(name.length);
+					record.write(name);
+				}
+				record.writeBoolean(playingList.get(i));
+				record.writeInt(maxList.get(i));
+				record.writeInt(currentList.get(i));
+
+				ArrayList<Object> pattern = patternList.get(i);
+				record.writeInt(pattern.size());
+				for (Object step : pattern) {
+					if (step.equals("!")) record.writeInt(BREAK);
+					else if (step.equals(">")) record.writeInt(SKIP);
+					else if (step.equals("|")) record.writeInt(JOIN);
+					else record.writeInt((Integer) step);
+				}
+				record.flush();
+
+				output.writeInt(bytes.size());
+				bytes.writeTo(output);
+			}
+		}
+		catch (IOException e) {
+			part.delete();
+			throw e;
+		}
+
+		Files.move(part.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Turns pattern text into a pattern
+	 *
+	 * @param steps integers or ! or > or |
+	 * @return pattern
+	 * @throws NumberFormatException if a step is bad
+	 */
+	public static ArrayList<Object> parsePattern (String[] steps)
+			throws NumberFormatException {
+		ArrayList<Object> pattern = new ArrayList<Object>();
+		for (String s : steps) {
+			if (!s.equals("!") && !s.equals(">") && !s.equals("|")) {
+				pattern.add(Integer.parseInt(s));
+			}
+			else {
+				pattern.add(s);
+			}
+		}
+		return pattern;
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * A session saved in a folder with everything it needs to play, so it
+ * can be opened on another machine and played without preparing.
+ * Files are named by the hash of what they were made from, the same
+ * names the render cache uses:
+ *
+ *   name.elb/session.els              the session, with paths into
+ *                                     the folder
+ *   name.elb/audio/hash/file.wav      each track's file
+ *   name.elb/renders/key.wav          each transposition the patterns
+ *                                     use, key from RenderCache.keyOf
+ *
+ * Opening a bundle hands its transpositions to the render cache, so
+ * preparing finds them all there
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+public class SessionBundle {
+
+	/**
+	 * Extension of the folder
+	 */
+	public final static String EXTENTION = ".elb";
+
+	/**
+	 * What is inside it
+	 */
+	public final static String SESSION = "session" + Session.EXTENTION;
+	public final static String AUDIO = "audio";
+	public final static String RENDERS = "renders";
+
+	/**
+	 * Where transpositions come from
+	 */
+	private final static RenderCache cache = RenderCache.shared();
+
+	/**
+	 * Where samples come from
+	 */
+	private final static SamplePool pool = SamplePool.shared();
+
+	/**
+	 * Whether a folder is a bundle
+	 *
+	 * @param folder folder to check
+	 * @return true if it holds a bundled session
+	 */
+	public static boolean isBundle (File folder) {
+		return folder != null && new File(folder, SESSION).isFile()
+				&& new File(folder, AUDIO).isDirectory();
+	}
+
+	/**
+	 * Reads a save of any kind. A bundle can be opened by its folder
+	 * or by the session inside it
+	 *
+	 * @param loadFile save, bundle, or session in a bundle
+	 * @return the session
+	 * @throws IOException If there is a problem with reading the file
+	 * @throws NullPointerException If the file is bad
+	 * @throws NumberFormatException If the file is bad
+	 */
+	public static Session open (String loadFile) throws IOException,
+		NullPointerException, NumberFormatException {
+		File file = new File(loadFile).getAbsoluteFile();
+		if (isBundle(file)) return read(file);
+		if (file.getName().equals(SESSION) && isBundle(file.getParentFile())) {
+			return read(file.getParentFile());
+		}
+		return Session.read(loadFile);
+	}
+
+	/**
+	 * Reads a bundle, handing its transpositions to the render cache
+	 *
+	 * @param folder bundle
+	 * @return the session, with paths to the files in the bundle
+	 * @throws IOException If there is a problem with reading the bundle
+	 */
+	public static Session read (File folder) throws IOException {
+		Session session = Session.read(new File(folder, SESSION).getPath());
+
+		for (int i = 0; i < session.trackNumber; i ++) {
+			String path = session.fileList.get(i);
+			if (path == null || new File(path).isAbsolute()) continue;
+
+			// Named by its hash, so it needn't be read to hash it
+			File file = new File(folder, path);
+			session.fileList.set(i, file.getPath());
+			if (file.exists()) {
+				cache.remember(file, file.getParentFile().getName());
+			}
+		}
+
+		File[] renders = new File(folder, RENDERS).listFiles();
+		if (renders != null) {
+			for (File render : renders) {
+				String name = render.getName();
+				if (!name.endsWith(RenderCache.EXTENTION)) continue;
+				cache.adopt(name.substring(0, name.length()
+						- RenderCache.EXTENTION.length()), render);
+			}
+		}
+		cache.save();
+		return session;
+	}
+
+	/**
+	 * Writes a session and everything it needs to a bundle. Anything
+	 * not in the render cache is transposed first, so this can take a
+	 * while for a session that hasn't been prepared. Files the session
+	 * no longer uses are taken out of the bundle
+	 *
+	 * @param session session to bundle
+	 * @param folder bundle to write
+	 * @throws IOException if a file can't be read, transposed or written
+	 */
+	public static void write (Session session, File folder)
+			throws IOException {
+		File audio = new File(folder, AUDIO);
+		File renders = new File(folder, RENDERS);
+		audio.mkdirs();
+		renders.mkdirs();
+
+		// The copy saved points into the bundle
+		Session bundled = new Session();
+		bundled.trackNumber = session.trackNumber;
+		bundled.loopLength = session.loopLength;
+		bundled.mainTrackIndex = session.mainTrackIndex;
+		bundled.playingList.addAll(session.playingList);
+		bundled.maxList.addAll(session.maxList);
+		bundled.currentList.addAll(session.currentList);
+
+		HashSet<String> used = new HashSet<String>();
+		for (int i = 0; i < session.trackNumber; i ++) {
+			ArrayList<Object> pattern = session.patternList.get(i);
+			bundled.patternList.add(pattern);
+
+			String path = session.fileList.get(i);
+			if (path == null) {
+				bundled.fileList.add(null);
+				continue;
+			}
+
+			File source = new File(path);
+			String hash = cache.hashOf(source);
+			String name = AUDIO + "/" + hash + "/" + source.getName();
+			copy(source, new File(folder, name));
+			bundled.fileList.add(name);
+			used.add(hash);
+
+			for (Object o : pattern) {
+				if (!(o instanceof Integer) || (int) o == 0) continue;
+
+				String key = cache.keyOf(source, PitchShifter.ALGORITHM,
+						(int) o);
+				File render = new File(renders, key + RenderCache.EXTENTION);
+				used.add(render.getName());
+				if (render.exists()) continue;
+
+				copy(made(source, (int) o, key), render);
+			}
+		}
+
+		// Anything left over belongs to an older version of the session
+		tidy(audio, used);
+		tidy(renders, used);
+		cache.save();
+
+		bundled.write(new File(folder, SESSION).getPath());
+	}
+
+	/**
+	 * The cached file of a transposition, making it if it isn't cached
+	 */
+	private static File made (File source, int transposition, String key)
+			throws IOException {
+		File made = cache.find(key);
+		if (made != null) return made;
+
+		AudioTrack track = new AudioTrack();
+		track.setTrack(source);
+		try {
+			// A transposition some track holds is shared rather than
+			// made, so it may need writing out
+			Sample sample = track.transpose(transposition);
+			try {
+				if (cache.find(key) == null) cache.put(key, sample);
+			}
+			finally {
+				pool.release(sample);
+			}
+		}
+		catch (UnsupportedAudioFileException e) {
+			throw new IOException("Unsupported Format.", e);
+		}
+
+		made = cache.find(key);
+		if (made == null) {
+			throw new IOException("Couldn't keep transposition " + key);
+		}
+		return made;
+	}
+
+	/**
+	 * Copies a file into the bundle unless it is already there
+	 */
+	private static void copy (File from, File to) throws IOException {
+		if (to.exists() && to.length() == from.length()) return;
+
+		to.getParentFile().mkdirs();
+		File part = new File(to.getPath() + ".part");
+		try {
+			Files.copy(from.toPath(), part.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			Files.move(part.toPath(), to.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			part.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Deletes what isn't used from a folder of the bundle
+	 */
+	private static void tidy (File folder, HashSet<String> used) {
+		File[] files = folder.listFiles();
+		if (files == null) return;
+
+		for (File file : files) {
+			if (used.contains(file.getName())) continue;
+
+			File[] inside = file.listFiles();
+			if (inside != null) {
+				for (File f : inside) f.delete();
+			}
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,396 @@
+/**
+ * Changes the speed of audio without changing its pitch, using
+ * waveform similarity overlap-add (WSOLA). Audio is fed in and taken
+ * out a piece at a time, so any length can be stretched in a fixed
+ * amount of memory
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+public class TimeStretcher {
+
+	/**
+	 * Length of each piece of audio copied to the output, in frames
+	 */
+	public final static int SEQUENCE = frames(40);
+
+	/**
+	 * How far to look for the best place to join the next piece
+	 */
+	public final static int SEEK = frames(15);
+
+	/**
+	 * Length of the crossfade between pieces
+	 */
+	public final static int OVERLAP = frames(8);
+
+	/**
+	 * Channels of the audio
+	 */
+	private final static int CHANNELS = MixEngine.CHANNELS;
+
+	/**
+	 * Frames read from and written to files at a time
+	 */
+	public final static int CHUNK = 4096;
+
+	/**
+	 * Input frames moved past for each piece written
+	 */
+	private final double skip;
+
+	/**
+	 * Speed of the output compared to the input
+	 */
+	private final double tempo;
+
+	/**
+	 * Input waiting to be used
+	 */
+	private short[] input = new short[(SEQUENCE + SEEK) * 4 * CHANNELS];
+	private int inputStart = 0;
+	private int inputEnd = 0;
+
+	/**
+	 * Part of a frame left over from the last skip
+	 */
+	private double skipFraction = 0;
+
+	/**
+	 * Frames still to skip that haven't been put in yet. Fast tempos
+	 * skip further than the input we wait for
+	 */
+	private long skipPending = 0;
+
+	/**
+	 * Output waiting to be taken
+	 */
+	private short[] output = new short[SEQUENCE * 4 * CHANNELS];
+	private int outputStart = 0;
+	private int outputEnd = 0;
+
+	/**
+	 * End of the last piece, faded into the start of the next
+	 */
+	private final float[] overlap = new float[OVERLAP * CHANNELS];
+	private final float[] overlapMono = new float[OVERLAP];
+	private boolean first = true;
+
+	/**
+	 * Totals, so the output comes out the right length
+	 */
+	private long framesIn = 0;
+	private long framesOut = 0;
+	private boolean flushed = false;
+
+	/**
+	 * Creates a stretcher
+	 *
+	 * @param tempo output speed, 2 plays twice as fast, 0.5 half as fast
+	 */
+	public TimeStretcher (double tempo) {
+		this.tempo = tempo;
+		skip = tempo * (SEQUENCE - OVERLAP);
+	}
+
+	/**
+	 * Stretches a file into another a chunk at a time, so files of any
+	 * length take the same memory. The output is in the engine format.
+	 * Each call uses its own stretcher, so many files can be stretched
+	 * at once on different threads
+	 *
+	 * @param in file to read
+	 * @param out file to write
+	 * @param tempo output speed, 2 plays twice as fast, 0.5 half as fast
+	 * @throws IOException if a file can't be read or written, or
+	 * InterruptedIOException if the thread is interrupted
+	 * @throws UnsupportedAudioFileException if java can't read the format
+	 */
+	public static void stretch (File in, File out, double tempo)
+			throws IOException, UnsupportedAudioFileException {
+		TimeStretcher stretcher = new TimeStretcher(tempo);
+
+		byte[] bytes = new byte[CHUNK * MixEngine.FRAME_SIZE];
+		ByteBuffer input = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer output = ByteBuffer.allocate(bytes.length)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		short[] samples = new short[CHUNK * CHANNELS];
+
+		try (AudioInputStream stream = Sample.convert(
+				AudioSystem.getAudioInputStream(in));
+				WavWriter writer = new WavWriter(out, MixEngine.FORMAT)) {
+			int read;
+			int leftover = 0;
+			while ((read = stream.read(bytes, leftover,
+					bytes.length - leftover)) != -1) {
+				if (Thread.interrupted()) throw new InterruptedIOException();
+
+				// Only whole frames, the rest waits for the next read
+				int frames = (leftover + read) / MixEngine.FRAME_SIZE;
+				input.clear();
+				input.limit(frames * MixEngine.FRAME_SIZE);
+				input.asShortBuffer().get(samples, 0, frames * CHANNELS);
+				leftover = leftover + read - frames * MixEngine.FRAME_SIZE;
+				System.arraycopy(bytes, frames * MixEngine.FRAME_SIZE, bytes,
+						0, leftover);
+
+				stretcher.put(samples, 0, frames);
+				stretcher.drain(writer, samples, output);
+			}
+			stretcher.flush();
+			stretcher.drain(writer, samples, output);
+		}
+	}
+
+	/**
+	 * Writes everything waiting to be taken to a file
+	 */
+	private void drain (WavWriter writer, short[] samples, ByteBuffer output)
+			throws IOException {
+		int got;
+		while ((got = receive(samples, 0, CHUNK)) > 0) {
+			output.clear();
+			output.asShortBuffer().put(samples, 0, got * CHANNELS);
+			output.limit(got * MixEngine.FRAME_SIZE);
+			writer.write(output);
+		}
+	}
+
+	/**
+	 * Milliseconds in frames at the engine rate
+	 */
+	private static int frames (int milliseconds) {
+		return (int) (MixEngine.SAMPLE_RATE * milliseconds / 1000);
+	}
+
+	/**
+	 * Adds input
+	 *
+	 * @param samples interleaved stereo samples
+	 * @param offset first sample to use
+	 * @param frames frames to add
+	 */
+	public void put (short[] samples, int offset, int frames) {
+		framesIn += frames;
+
+		// Throw away input a skip has already moved past
+		int dropped = (int) Math.min(skipPending, frames);
+		skipPending -= dropped;
+		offset += dropped * CHANNELS;
+		frames -= dropped;
+
+		int length = frames * CHANNELS;
+		input = ensure(input, inputStart, inputEnd, length);
+		if (inputStart > 0 && inputEnd + length > input.length) {
+			inputEnd = compact(input, inputStart, inputEnd);
+			inputStart = 0;
+		}
+		System.arraycopy(samples, offset, input, inputEnd, length);
+		inputEnd += length;
+
+		process();
+	}
+
+	/**
+	 * Marks the end of the input so the last of it is written out
+	 */
+	public void flush () {
+		if (flushed) return;
+		flushed = true;
+
+		// Pad with silence so the tail gets a full piece
+		int length = (SEQUENCE + SEEK) * CHANNELS;
+		input = ensure(input, inputStart, inputEnd, length);
+		if (inputStart > 0 && inputEnd + length > input.length) {
+			inputEnd = compact(input, inputStart, inputEnd);
+			inputStart = 0;
+		}
+		Arrays.fill(input, inputEnd, inputEnd + length, (short) 0);
+		inputEnd += length;
+
+		process();
+	}
+
+	/**
+	 * Takes output
+	 *
+	 * @param samples buffer for interleaved stereo samples
+	 * @param offset first sample to fill
+	 * @param frames most frames to take
+	 * @return frames taken
+	 */
+	public int receive (short[] samples, int offset, int frames) {
+		int available = (outputEnd - outputStart) / CHANNELS;
+
+		// Once flushed, stop at the length the input asked for
+		if (flushed) {
+			long total = Math.round(framesIn / tempo);
+			available = (int) Math.max(0, Math.min(available,
+					total - framesOut));
+		}
+
+		int count = Math.min(frames, available);
+		System.arraycopy(output, outputStart, samples, offset,
+				count * CHANNELS);
+		outputStart += count * CHANNELS;
+		framesOut += count;
+
+		if (outputStart == outputEnd) outputStart = outputEnd = 0;
+		return count;
+	}
+
+	/**
+	 * Frames waiting to be taken
+	 *
+	 * @return frames
+	 */
+	public int available () {
+		return (outputEnd - outputStart) / CHANNELS;
+	}
+
+	/**
+	 * Writes out a piece for every bit of input we have enough of
+	 */
+	private void process () {
+		while ((inputEnd - inputStart) / CHANNELS >= SEQUENCE + SEEK) {
+			int offset = first ? 0 : bestOffset();
+			int in = inputStart + offset * CHANNELS;
+
+			output = ensure(output, outputStart, outputEnd,
+					(SEQUENCE - OVERLAP) * CHANNELS);
+			if (outputStart > 0 && outputEnd + (SEQUENCE - OVERLAP)
+					* CHANNELS > output.length) {
+				outputEnd = compact(output, outputStart, outputEnd);
+				outputStart = 0;
+			}
+
+			// Fade from the last piece into this one
+			for (int i = 0; i < OVERLAP; i ++) {
+				float fade = (float) i / OVERLAP;
+				for (int c = 0; c < CHANNELS; c ++) {
+					int j = i * CHANNELS + c;
+					float s = first ? input[in + j]
+							: overlap[j] * (1 - fade) + input[in + j] * fade;
+					output[outputEnd++] = (short) Math.round(s);
+				}
+			}
+			first = false;
+
+			// Middle of the piece goes straight through
+			int middle = (SEQUENCE - 2 * OVERLAP) * CHANNELS;
+			System.arraycopy(input, in + OVERLAP * CHANNELS, output,
+					outputEnd, middle);
+			outputEnd += middle;
+
+			// End of the piece waits for the next one
+			int tail = in + (SEQUENCE - OVERLAP) * CHANNELS;
+			for (int i = 0; i < OVERLAP; i ++) {
+				float sum = 0;
+				for (int c = 0; c < CHANNELS; c ++) {
+					overlap[i * CHANNELS + c] = input[tail + i * CHANNELS + c];
+					sum += input[tail + i * CHANNELS + c];
+				}
+				overlapMono[i] = sum;
+			}
+
+			// Move on through the input
+			skipFraction += skip;
+			int whole = (int) skipFraction;
+			skipFraction -= whole;
+			inputStart += whole * CHANNELS;
+
+			if (inputStart > inputEnd) {
+				skipPending = (inputStart - inputEnd) / CHANNELS;
+				inputStart = inputEnd = 0;
+			}
+		}
+	}
+
+	/**
+	 * Finds where in the seek window the input best lines up with
+	 * the end of the last piece. A rough pass over the whole window
+	 * is refined around the best spot it finds
+	 *
+	 * @return offset in frames
+	 */
+	private int bestOffset () {
+		int rough = search(0, SEEK, 4, 2);
+		return search(Math.max(0, rough - 3), Math.min(SEEK, rough + 4), 1, 1);
+	}
+
+	/**
+	 * Scores offsets by normalised correlation with the last piece
+	 *
+	 * @param from first offset
+	 * @param to offset to stop before
+	 * @param step offsets to move between tries
+	 * @param stride frames to move between compared frames
+	 * @return best offset in frames
+	 */
+	private int search (int from, int to, int step, int stride) {
+		int best = from;
+		double bestScore = -Double.MAX_VALUE;
+
+		for (int offset = from; offset < to; offset += step) {
+			double correlation = 0;
+			double energy = 0;
+			int in = inputStart + offset * CHANNELS;
+
+			for (int i = 0; i < OVERLAP; i += stride) {
+				float mono = 0;
+				for (int c = 0; c < CHANNELS; c ++) {
+					mono += input[in + i * CHANNELS + c];
+				}
+				correlation += mono * overlapMono[i];
+				energy += mono * mono;
+			}
+
+			double score = correlation / Math.sqrt(energy + 1);
+			if (score > bestScore) {
+				bestScore = score;
+				best = offset;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Makes sure a buffer has room for more samples
+	 *
+	 * @return the buffer or a bigger copy of it
+	 */
+	private static short[] ensure (short[] buffer, int start, int end,
+			int more) {
+		if (end - start + more <= buffer.length) return buffer;
+
+		short[] bigger = new short[Math.max(buffer.length * 2,
+				end - start + more)];
+		System.arraycopy(buffer, start, bigger, start, end - start);
+		return bigger;
+	}
+
+	/**
+	 * Moves unused samples to the front of a buffer
+	 *
+	 * @return new end
+	 */
+	private static int compact (short[] buffer, int start, int end) {
+		System.arraycopy(buffer, start, buffer, 0, end - start);
+		return end - start;
+	}
+}
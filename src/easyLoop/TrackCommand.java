@@ -0,0 +1,104 @@
+/**
+ * A change to a track asked for while the tracks play, carried out by
+ * the transport at the next loop boundary
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+public class TrackCommand {
+
+	/**
+	 * Mute or unmute a track
+	 */
+	public final static int PLAYING = 0;
+
+	/**
+	 * Change the loops between each step of a track's pattern
+	 */
+	public final static int RATE = 1;
+
+	/**
+	 * Give a track a new pattern, starting from its first step, 
+	 * already prepared so the transport only swaps it in
+	 */
+	public final static int PATTERN = 2;
+
+	/**
+	 * What to do
+	 */
+	final int type;
+
+	/**
+	 * Track to do it to
+	 */
+	final int track;
+
+	/**
+	 * 1 or 0 for PLAYING, loops for RATE
+	 */
+	final int value;
+
+	/**
+	 * New play order for PATTERN
+	 */
+	final AudioTrack.PlayOrder order;
+
+	/**
+	 * Next command in the queue, only set by CommandQueue
+	 */
+	volatile TrackCommand next;
+
+	private TrackCommand (int type, int track, int value,
+			AudioTrack.PlayOrder order) {
+		this.type = type;
+		this.track = track;
+		this.value = value;
+		this.order = order;
+	}
+
+	/**
+	 * Mutes or unmutes a track
+	 *
+	 * @param track track index
+	 * @param playing whether the track plays
+	 * @return command
+	 */
+	public static TrackCommand playing (int track, boolean playing) {
+		return new TrackCommand(PLAYING, track, playing ? 1 : 0, null);
+	}
+
+	/**
+	 * Changes a track's rate of occurrence
+	 *
+	 * @param track track index
+	 * @param rate loops between each step of the pattern
+	 * @return command
+	 */
+	public static TrackCommand rate (int track, int rate) {
+		return new TrackCommand(RATE, track, rate, null);
+	}
+
+	/**
+	 * Gives a track a new pattern
+	 *
+	 * @param track track index
+	 * @param order pattern from AudioTrack.preparePlayOrder
+	 * @return command
+	 */
+	public static TrackCommand pattern (int track, AudioTrack.PlayOrder order) {
+		return new TrackCommand(PATTERN, track, 0, order);
+	}
+
+	/**
+	 * Empty command the queue starts with
+	 *
+	 * @return command that does nothing
+	 */
+	static TrackCommand stub () {
+		return new TrackCommand(-1, -1, 0, null);
+	}
+}
@@ -0,0 +1,321 @@
+/**
+ * Every track's settings, kept in one array per setting rather than one
+ * list per widget, so there is no limit on how many tracks there are
+ * and walking them is only stepping through arrays. Only the window
+ * changes it; the transport works on copies of the arrays taken when
+ * playback starts
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TrackModel {
+
+	/**
+	 * Room made for tracks to begin with, doubled when it runs out
+	 */
+	public final static int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Number of tracks
+	 */
+	private int size = 0;
+
+	/**
+	 * Audio of each track
+	 */
+	private AudioTrack[] tracks = new AudioTrack[INITIAL_CAPACITY];
+
+	/**
+	 * Sequences for transposition
+	 */
+	private ArrayList<Object>[] patterns = newPatterns(INITIAL_CAPACITY);
+
+	/**
+	 * Loops between each step of the pattern
+	 */
+	private int[] rates = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Loops counted towards the next step
+	 */
+	private int[] counts = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Whether each track plays
+	 */
+	private boolean[] playing = new boolean[INITIAL_CAPACITY];
+
+	/**
+	 * Name shown for each track, null until it has a file
+	 */
+	private String[] titles = new String[INITIAL_CAPACITY];
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static ArrayList<Object>[] newPatterns (int length) {
+		return (ArrayList<Object>[]) new ArrayList[length];
+	}
+
+	/**
+	 * Number of tracks
+	 *
+	 * @return tracks
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Adds an empty track to the end, playing its file untransposed
+	 * once a loop
+	 *
+	 * @param track audio for the track
+	 * @return index of the track
+	 */
+	public int add (AudioTrack track) {
+		if (size == tracks.length) grow();
+
+		ArrayList<Object> pattern = new ArrayList<Object>();
+		pattern.add(0); // We need a base value
+
+		tracks[size] = track;
+		patterns[size] = pattern;
+		rates[size] = 1;
+		counts[size] = 1;
+		playing[size] = false;
+		titles[size] = null;
+		return size ++;
+	}
+
+	/**
+	 * Takes a track out, moving the ones after it down
+	 *
+	 * @param index track to remove
+	 * @return the track's audio, for its samples to be released
+	 */
+	public AudioTrack remove (int index) {
+		AudioTrack removed = tracks[index];
+		int after = size - index - 1;
+		System.arraycopy(tracks, index + 1, tracks, index, after);
+		System.arraycopy(patterns, index + 1, patterns, index, after);
+		System.arraycopy(rates, index + 1, rates, index, after);
+		System.arraycopy(counts, index + 1, counts, index, after);
+		System.arraycopy(playing, index + 1, playing, index, after);
+		System.arraycopy(titles, index + 1, titles, index, after);
+
+		size --;
+		tracks[size] = null;
+		patterns[size] = null;
+		titles[size] = null;
+		return removed;
+	}
+
+	/**
+	 * Takes every track out
+	 */
+	public void clear () {
+		Arrays.fill(tracks, 0, size, null);
+		Arrays.fill(patterns, 0, size, null);
+		Arrays.fill(titles, 0, size, null);
+		size = 0;
+	}
+
+	private void grow () {
+		int length = tracks.length * 2;
+		tracks = Arrays.copyOf(tracks, length);
+		patterns = Arrays.copyOf(patterns, length);
+		rates = Arrays.copyOf(rates, length);
+		counts = Arrays.copyOf(counts, length);
+		playing = Arrays.copyOf(playing, length);
+		titles = Arrays.copyOf(titles, length);
+	}
+
+	/**
+	 * Audio of a track
+	 *
+	 * @param index track
+	 * @return its audio
+	 */
+	public AudioTrack getTrack (int index) {
+		return tracks[index];
+	}
+
+	/**
+	 * Whether a track has a file to play
+	 *
+	 * @param index track
+	 * @return true if it has one
+	 */
+	public boolean isLoaded (int index) {
+		return tracks[index].track != null;
+	}
+
+	/**
+	 * A track's pattern, changed in place by setPattern
+	 *
+	 * @param index track
+	 * @return pattern
+	 */
+	public ArrayList<Object> getPattern (int index) {
+		return patterns[index];
+	}
+
+	/**
+	 * Replaces a track's pattern
+	 *
+	 * @param index track
+	 * @param pattern transpositions as Integers and !, > or | as Strings
+	 */
+	public void setPattern (int index, List<Object> pattern) {
+		patterns[index].clear();
+		patterns[index].addAll(pattern);
+	}
+
+	/**
+	 * Loops between each step of a track's pattern
+	 *
+	 * @param index track
+	 * @return loops
+	 */
+	public int getRate (int index) {
+		return rates[index];
+	}
+
+	/**
+	 * Sets the loops between each step of a track's pattern
+	 *
+	 * @param index track
+	 * @param rate loops
+	 */
+	public void setRate (int index, int rate) {
+		rates[index] = rate;
+	}
+
+	/**
+	 * Loops a track has counted towards its next step
+	 *
+	 * @param index track
+	 * @return loops
+	 */
+	public int getCount (int index) {
+		return counts[index];
+	}
+
+	/**
+	 * Sets the loops a track has counted towards its next step
+	 *
+	 * @param index track
+	 * @param count loops
+	 */
+	public void setCount (int index, int count) {
+		counts[index] = count;
+	}
+
+	/**
+	 * Whether a track plays
+	 *
+	 * @param index track
+	 * @return true if its box is ticked
+	 */
+	public boolean isPlaying (int index) {
+		return playing[index];
+	}
+
+	/**
+	 * Sets whether a track plays
+	 *
+	 * @param index track
+	 * @param plays true to play it
+	 */
+	public void setPlaying (int index, boolean plays) {
+		playing[index] = plays;
+	}
+
+	/**
+	 * Name shown for a track
+	 *
+	 * @param index track
+	 * @return its file's name, or its number if it has none
+	 */
+	public String getTitle (int index) {
+		return titles[index] != null ? titles[index] : "Track " + (index + 1);
+	}
+
+	/**
+	 * Sets the name shown for a track
+	 *
+	 * @param index track
+	 * @param title name, or null to show its number
+	 */
+	public void setTitle (int index, String title) {
+		titles[index] = title;
+	}
+
+	/**
+	 * Starts every track's count again, and every pattern from its
+	 * first step
+	 */
+	public void rewind () {
+		for (int i = 0; i < size; i ++) {
+			tracks[i].currentTrack = 0;
+			counts[i] = 1;
+		}
+	}
+
+	/**
+	 * Copies of the arrays, sized to the tracks there are, for the
+	 * transport to work on
+	 */
+	public AudioTrack[] copyTracks () {
+		return Arrays.copyOf(tracks, size);
+	}
+
+	public int[] copyRates () {
+		return Arrays.copyOf(rates, size);
+	}
+
+	public int[] copyCounts () {
+		return Arrays.copyOf(counts, size);
+	}
+
+	public boolean[] copyPlaying () {
+		return Arrays.copyOf(playing, size);
+	}
+
+	/**
+	 * The tracks as lists, for the classes that take them that way
+	 */
+	public List<AudioTrack> trackList () {
+		return new ArrayList<AudioTrack>(Arrays.asList(copyTracks()));
+	}
+
+	public List<ArrayList<Object>> patternList () {
+		return new ArrayList<ArrayList<Object>>(
+				Arrays.asList(patterns).subList(0, size));
+	}
+
+	public List<Integer> rateList () {
+		ArrayList<Integer> list = new ArrayList<Integer>(size);
+		for (int i = 0; i < size; i ++) list.add(rates[i]);
+		return list;
+	}
+
+	public List<Integer> countList () {
+		ArrayList<Integer> list = new ArrayList<Integer>(size);
+		for (int i = 0; i < size; i ++) list.add(counts[i]);
+		return list;
+	}
+
+	public List<Boolean> playingList () {
+		ArrayList<Boolean> list = new ArrayList<Boolean>(size);
+		for (int i = 0; i < size; i ++) list.add(playing[i]);
+		return list;
+	}
+}
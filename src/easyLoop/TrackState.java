@@ -0,0 +1,65 @@
+/**
+ * What a track was doing at a loop boundary. Made by the transport and
+ * never changed, so any thread can read it without locking
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+public final class TrackState {
+
+	/**
+	 * Loop the state was taken on
+	 */
+	public final long loop;
+
+	/**
+	 * Whether the track plays
+	 */
+	public final boolean playing;
+
+	/**
+	 * Loops between each step of the pattern
+	 */
+	public final int rate;
+
+	/**
+	 * Loops counted towards the next step
+	 */
+	public final int count;
+
+	/**
+	 * Next step of the pattern
+	 */
+	public final String next;
+
+	/**
+	 * Creates a state
+	 *
+	 * @param loop loop the state was taken on
+	 * @param playing whether the track plays
+	 * @param rate loops between each step
+	 * @param count loops counted towards the next step
+	 * @param next next step of the pattern
+	 */
+	public TrackState (long loop, boolean playing, int rate, int count,
+			String next) {
+		this.loop = loop;
+		this.playing = playing;
+		this.rate = rate;
+		this.count = count;
+		this.next = next;
+	}
+
+	/**
+	 * Loops left until the next step plays
+	 *
+	 * @return loops
+	 */
+	public int getCountdown () {
+		return Math.max(0, rate - count);
+	}
+}
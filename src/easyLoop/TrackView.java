@@ -0,0 +1,206 @@
+/**
+ * Panel showing one track. The window only makes enough of these to
+ * fill the rows on screen and shows whichever tracks are scrolled to
+ * in them, so it has as many widgets with 200 tracks as with 2
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.awt.Color;
+import java.awt.event.ActionListener;
+import java.awt.event.ItemListener;
+
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JRadioButton;
+import javax.swing.border.TitledBorder;
+
+public class TrackView extends JPanel {
+
+	/**
+	 * Serial ID to ensure version continuity
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Controls a hotkey can press
+	 */
+	public final static int IMPORT = 0;
+	public final static int RECORD = 1;
+	public final static int PATTERN = 2;
+	public final static int RATE = 3;
+	public final static int PLAYING = 4;
+
+	/**
+	 * Track shown, -1 for none
+	 */
+	private int index = -1;
+
+	/**
+	 * Border with the track's name
+	 */
+	final TitledBorder border = new TitledBorder("");
+
+	/**
+	 * Box to house (import/record) buttons
+	 */
+	final JPanel inputBox = new JPanel();
+
+	/**
+	 * Labels for the pattern, what plays next, the rate and the countdown
+	 */
+	final JLabel patternLabel = new JLabel();
+	final JLabel nextToPlay = new JLabel();
+	final JLabel occ = new JLabel();
+	final JLabel countdown = new JLabel();
+
+	/**
+	 * Buttons for changing the track
+	 */
+	final JButton setPatternButton = new JButton("Set Pattern");
+	final JButton importButton = new JButton("Import");
+	final JButton recordButton = new JButton("Record");
+	final JButton occButton = new JButton("Set Rate of Ocurrence");
+
+	/**
+	 * Checkbox to decide whether the track plays
+	 */
+	final JCheckBox playing = new JCheckBox("Playing", false);
+
+	/**
+	 * Radio button for choosing the main track
+	 */
+	final JRadioButton isMaster = new JRadioButton("Main Track");
+
+	/**
+	 * What the countdown and next labels show, so they are only set
+	 * when it changes
+	 */
+	private int countdownShown = -1;
+	private String nextShown;
+
+	/**
+	 * Lays out an empty track panel
+	 *
+	 * @param listener gets the buttons' actions
+	 * @param playingListener gets the playing box's changes
+	 */
+	public TrackView (ActionListener listener, ItemListener playingListener) {
+		setBackground(Color.WHITE);
+		setLayout(EasyLoop.TRACK_LAYOUT);
+		setBorder(border);
+		setPreferredSize(EasyLoop.TRACK_SIZE);
+
+		// Radio Button
+		isMaster.addActionListener(listener);
+		add(isMaster);
+
+		// Labels
+		add(patternLabel);
+		add(nextToPlay);
+		add(occ);
+
+		// Record and import
+		inputBox.setLayout(EasyLoop.INPUT_LAYOUT);
+		importButton.setBackground(Color.WHITE);
+		importButton.addActionListener(listener);
+		inputBox.add(importButton);
+		recordButton.setBackground(Color.WHITE);
+		recordButton.addActionListener(listener);
+		inputBox.add(recordButton);
+		add(inputBox);
+
+		// Set pattern and reps
+		setPatternButton.setBackground(Color.WHITE);
+		setPatternButton.addActionListener(listener);
+		add(setPatternButton);
+		occButton.setBackground(Color.WHITE);
+		occButton.addActionListener(listener);
+		add(occButton);
+
+		// Playing box
+		playing.addItemListener(playingListener);
+		add(playing);
+
+		// Countdown
+		add(countdown);
+	}
+
+	/**
+	 * Points the panel's controls at a track. Their action commands end
+	 * in its index, as the window's handlers expect
+	 *
+	 * @param index track to show
+	 */
+	public void bind (int index) {
+		this.index = index;
+		countdownShown = -1;
+		nextShown = null;
+		isMaster.setActionCommand("Main" + index);
+		importButton.setActionCommand("Import" + index);
+		recordButton.setActionCommand("Record" + index);
+		setPatternButton.setActionCommand("Set Pattern" + index);
+		occButton.setActionCommand("Set Rate of Occurrence" + index);
+	}
+
+	/**
+	 * Track shown
+	 *
+	 * @return index, or -1 if the panel isn't showing one
+	 */
+	public int getIndex () {
+		return index;
+	}
+
+	/**
+	 * Shows the loops until the next step and what it plays. Labels
+	 * that would show the same thing aren't touched, so tracks that
+	 * are waiting don't repaint
+	 *
+	 * @param countdown loops until the next step
+	 * @param next next step of the pattern
+	 */
+	public void showCountdown (int countdown, String next) {
+		if (countdown != countdownShown) {
+			countdownShown = countdown;
+			this.countdown.setText("Reps till next play: " + countdown);
+		}
+		if (!next.equals(nextShown)) {
+			nextShown = next;
+			nextToPlay.setText("Next transposition: " + next);
+		}
+	}
+
+	/**
+	 * Presses one of the controls, as a hotkey would
+	 *
+	 * @param control IMPORT, RECORD, PATTERN, RATE or PLAYING
+	 */
+	public void press (int control) {
+		switch (control) {
+		case IMPORT:
+			if (importButton.isEnabled()) importButton.doClick();
+			break;
+		case RECORD:
+			if (recordButton.isEnabled()) recordButton.doClick();
+			break;
+		case PATTERN:
+			if (setPatternButton.isEnabled()) setPatternButton.doClick();
+			break;
+		case RATE:
+			if (occButton.isEnabled()) occButton.doClick();
+			break;
+		case PLAYING:
+			if (playing.isEnabled()) {
+				playing.setSelected(!playing.isSelected());
+			}
+			break;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/**
+ * Keeps loop time against the mix engine's sample clock
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class Transport implements Runnable {
+
+	/**
+	 * Told when a loop boundary comes up
+	 */
+	public interface Listener {
+		/**
+		 * Called LOOKAHEAD - 1 loops, plus LEAD_BLOCKS blocks, before
+		 * each loop starts
+		 *
+		 * @param loop number of the loop, starting at 0
+		 * @param frame engine frame the loop starts on
+		 */
+		void loop (long loop, long frame);
+	}
+
+	/**
+	 * How many of the engine's blocks ahead of a boundary the listener
+	 * is called, so voices are queued before the engine mixes the
+	 * boundary
+	 */
+	public final static int LEAD_BLOCKS = 4;
+
+	/**
+	 * Lead in frames with the engine's usual block size
+	 */
+	public final static int LEAD_FRAMES = MixEngine.BLOCK_FRAMES * LEAD_BLOCKS;
+
+	/**
+	 * Loops scheduled ahead of the one playing, so a slow
+	 * listener call never makes a note late
+	 */
+	public final static int LOOKAHEAD = 2;
+
+	/**
+	 * Longest the thread sleeps before checking the clock again
+	 */
+	public final static long MAX_SLEEP = TimeUnit.MILLISECONDS.toNanos(2);
+
+	/**
+	 * Engine whose frames we count
+	 */
+	private final MixEngine engine;
+
+	/**
+	 * Lead in frames with this engine's block size
+	 */
+	private final int leadFrames;
+
+	/**
+	 * Length of a loop in seconds
+	 */
+	private final double loopLength;
+
+	/**
+	 * Who to tell
+	 */
+	private final Listener listener;
+
+	/**
+	 * Frame of loop 0
+	 */
+	private long startFrame;
+
+	/**
+	 * Next loop to start
+	 */
+	private volatile long loops = 0;
+
+	/**
+	 * How late the last listener call was, in frames
+	 */
+	private volatile long lateness = 0;
+
+	/**
+	 * Thread state
+	 */
+	private Thread thread;
+	private volatile boolean running = false;
+
+	/**
+	 * Creates a transport
+	 *
+	 * @param engine engine to keep time with
+	 * @param loopLength length of a loop in seconds
+	 * @param listener who to tell about loops
+	 */
+	public Transport (MixEngine engine, double loopLength, Listener listener) {
+		this.engine = engine;
+		this.leadFrames = engine.getBlockFrames() * LEAD_BLOCKS;
+		this.loopLength = loopLength;
+		this.listener = listener;
+	}
+
+	/**
+	 * Frame a loop starts on. Worked out from the loop number
+	 * every time so rounding never builds up. Loops before 0 are
+	 * counted back from the start
+	 *
+	 * @param loop loop number
+	 * @return engine frame
+	 */
+	public long boundary (long loop) {
+		return startFrame + Math.round(loop * loopLength
+				* MixEngine.SAMPLE_RATE);
+	}
+
+	/**
+	 * First loop boundary on or after a frame
+	 *
+	 * @param frame engine frame
+	 * @return engine frame of the boundary
+	 */
+	public long boundaryAfter (long frame) {
+		long loop = (long) Math.ceil((frame - startFrame)
+				/ (loopLength * MixEngine.SAMPLE_RATE));
+		while (boundary(loop) < frame) loop ++;
+		while (boundary(loop - 1) >= frame) loop --;
+		return boundary(loop);
+	}
+
+	/**
+	 * Starts counting loops, loop 0 starts as soon as it can
+	 */
+	public synchronized void start () {
+		if (running) return;
+
+		startFrame = engine.getFrame() + leadFrames;
+		loops = 0;
+		running = true;
+
+		thread = new Thread(this, "Easy Loop transport");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stops counting loops. When called from outside the listener
+	 * this waits for the current loop call to finish
+	 */
+	public synchronized void stop () {
+		if (!running) return;
+		running = false;
+
+		if (Thread.currentThread() != thread) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Whether loops are being counted
+	 *
+	 * @return true if running
+	 */
+	public boolean isRunning () {
+		return running;
+	}
+
+	/**
+	 * Number of loops started
+	 *
+	 * @return loops
+	 */
+	public long getLoops () {
+		return loops;
+	}
+
+	/**
+	 * How late the last loop was handed to the listener
+	 *
+	 * @return frames past the lead time
+	 */
+	public long getLateness () {
+		return lateness;
+	}
+
+	/**
+	 * Transport thread
+	 */
+	public void run () {
+		while (running) {
+			long next = boundary(loops);
+			long due = boundary(loops - LOOKAHEAD + 1) - leadFrames;
+			long wait = due - engine.getFrame();
+
+			if (wait > 0) {
+				// Sleep in short steps, the engine clock moves in blocks
+				long nanos = (long) (wait * 1e9 / MixEngine.SAMPLE_RATE);
+				LockSupport.parkNanos(Math.min(nanos, MAX_SLEEP));
+				continue;
+			}
+
+			lateness = -wait;
+			listener.loop(loops, next);
+			loops ++;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * A single playing instance of a sample inside the mix engine
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+public class Voice {
+
+	/**
+	 * Sample to play
+	 */
+	Sample sample;
+
+	/**
+	 * Track the voice belongs to
+	 */
+	Object owner;
+
+	/**
+	 * Engine frame the voice starts on
+	 */
+	long startFrame;
+
+	/**
+	 * Engine frame the voice is cut off on
+	 */
+	volatile long stopFrame = Long.MAX_VALUE;
+
+	/**
+	 * Set by the engine once the voice has nothing left to play
+	 */
+	volatile boolean finished = false;
+
+	/**
+	 * Whether the engine hands this voice out again once it finishes
+	 */
+	final boolean pooled;
+
+	/**
+	 * Creates a voice
+	 *
+	 * @param sample sample to play
+	 * @param startFrame engine frame to start on
+	 * @param owner track the voice belongs to
+	 */
+	public Voice (Sample sample, long startFrame, Object owner) {
+		this.pooled = false;
+		set(sample, startFrame, owner);
+	}
+
+	/**
+	 * Creates an empty voice for the engine to reuse
+	 */
+	Voice () {
+		this.pooled = true;
+	}
+
+	/**
+	 * Points the voice at a new sample
+	 *
+	 * @param sample sample to play
+	 * @param startFrame engine frame to start on
+	 * @param owner track the voice belongs to
+	 */
+	void set (Sample sample, long startFrame, Object owner) {
+		this.sample = sample;
+		this.startFrame = startFrame;
+		this.owner = owner;
+		stopFrame = Long.MAX_VALUE;
+		finished = false;
+	}
+
+	/**
+	 * Cuts the voice off at an engine frame
+	 *
+	 * @param frame frame to stop on
+	 */
+	public void stopAt (long frame) {
+		if (frame < stopFrame) stopFrame = frame;
+	}
+
+	/**
+	 * Whether the engine is done with the voice
+	 *
+	 * @return true when finished
+	 */
+	public boolean isFinished () {
+		return finished;
+	}
+}
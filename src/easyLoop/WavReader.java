@@ -0,0 +1,227 @@
+/**
+ * Reads a .wav file by mapping it into memory. The header is read
+ * straight from the file and the audio is handed out as views of the
+ * mapped file, so it is never copied into the heap
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+public class WavReader {
+
+	/**
+	 * Format tags for plain PCM
+	 */
+	private final static int PCM = 1;
+	private final static int EXTENSIBLE = 0xFFFE;
+
+	/**
+	 * Where the sub format is in an extensible fmt chunk
+	 */
+	private final static int SUB_FORMAT_OFFSET = 24;
+
+	/**
+	 * The whole file
+	 */
+	private final MappedByteBuffer map;
+
+	/**
+	 * Format of the audio
+	 */
+	private final AudioFormat format;
+
+	/**
+	 * Where the audio is in the file
+	 */
+	private final int dataOffset;
+	private final int dataBytes;
+
+	/**
+	 * Maps a file and reads its header
+	 *
+	 * @param file file to read
+	 * @throws IOException if the file can't be read or is too big to map
+	 * @throws UnsupportedAudioFileException if it isn't a PCM .wav
+	 */
+	public WavReader (File file)
+			throws IOException, UnsupportedAudioFileException {
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Too large to map: " + file);
+			}
+			// The map stays valid once the channel is closed
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		map.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (map.limit() < 12 || !id(0).equals("RIFF")
+				|| !id(8).equals("WAVE")) {
+			throw new UnsupportedAudioFileException("Not a .wav file: " + file);
+		}
+
+		AudioFormat format = null;
+		int dataOffset = -1;
+		int dataBytes = 0;
+
+		// Walk the chunks until we have the format and the audio
+		int position = 12;
+		while (position + 8 <= map.limit() && dataOffset < 0) {
+			String id = id(position);
+			long size = map.getInt(position + 4) & 0xFFFFFFFFL;
+			int body = position + 8;
+
+			if (id.equals("fmt ")) {
+				format = format(body, size);
+			}
+			else if (id.equals("data")) {
+				dataOffset = body;
+
+				// Unfinished files say 0, or more than there is
+				long available = map.limit() - body;
+				dataBytes = (int) (size == 0 || size > available
+						? available : size);
+			}
+			// Chunks are padded to an even length
+			position = (int) Math.min(map.limit(), body + size + (size & 1));
+		}
+
+		if (format == null || dataOffset < 0) {
+			throw new UnsupportedAudioFileException("No audio in: " + file);
+		}
+		this.format = format;
+		this.dataOffset = dataOffset;
+		this.dataBytes = dataBytes - dataBytes % format.getFrameSize();
+	}
+
+	/**
+	 * Reads a four letter chunk name
+	 */
+	private String id (int position) {
+		char[] id = new char[4];
+		for (int i = 0; i < 4; i ++) id[i] = (char) map.get(position + i);
+		return new String(id);
+	}
+
+	/**
+	 * Reads a fmt chunk
+	 */
+	private AudioFormat format (int body, long size)
+			throws UnsupportedAudioFileException {
+		if (size < 16) throw new UnsupportedAudioFileException("Bad header.");
+
+		int tag = map.getShort(body) & 0xFFFF;
+		if (tag == EXTENSIBLE && size >= SUB_FORMAT_OFFSET + 2) {
+			tag = map.getShort(body + SUB_FORMAT_OFFSET) & 0xFFFF;
+		}
+		if (tag != PCM) {
+			throw new UnsupportedAudioFileException("Not PCM.");
+		}
+
+		int channels = map.getShort(body + 2) & 0xFFFF;
+		int rate = map.getInt(body + 4);
+		int bits = map.getShort(body + 14) & 0xFFFF;
+		if (channels == 0 || bits == 0 || bits % 8 != 0) {
+			throw new UnsupportedAudioFileException("Bad header.");
+		}
+
+		// 8 bit .wav files are unsigned, everything else is signed
+		return new AudioFormat(rate, bits, channels, bits > 8, false);
+	}
+
+	/**
+	 * Format of the audio
+	 *
+	 * @return format
+	 */
+	public AudioFormat getFormat () {
+		return format;
+	}
+
+	/**
+	 * Whether the file is already in the engine's format
+	 *
+	 * @return true if it can be played as it is
+	 */
+	public boolean isEngineFormat () {
+		return format.matches(MixEngine.FORMAT);
+	}
+
+	/**
+	 * Length in frames
+	 *
+	 * @return frames
+	 */
+	public int getFrames () {
+		return dataBytes / format.getFrameSize();
+	}
+
+	/**
+	 * Length in seconds
+	 *
+	 * @return seconds
+	 */
+	public double getSeconds () {
+		return getFrames() / format.getFrameRate();
+	}
+
+	/**
+	 * The audio as bytes, without copying it
+	 *
+	 * @return read only view of the audio
+	 */
+	public ByteBuffer getData () {
+		ByteBuffer data = map.duplicate();
+		data.position(dataOffset).limit(dataOffset + dataBytes);
+		return data.slice().order(ByteOrder.LITTLE_ENDIAN).asReadOnlyBuffer();
+	}
+
+	/**
+	 * The audio as interleaved 16 bit samples, without copying it
+	 *
+	 * @return read only view of every sample
+	 * @throws UnsupportedAudioFileException if the audio isn't 16 bit
+	 */
+	public ShortBuffer getSamples () throws UnsupportedAudioFileException {
+		return getSamples(0, getFrames());
+	}
+
+	/**
+	 * Part of the audio as interleaved 16 bit samples, without
+	 * copying it
+	 *
+	 * @param frame first frame
+	 * @param frames frames wanted
+	 * @return read only view of the samples
+	 * @throws UnsupportedAudioFileException if the audio isn't 16 bit
+	 */
+	public ShortBuffer getSamples (int frame, int frames)
+			throws UnsupportedAudioFileException {
+		if (format.getSampleSizeInBits() != 16) {
+			throw new UnsupportedAudioFileException("Not 16 bit.");
+		}
+		if (frame < 0 || frames < 0 || frame + frames > getFrames()) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		int frameSize = format.getFrameSize();
+		ByteBuffer data = getData();
+		data.position(frame * frameSize).limit((frame + frames) * frameSize);
+		return data.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+	}
+}
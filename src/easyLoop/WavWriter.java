@@ -0,0 +1,150 @@
+/**
+ * Writes a .wav file a piece at a time, filling in the sizes on close
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.sound.sampled.AudioFormat;
+
+public class WavWriter implements Closeable {
+
+	/**
+	 * Size of a plain PCM header
+	 */
+	public final static int HEADER_SIZE = 44;
+
+	/**
+	 * Where the sizes live in the header
+	 */
+	private final static int RIFF_SIZE_OFFSET = 4;
+	private final static int DATA_SIZE_OFFSET = 40;
+
+	/**
+	 * File being written
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Format of the data
+	 */
+	private final AudioFormat format;
+
+	/**
+	 * Bytes of audio written
+	 */
+	private long dataBytes = 0;
+
+	/**
+	 * Creates the file and writes a header with empty sizes
+	 *
+	 * @param file file to write
+	 * @param format 16 bit little endian PCM format of the data
+	 * @throws IOException if the file can't be created
+	 */
+	public WavWriter (File file, AudioFormat format) throws IOException {
+		this.format = format;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+		ByteBuffer header = header(format, 0);
+		while (header.hasRemaining()) channel.write(header);
+	}
+
+	/**
+	 * Builds a PCM header
+	 *
+	 * @param format format of the data
+	 * @param dataBytes bytes of audio
+	 * @return header ready to write
+	 */
+	static ByteBuffer header (AudioFormat format, long dataBytes) {
+		int channels = format.getChannels();
+		int rate = (int) format.getSampleRate();
+		int bits = format.getSampleSizeInBits();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		header.put(new byte[] {'R', 'I', 'F', 'F'});
+		header.putInt((int) (dataBytes + HEADER_SIZE - 8));
+		header.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+		header.putInt(16);
+		header.putShort((short) 1); // PCM
+		header.putShort((short) channels);
+		header.putInt(rate);
+		header.putInt(rate * format.getFrameSize());
+		header.putShort((short) format.getFrameSize());
+		header.putShort((short) bits);
+		header.put(new byte[] {'d', 'a', 't', 'a'});
+		header.putInt((int) dataBytes);
+		header.flip();
+		return header;
+	}
+
+	/**
+	 * Appends audio
+	 *
+	 * @param bytes buffer holding whole frames
+	 * @param offset start in the buffer
+	 * @param length bytes to write
+	 * @throws IOException if the write fails
+	 */
+	public void write (byte[] bytes, int offset, int length) throws IOException {
+		write(ByteBuffer.wrap(bytes, offset, length));
+	}
+
+	/**
+	 * Appends audio
+	 *
+	 * @param buffer remaining bytes are written
+	 * @throws IOException if the write fails
+	 */
+	public void write (ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) dataBytes += channel.write(buffer);
+	}
+
+	/**
+	 * Frames written so far
+	 *
+	 * @return frames
+	 */
+	public long getFrames () {
+		return dataBytes / format.getFrameSize();
+	}
+
+	/**
+	 * Fills in the sizes and closes the file
+	 *
+	 * @throws IOException if the file can't be finished
+	 */
+	public void close () throws IOException {
+		if (!channel.isOpen()) return;
+
+		try {
+			ByteBuffer size = ByteBuffer.allocate(4)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			size.putInt(0, (int) (dataBytes + HEADER_SIZE - 8));
+			channel.write(size, RIFF_SIZE_OFFSET);
+
+			size.clear();
+			size.putInt(0, (int) dataBytes);
+			channel.write(size, DATA_SIZE_OFFSET);
+
+			channel.truncate(HEADER_SIZE + dataBytes);
+		}
+		finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Tests of the queue track commands are posted to the transport on
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class CommandQueueTest {
+
+	/**
+	 * Threads posting at once
+	 */
+	private final static int POSTERS = 4;
+
+	/**
+	 * Commands each thread posts
+	 */
+	private final static int POSTS = 50000;
+
+	@Test
+	public void emptyQueueGivesNothing () {
+		assertNull(new CommandQueue().poll());
+	}
+
+	@Test
+	public void commandsComeOutInOrder () {
+		CommandQueue queue = new CommandQueue();
+		for (int rate = 1; rate <= 3; rate ++) {
+			queue.post(TrackCommand.rate(0, rate));
+		}
+
+		for (int rate = 1; rate <= 3; rate ++) {
+			TrackCommand command = queue.poll();
+			assertEquals(TrackCommand.RATE, command.type);
+			assertEquals(rate, command.value);
+		}
+		assertNull(queue.poll());
+
+		// Still works once emptied
+		queue.post(TrackCommand.playing(1, true));
+		assertEquals(1, queue.poll().track);
+		assertNull(queue.poll());
+	}
+
+	@Test(timeout = 30000)
+	public void postersLoseAndReorderNothing () throws InterruptedException {
+		final CommandQueue queue = new CommandQueue();
+		Thread[] posters = new Thread[POSTERS];
+		for (int i = 0; i < POSTERS; i ++) {
+			final int track = i;
+			posters[i] = new Thread(new Runnable() {
+				public void run () {
+					for (int value = 0; value < POSTS; value ++) {
+						queue.post(TrackCommand.rate(track, value));
+					}
+				}
+			}, "Easy Loop test poster " + i);
+			posters[i].start();
+		}
+
+		// Each poster's commands arrive in the order it posted them
+		int[] next = new int[POSTERS];
+		int taken = 0;
+		while (taken < POSTERS * POSTS) {
+			TrackCommand command = queue.poll();
+			if (command == null) {
+				Thread.yield();
+				continue;
+			}
+			assertEquals(next[command.track] ++, command.value);
+			taken ++;
+		}
+
+		for (Thread poster : posters) poster.join();
+		assertNull(queue.poll());
+		for (int i = 0; i < POSTERS; i ++) assertEquals(POSTS, next[i]);
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * Tests of the ring the transport passes voice events to the mix
+ * engine through
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ShortBuffer;
+
+import org.junit.Test;
+
+public class EventRingTest {
+
+	/**
+	 * Events passed between the threads
+	 */
+	private final static int EVENTS = 200000;
+
+	/**
+	 * Something to start
+	 */
+	private final static Sample SAMPLE = new Sample(
+			ShortBuffer.wrap(new short[MixEngine.CHANNELS]));
+
+	/**
+	 * Tracks the events belong to
+	 */
+	private final static Object[] OWNERS = { "a", "b", "c" };
+
+	/**
+	 * Type the event on a frame is given
+	 */
+	private static byte typeOf (long frame) {
+		return frame % 2 == 0 ? EventRing.START : EventRing.STOP;
+	}
+
+	/**
+	 * Checks the next event is the one written on a frame and moves
+	 * past it
+	 */
+	private static void take (EventRing ring, long frame) {
+		assertTrue(ring.due(Long.MAX_VALUE));
+		assertEquals(frame, ring.frame());
+		assertEquals(typeOf(frame), ring.type());
+		assertSame(OWNERS[(int) (frame % OWNERS.length)], ring.owner());
+		assertSame(typeOf(frame) == EventRing.START ? SAMPLE : null,
+				ring.sample());
+		ring.pop();
+	}
+
+	/**
+	 * Adds the event for a frame if there is room
+	 */
+	private static boolean offer (EventRing ring, long frame) {
+		return ring.offer(typeOf(frame), frame,
+				typeOf(frame) == EventRing.START ? SAMPLE : null,
+				OWNERS[(int) (frame % OWNERS.length)]);
+	}
+
+	/**
+	 * Adds the event for a frame, waiting for room
+	 */
+	private static void put (EventRing ring, long frame) {
+		ring.put(typeOf(frame), frame,
+				typeOf(frame) == EventRing.START ? SAMPLE : null,
+				OWNERS[(int) (frame % OWNERS.length)]);
+	}
+
+	@Test
+	public void capacityRoundsUpToAPowerOfTwo () {
+		assertEquals(2, new EventRing(1).capacity());
+		assertEquals(8, new EventRing(5).capacity());
+		assertEquals(8, new EventRing(8).capacity());
+	}
+
+	@Test
+	public void onlyEventsBeforeTheFrameAreDue () {
+		EventRing ring = new EventRing(4);
+		assertFalse(ring.due(Long.MAX_VALUE));
+
+		assertTrue(offer(ring, 10));
+		assertFalse(ring.due(10));
+		assertTrue(ring.due(11));
+		take(ring, 10);
+		assertFalse(ring.due(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void fullRingRefusesAndWrapsAround () {
+		EventRing ring = new EventRing(4);
+		long written = 0;
+		long read = 0;
+
+		// Fill and drain by uneven amounts so the ends pass the last
+		// slot at every offset
+		for (int round = 0; round < 20; round ++) {
+			while (offer(ring, written)) written ++;
+			assertEquals(ring.capacity(), ring.size());
+
+			for (int i = 0; i <= round % ring.capacity(); i ++) {
+				take(ring, read ++);
+			}
+		}
+
+		while (read < written) take(ring, read ++);
+		assertEquals(0, ring.size());
+	}
+
+	@Test(timeout = 10000)
+	public void putWaitsWhileFull () throws InterruptedException {
+		final EventRing ring = new EventRing(2);
+		put(ring, 0);
+		put(ring, 1);
+
+		Thread writer = new Thread(new Runnable() {
+			public void run () {
+				put(ring, 2);
+			}
+		}, "Easy Loop test writer");
+		writer.start();
+
+		// Still waiting, with nothing written over
+		writer.join(100);
+		assertTrue(writer.isAlive());
+		assertEquals(2, ring.size());
+
+		take(ring, 0);
+		writer.join();
+		take(ring, 1);
+		take(ring, 2);
+		assertEquals(0, ring.size());
+	}
+
+	@Test(timeout = 30000)
+	public void threadsLoseAndReorderNothing () throws InterruptedException {
+		final EventRing ring = new EventRing(16);
+
+		Thread writer = new Thread(new Runnable() {
+			public void run () {
+				for (long frame = 0; frame < EVENTS; frame ++) {
+					put(ring, frame);
+				}
+			}
+		}, "Easy Loop test writer");
+		writer.start();
+
+		long frame = 0;
+		while (frame < EVENTS) {
+			if (ring.due(Long.MAX_VALUE)) take(ring, frame ++);
+			else Thread.yield();
+		}
+
+		writer.join();
+		assertEquals(0, ring.size());
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Tests of compiling patterns into the steps a track plays
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PatternProgramTest {
+
+	/**
+	 * Compiles a pattern written as its entries
+	 */
+	private static PatternProgram compile (Object... pattern) {
+		return PatternProgram.compile(
+				new ArrayList<Object>(Arrays.asList(pattern)));
+	}
+
+	/**
+	 * Transpositions a step starts, in order
+	 */
+	private static List<Integer> voices (PatternProgram program, int step) {
+		ArrayList<Integer> voices = new ArrayList<Integer>();
+		for (int i = 0; i < program.getVoices(step); i ++) {
+			voices.add(program.getTransposition(program.getSlot(step, i)));
+		}
+		return voices;
+	}
+
+	@Test
+	public void emptyPatternPlaysNothing () {
+		assertSame(PatternProgram.EMPTY, compile());
+		assertEquals(0, PatternProgram.EMPTY.getSteps());
+	}
+
+	@Test
+	public void stepsPlayInOrderAndLoop () {
+		PatternProgram program = compile(0, 4, 7);
+
+		assertEquals(3, program.getSteps());
+		for (int step = 0; step < 3; step ++) {
+			assertTrue(program.stops(step));
+		}
+		assertEquals(Arrays.asList(0), voices(program, 0));
+		assertEquals(Arrays.asList(4), voices(program, 1));
+		assertEquals(Arrays.asList(7), voices(program, 2));
+		assertEquals(1, program.next(0));
+		assertEquals(2, program.next(1));
+		assertEquals(0, program.next(2));
+		assertEquals("4", program.getLabel(1));
+	}
+
+	@Test
+	public void repeatedTranspositionsShareASlot () {
+		PatternProgram program = compile(0, 5, 0, 5);
+
+		assertEquals(4, program.getSteps());
+		assertEquals(2, program.getSlots());
+		assertEquals(program.getSlot(0, 0), program.getSlot(2, 0));
+		assertEquals(program.getSlot(1, 0), program.getSlot(3, 0));
+	}
+
+	@Test
+	public void chordJoinsTheNextEntry () {
+		PatternProgram program = compile(0, "|", 4, 7);
+
+		assertEquals(2, program.getSteps());
+		assertEquals(Arrays.asList(0, 4), voices(program, 0));
+		assertEquals(Arrays.asList(7), voices(program, 1));
+		assertEquals(0, program.next(1));
+	}
+
+	@Test
+	public void chordWrapsRoundTheEnd () {
+		// The last entry joins the first, so after the first time
+		// round the first entry is only played in the chord
+		PatternProgram program = compile(4, 7, "|");
+
+		assertEquals(2, program.getSteps());
+		assertEquals(Arrays.asList(4), voices(program, 0));
+		assertEquals(Arrays.asList(7, 4), voices(program, 1));
+		assertEquals(1, program.next(1));
+	}
+
+	@Test
+	public void leadInPlaysOnce () {
+		// The 2 takes in the chord at the start, so playing comes back
+		// round to the 2 and the first chord is only a lead in
+		PatternProgram program = compile(0, "|", 1, 2, "|");
+
+		assertEquals(2, program.getSteps());
+		assertEquals(Arrays.asList(0, 1), voices(program, 0));
+		assertEquals(Arrays.asList(2, 0, 1), voices(program, 1));
+		assertEquals(1, program.next(1));
+		assertEquals("2", program.getLabel(1));
+	}
+
+	@Test
+	public void skipLetsTheLastStepRingOn () {
+		PatternProgram program = compile(0, ">");
+
+		assertEquals(2, program.getSteps());
+		assertTrue(program.stops(0));
+		assertFalse(program.stops(1));
+		assertEquals(0, program.getVoices(1));
+		assertEquals(">", program.getLabel(1));
+	}
+
+	@Test
+	public void breakStopsAndPlaysNothing () {
+		PatternProgram program = compile(0, "!");
+
+		assertEquals(2, program.getSteps());
+		assertTrue(program.stops(1));
+		assertEquals(0, program.getVoices(1));
+		assertEquals("!", program.getLabel(1));
+	}
+
+	@Test
+	public void onlyJoinsCompilesToSilence () {
+		PatternProgram program = compile("|", "|", "|");
+
+		assertTrue(program.getSteps() > 0);
+		assertEquals(0, program.getSlots());
+		for (int step = 0; step < program.getSteps(); step ++) {
+			assertEquals(0, program.getVoices(step));
+			assertTrue(program.next(step) < program.getSteps());
+		}
+	}
+}
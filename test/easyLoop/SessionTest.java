@@ -0,0 +1,150 @@
+/**
+ * Tests of writing and reading save files, in both formats
+ *
+ * Part of the Easy Loop program
+ *
+ * @author David Hampson (DavidHampson.97@gmail.com)
+ */
+
+package easyLoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionTest {
+
+	/**
+	 * Where the saves are written
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * A path with an @ and letters outside ASCII in it
+	 */
+	private final static String PATH = "tracks/Café @ Zoë's 低音.wav";
+
+	/**
+	 * Writes bytes to a new file
+	 */
+	private File save (String name, byte[] bytes) throws IOException {
+		File file = folder.newFile(name);
+		try (FileOutputStream output = new FileOutputStream(file)) {
+			output.write(bytes);
+		}
+		return file;
+	}
+
+	@Test
+	public void writtenSessionReadsBack () throws IOException {
+		Session session = new Session();
+		session.trackNumber = 2;
+		session.loopLength = 1.5;
+		session.mainTrackIndex = 0;
+		session.fileList.add(PATH);
+		session.fileList.add(null);
+		session.patternList.add(new ArrayList<Object>(
+				Arrays.<Object>asList(0, "|", 4, ">", "!", -12)));
+		session.patternList.add(new ArrayList<Object>(
+				Arrays.<Object>asList(7)));
+		session.playingList.add(true);
+		session.playingList.add(false);
+		session.maxList.add(3);
+		session.maxList.add(1);
+		session.currentList.add(2);
+		session.currentList.add(1);
+
+		File file = new File(folder.getRoot(), "session" + Session.EXTENTION);
+		session.write(file.getPath());
+		assertFalse(new File(file.getPath() + ".part").exists());
+
+		Session read = Session.read(file.getPath());
+		assertEquals(session.trackNumber, read.trackNumber);
+		assertEquals(session.loopLength, read.loopLength, 0);
+		assertEquals(session.mainTrackIndex, read.mainTrackIndex);
+		assertEquals(session.fileList, read.fileList);
+		assertEquals(session.patternList, read.patternList);
+		assertEquals(session.playingList, read.playingList);
+		assertEquals(session.maxList, read.maxList);
+		assertEquals(session.currentList, read.currentList);
+	}
+
+	@Test
+	public void oldTextSaveReads () throws IOException {
+		// As the old save wrote it, @ in the path and all
+		String text = "2@0.75@1@" + PATH + "@0,|,4,>,!,-12,@true@3@2@"
+				+ "null@0,@false@1@1@\r\n";
+		File file = save("old" + Session.TEXT_EXTENTION,
+				text.getBytes(StandardCharsets.UTF_8));
+
+		Session read = Session.read(file.getPath());
+		assertEquals(2, read.trackNumber);
+		assertEquals(.75, read.loopLength, 0);
+		assertEquals(1, read.mainTrackIndex);
+		assertEquals(PATH, read.fileList.get(0));
+		assertNull(read.fileList.get(1));
+		assertEquals(Arrays.<Object>asList(0, "|", 4, ">", "!", -12),
+				read.patternList.get(0));
+		assertEquals(Arrays.<Object>asList(0), read.patternList.get(1));
+		assertEquals(Arrays.asList(true, false), read.playingList);
+		assertEquals(Arrays.asList(3, 1), read.maxList);
+		assertEquals(Arrays.asList(2, 1), read.currentList);
+	}
+
+	@Test
+	public void patternWithNoStepsIsRejected () throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		output.writeInt(Session.MAGIC);
+		output.writeShort(Session.VERSION);
+		output.writeDouble(.75);
+		output.writeInt(-1);
+		output.writeInt(1);
+
+		// No file, playing, rate 1, count 1 and no steps
+		output.writeInt(14);
+		output.writeBoolean(false);
+		output.writeBoolean(true);
+		output.writeInt(1);
+		output.writeInt(1);
+		output.writeInt(0);
+		output.flush();
+
+		File file = save("empty" + Session.EXTENTION, bytes.toByteArray());
+		try {
+			Session.read(file.getPath());
+			fail("Read a pattern with no steps");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void mainTrackOutOfRangeIsRejected () throws IOException {
+		File file = save("main" + Session.TEXT_EXTENTION,
+				"0@0.75@3@".getBytes(StandardCharsets.UTF_8));
+		try {
+			Session.read(file.getPath());
+			fail("Read a main track that isn't there");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+}